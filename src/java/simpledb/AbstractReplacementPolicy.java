@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * Helper for implementing ReplacementPolicies. Keeps the hit, miss and
+ * eviction counters so that subclasses only deal with their own bookkeeping.
+ */
+public abstract class AbstractReplacementPolicy implements ReplacementPolicy {
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public void recordHit(PageId pid) {
+        hits++;
+        onHit(pid);
+    }
+
+    public void recordMiss(PageId pid) {
+        misses++;
+        onMiss(pid);
+    }
+
+    public PageId chooseVictim(EvictionFilter filter) {
+        PageId victim = selectVictim(filter);
+        if (victim != null)
+            evictions++;
+        return victim;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "(hits=" + hits + ", misses="
+                + misses + ", evictions=" + evictions + ")";
+    }
+
+    /** Update the policy state for a reference to a resident page. */
+    protected abstract void onHit(PageId pid);
+
+    /** Start tracking a page that was just admitted to the pool. */
+    protected abstract void onMiss(PageId pid);
+
+    /**
+     * Pick a victim accepted by the filter and stop tracking it.
+     * @return the victim, or null if there is none
+     */
+    protected abstract PageId selectVictim(EvictionFilter filter);
+}
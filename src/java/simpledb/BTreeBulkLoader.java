@@ -0,0 +1,300 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.Predicate.Op;
+
+/**
+ * BTreeBulkLoader builds a B+ tree bottom-up from tuples sorted on the key
+ * field, in a single pass and without page splits. Leaf pages are packed to
+ * a fill factor and appended to the file in key order; each internal level
+ * collects the first key and page number of every page of the level below
+ * and is packed the same way as it fills up. Only about two pages worth of
+ * tuples or entries per level are kept in memory, so the size of the input
+ * is not bounded by memory, and the file is written sequentially except for
+ * the 4-byte parent and right sibling pointers of pages already written,
+ * which are patched in place once the pages they point to exist.
+ * <p>
+ * A page is written once the level holds enough items that the items left
+ * over can fill at least a half-full page, so no page other than the root
+ * is ever below minimum occupancy. Leaf pages are filled by number of tuples
+ * and internal pages by the space their entries take, which varies for
+ * string keys (see {@link BTreeInternalPage#isCompact}). The key separating
+ * two leaves is the shortest one {@link BTreeInternalPage#separatorKey}
+ * allows, which packs more entries into each internal page.
+ * <p>
+ * Bulk loading bypasses the buffer pool and the log: the file must be empty
+ * and must not be used by any transaction until {@link #finish} returns.
+ *
+ * @see BTreeFile#bulkLoad
+ */
+public class BTreeBulkLoader {
+
+	/**
+	 * One level of the tree under construction. The occupancy of a leaf page is
+	 * its number of tuples, that of an internal page the bytes its entries take.
+	 */
+	private static class Level {
+		final int cap;      // occupancy of a page while more items may follow
+		final int max;      // occupancy a page can hold
+		final int min;      // occupancy a non-root page must have
+		final ArrayList<Tuple> tuples = new ArrayList<Tuple>();       // leaf level
+		final ArrayList<Integer> children = new ArrayList<Integer>(); // internal levels
+		final ArrayList<Field> keys = new ArrayList<Field>();         // separator key before each child
+		final ArrayList<Integer> sizes = new ArrayList<Integer>();    // entry size of each key
+		int pages = 0;
+		int lastPage = 0;
+
+		Level(int cap, int max, int min) {
+			this.cap = cap;
+			this.max = max;
+			this.min = min;
+		}
+
+		int size() {
+			return tuples.size() + children.size();
+		}
+
+		/**
+		 * Returns the occupancy of a page holding items from up to to; the key of
+		 * the first child of an internal page goes to its parent instead.
+		 */
+		int occupancy(int from, int to) {
+			if(children.isEmpty()) {
+				return to - from;
+			}
+			int bytes = 0;
+			for(int c = from + 1; c < to; c++) {
+				bytes += sizes.get(c);
+			}
+			return bytes;
+		}
+
+		/**
+		 * Returns the number of items to write as the next page if the items left
+		 * over would still fill a non-root page, or 0 to wait for more items.
+		 */
+		int nextPage() {
+			int n = 1;
+			while(n < size() && occupancy(0, n + 1) <= cap) {
+				n++;
+			}
+			return (n < size() && occupancy(n, size()) >= min) ? n : 0;
+		}
+
+		/**
+		 * Returns the number of items to write as the second to last page if the
+		 * items left do not fit in one page, or 0 if they do. The two pages are
+		 * about equally full.
+		 */
+		int splitLast() {
+			int total = occupancy(0, size());
+			if(total <= max) {
+				return 0;
+			}
+			int n = 1;
+			while(2 * occupancy(0, n + 1) < total) {
+				n++;
+			}
+			return n;
+		}
+	}
+
+	private final BTreeFile bf;
+	private final int keyField;
+	private final Type[] types;
+	private final int numLeafTuples;
+	private final int numEntries;
+	private final int maxEntrySize;
+	private final double fillFactor;
+	private final ArrayList<Level> levels = new ArrayList<Level>();
+	private int nextPageNo = 1;
+	private Field lastKey = null;
+	private Field lastLeafKey = null;
+	private boolean finished = false;
+
+	/**
+	 * Create a bulk loader for an empty BTreeFile.
+	 *
+	 * @param bf - the BTreeFile to load
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1; pages
+	 * are left partly empty so that later inserts do not split them right away
+	 * @throws DbException if the file is not empty
+	 */
+	public BTreeBulkLoader(BTreeFile bf, double fillFactor) throws DbException, IOException {
+		if(fillFactor < 0.5 || fillFactor > 1) {
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1: " + fillFactor);
+		}
+		if(bf.io().length() != 0) {
+			throw new DbException("can only bulk load an empty BTreeFile");
+		}
+		this.bf = bf;
+		this.keyField = bf.keyField();
+		this.fillFactor = fillFactor;
+		TupleDesc td = bf.getTupleDesc();
+		this.types = new Type[td.numFields()];
+		int nrecbytes = 0;
+		for(int i = 0; i < types.length; i++) {
+			types[i] = td.getFieldType(i);
+			nrecbytes += types[i].getLen();
+		}
+		int npagebytes = BufferPool.getPageSize();
+		// the same page capacities as BTreeLeafPage and BTreeInternalPage
+		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE;
+		this.numLeafTuples = (npagebytes * 8 - leafpointerbytes * 8) / (nrecbytes * 8 + 1);
+		this.numEntries = BTreeInternalPage.getMaxEntries(types[keyField], npagebytes);
+		this.maxEntrySize = BTreeInternalPage.getMaxEntrySize(types[keyField]);
+
+		// reserve the root pointer page; it is written last
+		bf.io().write(0, BTreeRootPtrPage.createEmptyPageData());
+	}
+
+	/** Returns the given level, creating it if needed. */
+	private Level level(int i) {
+		while(levels.size() <= i) {
+			Level l;
+			if(levels.isEmpty()) {
+				int min = numLeafTuples / 2;
+				l = new Level(Math.max(min, (int) (fillFactor * numLeafTuples)), numLeafTuples, min);
+			}
+			else {
+				// the space of numEntries / 2 entries of the maximum size, less all but one
+				// byte of an entry so that a page that much filled is never merged
+				int min = (numEntries / 2 - 1) * maxEntrySize + 1;
+				int cap = Math.max(numEntries / 2, (int) (fillFactor * numEntries)) * maxEntrySize;
+				l = new Level(cap, numEntries * maxEntrySize, min);
+			}
+			levels.add(l);
+		}
+		return levels.get(i);
+	}
+
+	/**
+	 * Add the next tuple to the tree.
+	 *
+	 * @param t - the tuple; its key must not be smaller than that of the previous tuple
+	 * @throws DbException if the tuples are not sorted on the key field
+	 */
+	public void add(Tuple t) throws DbException, IOException {
+		if(finished) {
+			throw new DbException("bulk load already finished");
+		}
+		Field key = t.getField(keyField);
+		if(lastKey != null && lastKey.compare(Op.GREATER_THAN, key)) {
+			throw new DbException("bulk load input is not sorted on field " + keyField);
+		}
+		lastKey = key;
+		Level leaves = level(0);
+		leaves.tuples.add(t);
+		if(leaves.size() >= leaves.cap + leaves.min) {
+			writePage(0, leaves.cap);
+		}
+	}
+
+	/**
+	 * Write out the remaining pages of every level and the root pointer page.
+	 *
+	 * @return the number of pages in the tree, not counting the root pointer page
+	 */
+	public int finish() throws DbException, IOException {
+		if(finished) {
+			throw new DbException("bulk load already finished");
+		}
+		finished = true;
+		if(levels.isEmpty()) {
+			return 0;
+		}
+		int root = 0;
+		int rootCategory = BTreePageId.LEAF;
+		for(int i = 0; i < levels.size(); i++) {
+			Level l = levels.get(i);
+			int n = l.splitLast();
+			if(n > 0) {
+				// split what is left in two pages of at least half
+				writePage(i, n);
+			}
+			if(l.size() > 0) {
+				writePage(i, l.size());
+			}
+			if(l.pages == 1) {
+				// the only page of this level is the root; the level above, if it was
+				// created at all, holds nothing but a pointer to it
+				root = l.lastPage;
+				rootCategory = (i == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+				break;
+			}
+		}
+		bf.io().write(0, BTreeFileEncoder.convertToRootPtrPage(root, rootCategory, 0));
+		bf.io().force();
+		return nextPageNo - 1;
+	}
+
+	/**
+	 * Write the first n items of a level as its next page, and add the page to the
+	 * level above.
+	 */
+	private void writePage(int i, int n) throws IOException {
+		Level l = level(i);
+		int pageNo = nextPageNo++;
+		BTreePageId pid = new BTreePageId(bf.getId(), pageNo, i == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+		byte[] data;
+		Field firstKey;
+		if(i == 0) {
+			List<Tuple> page = l.tuples.subList(0, n);
+			firstKey = BTreeInternalPage.separatorKey(lastLeafKey, page.get(0).getField(keyField));
+			lastLeafKey = page.get(n - 1).getField(keyField);
+			data = BTreeFileEncoder.convertToLeafPage(new ArrayList<Tuple>(page), BufferPool.getPageSize(),
+					types.length, types, keyField);
+			setInt(data, BTreeLeafPage.INDEX_SIZE, l.lastPage); // left sibling
+			if(l.lastPage != 0) {
+				patch(new BTreePageId(bf.getId(), l.lastPage, BTreePageId.LEAF), 2 * BTreeLeafPage.INDEX_SIZE, pageNo);
+			}
+			page.clear();
+		}
+		else {
+			firstKey = l.keys.get(0);
+			int childCategory = (i == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+			ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+			for(int c = 1; c < n; c++) {
+				entries.add(new BTreeEntry(l.keys.get(c),
+						new BTreePageId(bf.getId(), l.children.get(c - 1), childCategory),
+						new BTreePageId(bf.getId(), l.children.get(c), childCategory)));
+			}
+			data = BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(),
+					types[keyField], childCategory);
+			for(int c = 0; c < n; c++) {
+				patch(new BTreePageId(bf.getId(), l.children.get(c), childCategory), 0, pageNo);
+			}
+			l.children.subList(0, n).clear();
+			l.keys.subList(0, n).clear();
+			l.sizes.subList(0, n).clear();
+		}
+		bf.io().write(bf.pageOffset(pid), data);
+		l.pages++;
+		l.lastPage = pageNo;
+
+		Level parent = level(i + 1);
+		parent.children.add(pageNo);
+		parent.keys.add(firstKey);
+		parent.sizes.add(BTreeInternalPage.getEntrySize(firstKey));
+		int next = parent.nextPage();
+		if(next > 0) {
+			writePage(i + 1, next);
+		}
+	}
+
+	/** Overwrite a pointer of a page that has already been written. */
+	private void patch(BTreePageId pid, int offset, int value) throws IOException {
+		byte[] b = new byte[BTreeLeafPage.INDEX_SIZE];
+		setInt(b, 0, value);
+		bf.io().write(bf.pageOffset(pid) + offset, b);
+	}
+
+	private static void setInt(byte[] b, int offset, int value) {
+		b[offset] = (byte) (value >>> 24);
+		b[offset + 1] = (byte) (value >>> 16);
+		b[offset + 2] = (byte) (value >>> 8);
+		b[offset + 3] = (byte) value;
+	}
+}
@@ -24,6 +24,12 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private volatile MappedFileIO io;
+	private final PageLatches latches = new PageLatches();
+
+	/** Number of times a search descends the tree optimistically before it
+	 * falls back to locking the internal pages on its way down */
+	private static final int OPTIMISTIC_ATTEMPTS = 4;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -78,63 +84,74 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
+		int pageSize = id.pgcateg() == BTreePageId.ROOT_PTR ?
+				BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+		byte pageBuf[] = new byte[pageSize];
+		try {
+			io().read(pageOffset(id), pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+		return parsePage(id, pageBuf);
+	}
+
+	/**
+	 * Returns the I/O layer of this file, opening it on first use so the 
+	 * file descriptor stays open across page reads and writes.
+	 */
+	MappedFileIO io() throws IOException {
+		MappedFileIO current = io;
+		if (current != null)
+			return current;
+		synchronized (this) {
+			if (io == null)
+				io = new MappedFileIO(f);
+			return io;
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public synchronized void close() throws IOException {
+		if (io != null) {
+			MappedFileIO current = io;
+			io = null;
+			current.close();
+		}
+	}
+
+	/**
+	 * Returns the offset in the file of the given page. The root pointer page
+	 * is stored first, followed by the other pages numbered from 1.
+	 */
+	long pageOffset(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR)
+			return 0;
+		return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber()-1) * BufferPool.getPageSize();
+	}
 
+	/**
+	 * Construct a page of this file from its raw bytes.
+	 * 
+	 * @param pid - the id of the page
+	 * @param data - the bytes of the page, as read from disk
+	 * @return the page of the type given by the page category of pid
+	 */
+	public Page parsePage(PageId pid, byte[] data) {
+		BTreePageId id = (BTreePageId) pid;
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
-			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
-			}
-			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+			switch (id.pgcateg()) {
+			case BTreePageId.ROOT_PTR:
+				return new BTreeRootPtrPage(id, data);
+			case BTreePageId.INTERNAL:
+				return new BTreeInternalPage(id, data, keyField);
+			case BTreePageId.LEAF:
+				return new BTreeLeafPage(id, data, keyField);
+			default: // BTreePageId.HEADER
+				return new BTreeHeaderPage(id, data);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
@@ -146,18 +163,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
-		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		io().write(pageOffset(id), page.getPageData());
 	}
 	
 	/**
@@ -165,7 +171,36 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		try {
+			return (int) ((io().length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Build this BTreeFile, which must be empty, from tuples sorted on the key field.
+	 * The tree is built bottom-up in a single pass, without splitting pages, and 
+	 * the pages are written out sequentially. Bulk loading is not logged and 
+	 * bypasses the buffer pool, so no transaction may use this file meanwhile.
+	 * 
+	 * @param child - the tuples to load, in key order
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+	 * @return the number of pages in the tree, not counting the root pointer page
+	 * @see BTreeBulkLoader
+	 */
+	public int bulkLoad(OpIterator child, double fillFactor) 
+			throws DbException, IOException, TransactionAbortedException {
+		BTreeBulkLoader loader = new BTreeBulkLoader(this, fillFactor);
+		child.open();
+		try {
+			while(child.hasNext()) {
+				loader.add(child.next());
+			}
+		} finally {
+			child.close();
+		}
+		return loader.finish();
 	}
 
 	/**
@@ -176,11 +211,18 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
+	 * Finds and locks the leaf page in the B+ tree corresponding to
+	 * the left-most page possibly containing the key field f, and locks the 
 	 * leaf node with permission perm.
 	 * 
+	 * Internal nodes (and the root pointer page, if the search starts there) are
+	 * not locked: the search reads them optimistically, checking their latch
+	 * versions (see PageLatches) and starting over if a writer changed one of
+	 * them meanwhile. After a few failed attempts, it falls back to locking all
+	 * internal nodes along the path to the leaf node with READ_ONLY permission.
+	 * Snapshot transactions always take the locking path, which for them reads
+	 * their snapshot without taking locks.
+	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
 	 * @param tid - the transaction id
@@ -195,7 +237,97 @@ public class BTreeFile implements DbFile {
 			Field f) 
 					throws DbException, TransactionAbortedException {
 		// some code goes here
-        return null;
+		if(!Database.getBufferPool().getVersionStore().isSnapshot(tid)) {
+			for(int i = 0; i < OPTIMISTIC_ATTEMPTS; i++) {
+				BTreeLeafPage leaf = findLeafPageOptimistic(tid, dirtypages, pid, perm, f);
+				if(leaf != null) {
+					return leaf;
+				}
+			}
+		}
+		return findLeafPageLocked(tid, dirtypages, pid, perm, f);
+	}
+
+	/**
+	 * Descend the tree without locking the internal nodes, then lock the leaf node
+	 * and check that none of the nodes on the path has changed since it was read.
+	 * 
+	 * @return the leaf page, or null if the search has to start over
+	 */
+	private BTreeLeafPage findLeafPageOptimistic(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, 
+			Permissions perm, Field f) 
+					throws DbException, TransactionAbortedException {
+		BufferPool pool = Database.getBufferPool();
+		ArrayList<BTreePageId> path = new ArrayList<BTreePageId>();
+		ArrayList<Page> pages = new ArrayList<Page>();
+		ArrayList<Long> versions = new ArrayList<Long>();
+		try {
+			while(pid.pgcateg() != BTreePageId.LEAF) {
+				long version = latches.readBegin(pid);
+				if(version < 0) {
+					return null;
+				}
+				Page p = pool.getPageUnlocked(pid);
+				BTreePageId child = getChildId(p, f);
+				if(child == null || !latches.validate(pid, version)) {
+					return null;
+				}
+				path.add(pid);
+				pages.add(p);
+				versions.add(version);
+				pid = child;
+			}
+		} catch(RuntimeException e) {
+			// the page was torn by a concurrent writer
+			return null;
+		}
+
+		BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+
+		// an internal node changed by a transaction that aborted has been discarded
+		// from the buffer pool, so it is also checked to be the same page object
+		try {
+			for(int i = 0; i < path.size(); i++) {
+				if(!latches.validate(path.get(i), versions.get(i)) 
+						|| pool.getPageUnlocked(path.get(i)) != pages.get(i)) {
+					return null;
+				}
+			}
+		} catch(RuntimeException e) {
+			return null;
+		} catch(DbException e) {
+			return null;
+		}
+		return leaf;
+	}
+
+	/**
+	 * Descend the tree, locking the internal nodes along the path with READ_ONLY 
+	 * permission, and lock the leaf node with permission perm.
+	 */
+	private BTreeLeafPage findLeafPageLocked(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, 
+			Permissions perm, Field f) 
+					throws DbException, TransactionAbortedException {
+		while(pid.pgcateg() != BTreePageId.LEAF) {
+			Page p = getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+			BTreePageId child = getChildId(p, f);
+			if(child == null) {
+				throw new DbException("no child to search in " + pid.toString());
+			}
+			pid = child;
+		}
+		return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+	}
+
+	/**
+	 * Returns the child of a root pointer or internal page to search for the left-most
+	 * leaf page possibly containing the key field f, or null if the page has no children.
+	 */
+	private static BTreePageId getChildId(Page p, Field f) {
+		if(p instanceof BTreeRootPtrPage) {
+			return ((BTreeRootPtrPage) p).getRootId();
+		}
+		return ((BTreeInternalPage) p).findChildId(f);
 	}
 	
 	/**
@@ -216,10 +348,28 @@ public class BTreeFile implements DbFile {
 		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
 	}
 
+	/**
+	 * Convenience method to find a leaf page starting from the root pointer page,
+	 * which is then read without locking it like the internal nodes.
+	 * Used by the BTreeFile iterators.
+	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+	 * 
+	 * @param tid - the transaction id
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for
+	 * @return the left-most leaf page possibly containing the key field f
+	 * 
+	 */
+	BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f) 
+					throws DbException, TransactionAbortedException {
+		return findLeafPage(tid, new HashMap<PageId, Page>(), BTreeRootPtrPage.getId(tableid), perm, f);
+	}
+
 	/**
 	 * Split a leaf page to make room for new tuples and recursively split the parent node
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
-	 * of the first tuple in the right-hand page (the key is "copied up"), and child pointers 
+	 * of the first tuple in the right-hand page (the key is "copied up"), or the shorter separator
+	 * {@link BTreeInternalPage#separatorKey} derives from it, and child pointers 
 	 * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent 
 	 * pointers as needed.  
 	 * 
@@ -394,7 +544,9 @@ public class BTreeFile implements DbFile {
 	 * Method to encapsulate the process of locking/fetching a page.  First the method checks the local 
 	 * cache ("dirtypages"), and if it can't find the requested page there, it fetches it from the buffer pool.  
 	 * It also adds pages to the dirtypages cache if they are fetched with read-write permission, since 
-	 * presumably they will soon be dirtied by this transaction.
+	 * presumably they will soon be dirtied by this transaction. Internal and root pointer
+	 * pages fetched with read-write permission are also write latched until the end of the
+	 * current insertTuple or deleteTuple, since searches read them without locks.
 	 * 
 	 * This method is needed to ensure that page updates are not lost if the same pages are
 	 * accessed multiple times.
@@ -417,6 +569,9 @@ public class BTreeFile implements DbFile {
 		else {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
 			if(perm == Permissions.READ_WRITE) {
+				if(pid.pgcateg() == BTreePageId.INTERNAL || pid.pgcateg() == BTreePageId.ROOT_PTR) {
+					latches.beginWrite(tid, pid);
+				}
 				dirtypages.put(pid, p);
 			}
 			return p;
@@ -437,26 +592,30 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+		try {
+			// get a read lock on the root pointer page and use it to locate the root page
+			BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+			BTreePageId rootId = rootPtr.getRootId();
+
+			if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
+				rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+				rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+				rootPtr.setRootId(rootId);
+			}
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
-		}
+			// find and lock the left-most leaf page corresponding to the key field,
+			// and split the leaf page if there are no more slots available
+			BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+			if(leafPage.getNumEmptySlots() == 0) {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			// insert the tuple into the leaf page
+			leafPage.insertTuple(t);
+		} finally {
+			latches.endWrites(tid);
 		}
 
-		// insert the tuple into the leaf page
-		leafPage.insertTuple(t);
-
 		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
 		dirtyPagesArr.addAll(dirtypages.values());
 		return dirtyPagesArr;
@@ -781,7 +940,7 @@ public class BTreeFile implements DbFile {
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
 		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -818,14 +977,18 @@ public class BTreeFile implements DbFile {
 
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
 				BTreePageId.LEAF);
-		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-		page.deleteTuple(t);
-
-		// if the page is below minimum occupancy, get some tuples from its siblings
-		// or merge with one of the siblings
-		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-		if(page.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, page);
+		try {
+			BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+			page.deleteTuple(t);
+
+			// if the page is below minimum occupancy, get some tuples from its siblings
+			// or merge with one of the siblings
+			int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+			if(page.getNumEmptySlots() > maxEmptySlots) { 
+				handleMinOccupancyPage(tid, dirtypages, page);
+			}
+		} finally {
+			latches.endWrites(tid);
 		}
 
 		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
@@ -846,15 +1009,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(io().length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				io().append(emptyRootPtrData);
+				io().append(emptyLeafData);
 			}
 		}
 
@@ -910,11 +1070,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				io().append(emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -945,10 +1102,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		io().write(pageOffset(newPageId), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1082,6 +1236,16 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	TransactionId tid;
 	BTreeFile f;
 
+	/**
+	 * Follows the right sibling pointers of the leaf pages, so that leaves
+	 * ahead of the scan can be read in the background
+	 */
+	private static final ReadAhead.Successor RIGHT_SIBLING = new ReadAhead.Successor() {
+		public PageId next(Page page) {
+			return ((BTreeLeafPage) page).getRightSiblingId();
+		}
+	};
+
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
@@ -1096,13 +1260,20 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+		pageRead();
 		it = curp.iterator();
 	}
 
+	/**
+	 * Report the current leaf to the BufferPool's read-ahead
+	 */
+	private void pageRead() {
+		ReadAhead readAhead = Database.getBufferPool().getReadAhead();
+		if (readAhead != null)
+			readAhead.pageRead(curp, RIGHT_SIBLING);
+	}
+
 	/**
 	 * Read the next tuple either from the current page if it has more tuples or
 	 * from the next page by following the right sibling pointer.
@@ -1122,6 +1293,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				pageRead();
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1178,20 +1350,18 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	/**
 	 * Open this iterator by getting an iterator on the first leaf page applicable
-	 * for the given predicate operation
+	 * for the given predicate operation, starting from the first tuple that can match
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, ipred.getField());
+			it = curp.iterator(curp.findSlot(ipred.getField(), ipred.getOp() == Op.GREATER_THAN));
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+			it = curp.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
@@ -228,10 +228,7 @@ public class BTreeFileEncoder {
 		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
 		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		int nentries = BTreeInternalPage.getMaxEntries(keyType, npagebytes);
 
 		ArrayList<ArrayList<BTreeEntry>> entries = new ArrayList<ArrayList<BTreeEntry>>();
 
@@ -624,6 +621,9 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if (BTreeInternalPage.isCompact(keyType))
+			return convertToCompactInternalPage(entries, npagebytes, keyType, childPageCategory);
+
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -697,6 +697,60 @@ public class BTreeFileEncoder {
 
 	}
 
+	/**
+	 * Convert a set of entries to a byte array in the compact format of a BTreeInternalPage
+	 * keyed on a string field, writing as many entries as fit in the page.
+	 * 
+	 * @see #convertToInternalPage(ArrayList, int, Type, int)
+	 */
+	private static byte[] convertToCompactInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+			Type keyType, int childPageCategory)
+					throws IOException {
+		int nslots = BTreeInternalPage.getNumSlots(keyType, npagebytes);
+		int maxbytes = BTreeInternalPage.getMaxEntries(keyType, npagebytes) * BTreeInternalPage.getMaxEntrySize(keyType);
+
+		Collections.sort(entries, new EntryComparator());
+		int entrycount = 0;
+		for (int bytes = 0; entrycount < entries.size(); entrycount++) {
+			bytes += BTreeInternalPage.getEntrySize(entries.get(entrycount).getKey());
+			if (bytes > maxbytes)
+				break;
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+
+		// the header, with a 1 for the extra child pointer and each entry
+		int nheaderbytes = (nslots + 7) / 8;
+		for (int i=0; i<nheaderbytes; i++) {
+			byte headerbyte = 0;
+			for (int j=0; j<8; j++) {
+				if (i * 8 + j < entrycount + 1)
+					headerbyte |= (1 << j);
+			}
+			dos.writeByte(headerbyte);
+		}
+
+		dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+		for(int e = 0; e < entrycount; e++) {
+			dos.writeInt(entries.get(e).getRightChild().getPageNumber());
+			String key = ((StringField) entries.get(e).getKey()).getValue();
+			if (key.length() > Type.STRING_LEN)
+				key = key.substring(0, Type.STRING_LEN);
+			dos.writeByte(key.length());
+			dos.writeBytes(key);
+		}
+
+		// pad the rest of the page with zeroes
+		while (dos.size() < npagebytes)
+			dos.writeByte(0);
+
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Create a byte array in the format of a BTreeRootPtrPage
 	 * 
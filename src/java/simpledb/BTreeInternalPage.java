@@ -18,9 +18,16 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
+	private final boolean compact;
+	/** The number of entries, and the space they use; kept up to date by every change */
+	private int numEntries;
+	private int usedBytes;
 	
 	private int childCategory; // either leaf or internal
 
+	/** The space an entry with a variable-length key takes, not counting the key: child pointer and length byte */
+	private static final int COMPACT_ENTRY_OVERHEAD = INDEX_SIZE + 1;
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -37,7 +44,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		if (checkOccupancy && depth > 0) {
-			assert (getNumEntries() >= getMaxEntries() / 2);
+			assert (getMaxEntries() - getNumEmptySlots() >= getMaxEntries() / 2);
 		}
 	}
 	
@@ -57,6 +64,16 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * Pages keyed on a string field use a compact format instead (see {@link #isCompact}).
+	 * After the parent pointer, child category and header, each used slot stores its child
+	 * pointer and, except for slot 0, a one byte key length followed by the key; empty slots
+	 * take no space. Since separator keys are usually much shorter than the declared string
+	 * length, especially once suffix truncated by {@link #separatorKey}, such a page has room
+	 * for many more slots than it could hold entries of the maximum size. Its capacity is
+	 * measured in bytes: getMaxEntries() is the number of maximum size entries that fit, and
+	 * getNumEmptySlots() the number of maximum size entries that still fit, so the occupancy
+	 * rules of BTreeFile apply to the space used rather than to the number of entries.
+	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -67,7 +84,8 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
-		this.numSlots = getMaxEntries() + 1;
+		this.compact = isCompact(td.getFieldType(keyField));
+		this.numSlots = getNumSlots(td.getFieldType(keyField), BufferPool.getPageSize());
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -87,18 +105,41 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if (compact) {
+			for (int i=0; i<numSlots; i++) {
+				if (!isSlotUsed(i)) {
+					children[i] = -1;
+					continue;
+				}
+				children[i] = dis.readInt();
+				if (i > 0) {
+					byte[] b = new byte[dis.readUnsignedByte()];
+					dis.readFully(b);
+					keys[i] = new StringField(new String(b), Type.STRING_LEN);
+					addUsed(keys[i]);
+				}
+			}
+			dis.close();
+
+			setBeforeImage();
+			return;
+		}
+
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
 			// since a node with m keys has m+1 pointers
 			keys[0] = null;
-			for (int i=1; i<keys.length; i++)
+			for (int i=1; i<keys.length; i++) {
 				keys[i] = readNextKey(dis,i);
+				if (keys[i] != null)
+					addUsed(keys[i]);
+			}
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -115,27 +156,120 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		return getMaxEntries(td.getFieldType(keyField), BufferPool.getPageSize());
+	}
+
+	/**
+	 * Retrieve the maximum number of entries a page with the given key type can hold.
+	 * For a compact page, this is the number of entries with keys of the maximum length.
+	 */
+	static int getMaxEntries(Type keyType, int pageSize) {
+		if (isCompact(keyType)) {
+			// one parent pointer, 1 byte for child page category, the header and one extra child pointer
+			int extraBytes = 2 * INDEX_SIZE + 1 + getHeaderSize(getNumSlots(keyType, pageSize));
+			return (pageSize - extraBytes) / getMaxEntrySize(keyType);
+		}
+		int keySize = keyType.getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
 		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
-		int entriesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
+		int entriesPerPage = (pageSize*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
 		return entriesPerPage;
 	}
 
 	/**
-	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
+	 * Retrieve the number of slots (entries + 1) of a page with the given key type. A compact page
+	 * has a slot for as many entries with empty keys as could fit.
+	 */
+	static int getNumSlots(Type keyType, int pageSize) {
+		if (isCompact(keyType)) {
+			int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
+			return (pageSize*8 - extraBits) / (COMPACT_ENTRY_OVERHEAD * 8 + 1) + 1;
+		}
+		return getMaxEntries(keyType, pageSize) + 1;
+	}
+
+	/**
+	 * @return true if pages keyed on the given type store their keys with variable length
+	 */
+	static boolean isCompact(Type keyType) {
+		return keyType == Type.STRING_TYPE;
+	}
+
+	/**
+	 * @return the most space an entry (key and child pointer) with the given key type takes
+	 */
+	static int getMaxEntrySize(Type keyType) {
+		if (isCompact(keyType))
+			return COMPACT_ENTRY_OVERHEAD + Type.STRING_LEN;
+		return keyType.getLen() + INDEX_SIZE;
+	}
+
+	/**
+	 * @return the space an entry (key and child pointer) with the given key takes
+	 */
+	static int getEntrySize(Field key) {
+		if (isCompact(key.getType()))
+			return COMPACT_ENTRY_OVERHEAD + compactKey(key).length();
+		return getMaxEntrySize(key.getType());
+	}
+
+	private static String compactKey(Field key) {
+		String s = ((StringField) key).getValue();
+		return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+	}
+
+	/**
+	 * Returns the shortest key that separates a page whose largest key is left from the page
+	 * to its right whose smallest key is right: the shortest prefix of right that is greater
+	 * than left, or right itself if there is none. All keys of the left page are then
+	 * smaller than the separator and all keys of the right page are greater than or equal to
+	 * it, as searches require. Keys other than strings are not truncated.
+	 * 
+	 * @param left - the largest key on the left page, or null if there is none
+	 * @param right - the smallest key on the right page
+	 * @return the separator key to store in the parent
+	 */
+	public static Field separatorKey(Field left, Field right) {
+		if (left == null || right.getType() != Type.STRING_TYPE)
+			return right;
+		String r = ((StringField) right).getValue();
+		for (int len = 1; len < r.length(); len++) {
+			StringField prefix = new StringField(r.substring(0, len), Type.STRING_LEN);
+			if (prefix.compare(Op.GREATER_THAN, left))
+				return prefix;
+		}
+		return right;
+	}
+
+	/**
+	 * Computes the number of bytes in the header of a B+ internal page with the given number of slots
 	 * @return the number of bytes in the header
 	 */
-	private int getHeaderSize() {        
-		int slotsPerPage = getMaxEntries() + 1;
+	private static int getHeaderSize(int slotsPerPage) {        
 		int hb = (slotsPerPage / 8);
 		if (hb * 8 < slotsPerPage) hb++;
 
 		return hb;
 	}
 
+	private int getHeaderSize() {        
+		return getHeaderSize(numSlots);
+	}
+
+	/** Count an entry with the given key as added to this page */
+	private void addUsed(Field key) {
+		numEntries++;
+		usedBytes += getEntrySize(key);
+	}
+
+	/** Count an entry with the given key as removed from this page */
+	private void removeUsed(Field key) {
+		numEntries--;
+		usedBytes -= getEntrySize(key);
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeInternalPage getBeforeImage(){
@@ -262,10 +396,26 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
+		// create the entries of a compact page
+		for (int i=0; compact && i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			try {
+				dos.writeInt(children[i]);
+				if (i > 0) {
+					String s = compactKey(keys[i]);
+					dos.writeByte(s.length());
+					dos.writeBytes(s);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
-		for (int i=1; i<keys.length; i++) {
+		for (int i=1; !compact && i<keys.length; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
@@ -290,7 +440,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// create the child pointers
-		for (int i=0; i<children.length; i++) {
+		for (int i=0; !compact && i<children.length; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
@@ -315,8 +465,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+		int zerolen = BufferPool.getPageSize() - dos.size();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -352,6 +501,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to delete entry on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to delete null entry.");
+		removeUsed(keys[rid.getTupleNumber()]);
 		if(deleteRightChild) {
 			markSlotUsed(rid.getTupleNumber(), false);
 		}
@@ -409,6 +559,9 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to update null entry.");
+		if(compact && usedBytes - getEntrySize(keys[rid.getTupleNumber()]) + getEntrySize(e.getKey()) >
+				getMaxEntries() * getMaxEntrySize(e.getKey().getType()))
+			throw new DbException("not enough room on page to update entry with key " + e.getKey());
 		
 		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -430,7 +583,9 @@ public class BTreeInternalPage extends BTreePage {
 			}	
 		}
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
+		removeUsed(keys[rid.getTupleNumber()]);
 		keys[rid.getTupleNumber()] = e.getKey();
+		addUsed(e.getKey());
 	}
 
 	/**
@@ -457,10 +612,11 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("child page category mismatch in insertEntry");
 
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
+			addUsed(e.getKey());
 			markSlotUsed(0, true);
 			markSlotUsed(1, true);
 			e.setRecordId(new RecordId(pid, 1));
@@ -476,7 +632,7 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
-		if (emptySlot == -1)
+		if (emptySlot == -1 || getNumEmptySlots() == 0)
 			throw new DbException("called insertEntry on page with no empty slots.");        
 
 		// find the child pointer matching the left or right child in this entry
@@ -541,6 +697,7 @@ public class BTreeInternalPage extends BTreePage {
 		markSlotUsed(goodSlot, true);
 		Debug.log(1, "BTreeLeafPage.insertEntry: new entry, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
 		keys[goodSlot] = e.getKey();
+		addUsed(e.getKey());
 		children[goodSlot] = e.getRightChild().getPageNumber();
 		e.setRecordId(new RecordId(pid, goodSlot));
 	}
@@ -562,22 +719,32 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		return numEntries;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. For a compact page, this is the
+	 * number of entries with keys of the maximum length that still fit.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		// start from 1 because the first key slot is not used
+		// the first key slot is not used
 		// since a node with m keys has m+1 pointers
-		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
+		int cnt = numSlots - 1 - numEntries;
+		if(compact) {
+			int maxEntrySize = getMaxEntrySize(td.getFieldType(keyField));
+			int freeBytes = getMaxEntries() * maxEntrySize - usedBytes;
+			cnt = Math.min(cnt, freeBytes / maxEntrySize);
+		}
 		return cnt;
 	}
 
+	/**
+	 * Returns the number of slots on this page, including the first slot that only holds a child pointer
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -643,6 +810,31 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	Field getSlotKey(int i) {
+		return keys[i];
+	}
+
+	/**
+	 * Binary search for the child to descend to when looking for the left-most leaf page
+	 * possibly containing f: the left child of the first entry whose key is greater than or
+	 * equal to f, or the right-most child if there is none.
+	 * 
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the child page id, or null if the page has no children
+	 */
+	public BTreePageId findChildId(Field f) {
+		if (!isSlotUsed(0))
+			return null;
+		int slot = 0;
+		if (f != null) {
+			// the left child of an entry is in the used slot before it
+			slot = searchSlots(f, false, 1, numSlots - 1) - 1;
+			while (!isSlotUsed(slot))
+				slot--;
+		}
+		return new BTreePageId(pid.getTableId(), children[slot], childCategory);
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith child page id out of this page
 	 * @param i - the index of the child page id
@@ -741,7 +933,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
+		this.curEntry = p.getNumSlots() - 1;
 		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
 			--curEntry;
 		}
@@ -483,6 +483,31 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @param slot - the slot to start from
+	 * @return an iterator over the tuples on this page in slots from the given one on
+	 * @see #findSlot
+	 */
+	public Iterator<Tuple> iterator(int slot) {
+		BTreeLeafPageIterator it = new BTreeLeafPageIterator(this);
+		it.curTuple = slot;
+		return it;
+	}
+
+	Field getSlotKey(int i) {
+		return tuples[i].getField(keyField);
+	}
+
+	/**
+	 * Binary search for the first tuple whose key is greater than or equal to f, or
+	 * greater than f if strict is set.
+	 * 
+	 * @return the slot of the tuple, or the number of slots if there is none
+	 */
+	public int findSlot(Field f, boolean strict) {
+		return searchSlots(f, strict, 0, numSlots - 1);
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -138,5 +138,41 @@ public abstract class BTreePage implements Page {
 	 */
 	public abstract boolean isSlotUsed(int i);
 
+	/**
+	 * Returns the key stored in a used slot of this page
+	 */
+	abstract Field getSlotKey(int i);
+
+	/**
+	 * Binary search for the first used slot between lo and hi (inclusive) whose key is
+	 * greater than or equal to f, or greater than f if strict is set. The used slots of a
+	 * page are in key order, but empty slots may lie anywhere between them, so a probe
+	 * that lands on an empty slot moves on to the next used one.
+	 * 
+	 * @return the slot, or hi + 1 if there is none
+	 */
+	protected int searchSlots(Field f, boolean strict, int lo, int hi) {
+		Predicate.Op op = strict ? Predicate.Op.LESS_THAN : Predicate.Op.LESS_THAN_OR_EQ;
+		int found = hi + 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int m = mid;
+			while (m <= hi && !isSlotUsed(m))
+				m++;
+			if (m > hi) {
+				// nothing but empty slots from mid on
+				hi = mid - 1;
+			}
+			else if (f.compare(op, getSlotKey(m))) {
+				found = m;
+				hi = mid - 1;
+			}
+			else {
+				lo = m + 1;
+			}
+		}
+		return found;
+	}
+
 }
 
@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchAggregate is the batch counterpart of {@link Aggregate}: it computes
+ * MIN, MAX, SUM, AVG or COUNT over a single column, grouped by at most one
+ * column. Integer aggregates read the child's column directly, and the
+ * running aggregate of each group is kept in a long[] rather than in Fields.
+ * Only COUNT is supported over a string column, as for
+ * {@link StringAggregator}.
+ */
+public class BatchAggregate extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    // the running aggregate of a group
+    private static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
+
+    private final BatchOpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private transient LinkedHashMap<Object, long[]> groups;
+    private transient Iterator<Map.Entry<Object, long[]>> results;
+    private transient TupleBatch out;
+
+    /**
+     * @param child the operator to read rows from
+     * @param afield the column over which to compute the aggregate
+     * @param gfield the column to group by, or {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregation operator to use
+     * @throws IllegalArgumentException if aop is not supported for the type of afield
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        TupleDesc childtd = child.getTupleDesc();
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG
+                || (childtd.getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT))
+            throw new IllegalArgumentException("unsupported aggregate " + aop + " over "
+                    + childtd.getFieldType(afield));
+        String aname = Aggregate.nameOfAggregatorOp(aop) + " (" + childtd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+        else
+            td = new TupleDesc(new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childtd.getFieldName(gfield), aname });
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        out = new TupleBatch(td);
+        results = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        groups = null;
+        results = null;
+        out = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        groups = null;
+        results = null;
+    }
+
+    /** Read every row of the child into the running aggregates. */
+    private void aggregate() throws DbException, TransactionAbortedException {
+        groups = new LinkedHashMap<Object, long[]>();
+        boolean ints = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            int n = b.numRows();
+            int[] col = ints ? b.getIntColumn(afield) : null;
+            long[] acc = null;
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                if (acc == null || gfield != Aggregator.NO_GROUPING) {
+                    Object key = (gfield == Aggregator.NO_GROUPING ? null : b.getKey(gfield, r));
+                    acc = groups.get(key);
+                    if (acc == null) {
+                        acc = new long[] { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };
+                        groups.put(key, acc);
+                    }
+                }
+                acc[COUNT]++;
+                if (ints) {
+                    int v = col[r];
+                    acc[SUM] += v;
+                    acc[MIN] = Math.min(acc[MIN], v);
+                    acc[MAX] = Math.max(acc[MAX], v);
+                }
+            }
+        }
+        results = groups.entrySet().iterator();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        if (results == null)
+            aggregate();
+        out.clear();
+        while (!out.isFull() && results.hasNext()) {
+            Map.Entry<Object, long[]> e = results.next();
+            int r = out.appendRow();
+            int f = 0;
+            if (gfield != Aggregator.NO_GROUPING) {
+                if (e.getKey() instanceof Integer)
+                    out.getIntColumn(f)[r] = (Integer) e.getKey();
+                else
+                    out.getStringColumn(f)[r] = (String) e.getKey();
+                f++;
+            }
+            out.getIntColumn(f)[r] = value(e.getValue());
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    private int value(long[] acc) {
+        switch (aop) {
+        case MIN:
+            return (int) acc[MIN];
+        case MAX:
+            return (int) acc[MAX];
+        case SUM:
+            return (int) acc[SUM];
+        case AVG:
+            return (int) (acc[SUM] / acc[COUNT]);
+        default:
+            return (int) acc[COUNT];
+        }
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[] { child };
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch counterpart of {@link Filter}. It evaluates the
+ * predicate over the predicate's column of each batch and narrows the
+ * batch's selection to the rows that pass, without copying them.
+ */
+public class BatchFilter extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+    private final Predicate p;
+    private final BatchOpIterator child;
+    private transient int[] sel;
+
+    /**
+     * @param p the predicate to filter rows with
+     * @param child the operator to read rows from
+     */
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        sel = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        if (b == null)
+            return null;
+        // row(i) is read before sel[n] is written and n <= i, so this is
+        // safe even if the batch already selects from this filter's array
+        if (sel == null || sel.length < b.capacity())
+            sel = new int[b.capacity()];
+        int rows = b.numRows();
+        int n = 0;
+        int field = p.getField();
+        Predicate.Op op = p.getOp();
+        if (p.getOperand().getType() == Type.INT_TYPE) {
+            int[] col = b.getIntColumn(field);
+            int v = ((IntField) p.getOperand()).getValue();
+            for (int i = 0; i < rows; i++) {
+                int r = b.row(i);
+                if (TupleBatch.compare(col[r], op, v))
+                    sel[n++] = r;
+            }
+        } else {
+            String[] col = b.getStringColumn(field);
+            String v = ((StringField) p.getOperand()).getValue();
+            for (int i = 0; i < rows; i++) {
+                int r = b.row(i);
+                if (TupleBatch.compare(col[r], op, v))
+                    sel[n++] = r;
+            }
+        }
+        b.select(sel, n);
+        return b;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[] { child };
+    }
+}
@@ -0,0 +1,217 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchHashEquiJoin is the batch counterpart of {@link HashEquiJoin}. It
+ * loads up to {@link #MAP_SIZE} rows of the left child into a hash table,
+ * probes it with every row of the right child, and repeats with the next
+ * rows of the left child until they run out.
+ * <p>
+ * The loaded rows are copied into batches, and rows with equal keys are
+ * chained through an int array indexed by row number. Integer keys are
+ * looked up in an open addressing table of ints, so neither loading nor
+ * probing allocates an object per row.
+ */
+public class BatchHashEquiJoin extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of rows of the left child loaded at a time. */
+    public final static int MAP_SIZE = 20000;
+
+    private static final int TABLE_SIZE = Integer.highestOneBit(MAP_SIZE) << 2;
+    private static final int START = -2;
+
+    private final JoinPredicate pred;
+    private final BatchOpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final boolean intKeys;
+
+    private transient TupleBatch out;
+    // the loaded left rows; row g is row g % DEFAULT_SIZE of batch g / DEFAULT_SIZE
+    private transient ArrayList<TupleBatch> loaded;
+    private transient int numLoaded;
+    private transient int[] next;        // next loaded row with the same key, or -1
+    private transient int[] slotKeys;    // int keys: open addressing table
+    private transient int[] slotHeads;   // first loaded row of each slot, or -1
+    private transient HashMap<String, Integer> heads; // string keys
+    private transient TupleBatch lb;     // left batch being loaded
+    private transient int li;
+    private transient boolean mapLoaded;
+    private transient TupleBatch rb;     // right batch being probed
+    private transient int ri, chain;
+
+    /**
+     * @param p the predicate to join the children on; its operator must be EQUALS
+     * @param child1 the left relation, which is loaded into the hash table
+     * @param child2 the right relation, which probes it
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        out = new TupleBatch(comboTD);
+        loaded = new ArrayList<TupleBatch>();
+        next = new int[MAP_SIZE];
+        if (intKeys) {
+            slotKeys = new int[TABLE_SIZE];
+            slotHeads = new int[TABLE_SIZE];
+        } else {
+            heads = new HashMap<String, Integer>();
+        }
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        out = lb = rb = null;
+        loaded = null;
+        next = slotKeys = slotHeads = null;
+        heads = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        lb = rb = null;
+        mapLoaded = false;
+    }
+
+    /**
+     * Load the next rows of the left child into the hash table.
+     *
+     * @return false if the left child has no rows left
+     */
+    private boolean loadMap() throws DbException, TransactionAbortedException {
+        numLoaded = 0;
+        for (TupleBatch b : loaded)
+            b.clear();
+        if (intKeys)
+            Arrays.fill(slotHeads, -1);
+        else
+            heads.clear();
+
+        int f = pred.getField1();
+        while (numLoaded < MAP_SIZE) {
+            if (lb == null || li == lb.numRows()) {
+                lb = child1.nextBatch();
+                li = 0;
+                if (lb == null)
+                    break;
+            }
+            int r = lb.row(li++);
+            int g = numLoaded++;
+            if (g / TupleBatch.DEFAULT_SIZE == loaded.size())
+                loaded.add(new TupleBatch(child1.getTupleDesc()));
+            loaded.get(g / TupleBatch.DEFAULT_SIZE).addRow(lb, r);
+            if (intKeys) {
+                int h = slot(lb.getInt(f, r));
+                next[g] = slotHeads[h];
+                slotKeys[h] = lb.getInt(f, r);
+                slotHeads[h] = g;
+            } else {
+                Integer prev = heads.put(lb.getString(f, r), g);
+                next[g] = (prev == null ? -1 : prev);
+            }
+        }
+        return numLoaded > 0;
+    }
+
+    /** @return the slot of an int key: the slot holding it or the empty slot it would go in */
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        h = (h ^ (h >>> 16)) & (TABLE_SIZE - 1);
+        while (slotHeads[h] != -1 && slotKeys[h] != key)
+            h = (h + 1) & (TABLE_SIZE - 1);
+        return h;
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        while (!out.isFull()) {
+            if (!mapLoaded) {
+                if (!loadMap())
+                    break;
+                mapLoaded = true;
+            }
+            if (rb == null) {
+                rb = child2.nextBatch();
+                if (rb == null) {
+                    // child2 is done: advance child1
+                    child2.rewind();
+                    mapLoaded = false;
+                    continue;
+                }
+                ri = 0;
+                chain = START;
+            }
+            if (probe())
+                rb = null;
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    /**
+     * Add the matches of the rows of rb to out, starting from row ri and,
+     * within its matches, loaded row chain.
+     *
+     * @return true if every row of rb has been probed, false if out filled up
+     */
+    private boolean probe() {
+        int f = pred.getField2();
+        int rn = rb.numRows();
+        for (; ri < rn; ri++, chain = START) {
+            int r = rb.row(ri);
+            if (chain == START) {
+                if (intKeys) {
+                    chain = slotHeads[slot(rb.getInt(f, r))];
+                } else {
+                    Integer head = heads.get(rb.getString(f, r));
+                    chain = (head == null ? -1 : head);
+                }
+            }
+            for (; chain >= 0; chain = next[chain]) {
+                if (out.isFull())
+                    return false;
+                out.addJoinedRow(loaded.get(chain / TupleBatch.DEFAULT_SIZE),
+                        chain % TupleBatch.DEFAULT_SIZE, rb, r);
+            }
+        }
+        return true;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[] { child1, child2 };
+    }
+}
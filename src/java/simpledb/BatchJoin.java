@@ -0,0 +1,139 @@
+package simpledb;
+
+/**
+ * BatchJoin is the batch counterpart of {@link Join}: a block nested loops
+ * join that compares every row of a batch of the left child with every row
+ * of each batch of the right child, so the right child is read once per left
+ * batch rather than once per left tuple.
+ */
+public class BatchJoin extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private final BatchOpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private transient TupleBatch out;
+    private transient TupleBatch lb, rb;
+    private transient int li, ri;
+
+    /**
+     * @param p the predicate to join the children on
+     * @param child1 the left (outer) relation
+     * @param child2 the right (inner) relation
+     */
+    public BatchJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        out = new TupleBatch(comboTD);
+        lb = rb = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        out = lb = rb = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        lb = rb = null;
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        while (!out.isFull()) {
+            if (lb == null) {
+                lb = child1.nextBatch();
+                if (lb == null)
+                    break;
+                child2.rewind();
+            }
+            if (rb == null) {
+                rb = child2.nextBatch();
+                if (rb == null) {
+                    // the left batch has met every right batch
+                    lb = null;
+                    continue;
+                }
+                li = ri = 0;
+            }
+            if (joinBatches())
+                rb = null;
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    /**
+     * Add the matching pairs of rows of lb and rb to out, starting from row li
+     * of lb and row ri of rb.
+     *
+     * @return true if every pair has been compared, false if out filled up
+     */
+    private boolean joinBatches() {
+        int ln = lb.numRows();
+        int rn = rb.numRows();
+        Predicate.Op op = pred.getOperator();
+        if (comboTD.getFieldType(pred.getField1()) == Type.INT_TYPE) {
+            int[] lc = lb.getIntColumn(pred.getField1());
+            int[] rc = rb.getIntColumn(pred.getField2());
+            for (; li < ln; li++, ri = 0) {
+                int l = lb.row(li);
+                int v = lc[l];
+                for (; ri < rn; ri++) {
+                    int r = rb.row(ri);
+                    if (TupleBatch.compare(v, op, rc[r])) {
+                        if (out.isFull())
+                            return false;
+                        out.addJoinedRow(lb, l, rb, r);
+                    }
+                }
+            }
+        } else {
+            String[] lc = lb.getStringColumn(pred.getField1());
+            String[] rc = rb.getStringColumn(pred.getField2());
+            for (; li < ln; li++, ri = 0) {
+                int l = lb.row(li);
+                String v = lc[l];
+                for (; ri < rn; ri++) {
+                    int r = rb.row(ri);
+                    if (TupleBatch.compare(v, op, rc[r])) {
+                        if (out.isFull())
+                            return false;
+                        out.addJoinedRow(lb, l, rb, r);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[] { child1, child2 };
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the batch-at-a-time counterpart of {@link OpIterator}:
+ * each call returns a {@link TupleBatch} of many rows rather than a single
+ * Tuple. The same rules apply: none of the methods other than getTupleDesc
+ * work unless the iterator is open, open and close open and close the
+ * children, and rewind starts over.
+ * <p>
+ * A batch returned by nextBatch belongs to the iterator and is only valid
+ * until the next call to nextBatch, rewind or close, since operators reuse
+ * their batches. {@link TupleToBatch} and {@link BatchToTuple} convert
+ * between the two interfaces.
+ */
+public interface BatchOpIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows; the batch has at least one live row.
+     *
+     * @return the next batch, or null if there are no more rows.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows this iterator returns.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
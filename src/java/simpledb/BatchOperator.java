@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * Abstract class for implementing batch operators. It handles the open state
+ * and skips batches with no live rows, so that subclasses only need to
+ * implement <code>open</code>, <code>rewind</code> and
+ * <code>fetchNextBatch</code>.
+ */
+public abstract class BatchOperator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean open = false;
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        TupleBatch b;
+        do {
+            b = fetchNextBatch();
+        } while (b != null && b.numRows() == 0);
+        return b;
+    }
+
+    /**
+     * Returns the next batch, which may have no live rows, or null if the
+     * iteration is finished. BatchOperator uses this method to implement
+     * <code>nextBatch</code>.
+     */
+    protected abstract TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException;
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.open = true;
+    }
+
+    /**
+     * Closes this iterator. If overridden by a subclass, they should call
+     * super.close() in order for BatchOperator's internal state to be
+     * consistent.
+     */
+    public void close() {
+        this.open = false;
+    }
+
+    /**
+     * @return the children of this operator, as for {@link Operator#getChildren}
+     */
+    public abstract BatchOpIterator[] getChildren();
+}
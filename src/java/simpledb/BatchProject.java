@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchProject is the batch counterpart of {@link Project}. Its batches
+ * share the columns and selection of the child's batches, so a projection
+ * copies no data.
+ */
+public class BatchProject extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchOpIterator child;
+    private final int[] outFieldIds;
+    private final TupleDesc td;
+
+    /**
+     * @param fieldList the ids of the fields of the child's TupleDesc to project out
+     * @param child the operator to read rows from
+     */
+    public BatchProject(List<Integer> fieldList, BatchOpIterator child) {
+        this.child = child;
+        this.outFieldIds = new int[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[outFieldIds.length];
+        String[] names = new String[outFieldIds.length];
+        for (int i = 0; i < outFieldIds.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            types[i] = childtd.getFieldType(outFieldIds[i]);
+            names[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        return b == null ? null : b.project(outFieldIds, td);
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[] { child };
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the batch counterpart of {@link SeqScan}: it reads each
+ * tuple of a table and returns them in batches, with field names prefixed by
+ * the table alias.
+ */
+public class BatchSeqScan extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final TupleDesc td;
+    private final int batchSize;
+    private transient DbFileIterator it;
+    private transient TupleBatch batch;
+
+    /**
+     * Creates a sequential scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan
+     * @param tableAlias the alias of this table; the returned TupleDesc has
+     *            fields named tableAlias.fieldName
+     * @param batchSize the number of rows in each batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int batchSize) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.batchSize = batchSize;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[tableTd.numFields()];
+        String[] names = new String[types.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = tableTd.getFieldType(i);
+            names[i] = tableAlias + "." + tableTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, TupleBatch.DEFAULT_SIZE);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        it.open();
+        batch = new TupleBatch(td, batchSize);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (it != null)
+            it.close();
+        it = null;
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && it.hasNext())
+            batch.addTuple(it.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[0];
+    }
+}
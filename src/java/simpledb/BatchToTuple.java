@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * BatchToTuple adapts a {@link BatchOpIterator} to the OpIterator interface,
+ * returning the live rows of each batch as tuples, so that a batch plan can
+ * feed tuple operators or the query output.
+ */
+public class BatchToTuple extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchOpIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    public BatchToTuple(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || pos == batch.numRows()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    /** @return the batch operator this adapter reads from */
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    /**
+     * The child of this operator is a batch operator, so it has no OpIterator
+     * children.
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
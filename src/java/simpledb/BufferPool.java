@@ -2,7 +2,11 @@ package simpledb;
 
 import java.io.*;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,7 +17,8 @@ import java.util.concurrent.ConcurrentHashMap;
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe, all fields are final except the read-ahead prefetcher,
+ *   which is volatile
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -26,13 +31,144 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Pools smaller than this many pages per partition are not split. */
+    private static final int MIN_PAGES_PER_PARTITION = 64;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * One stripe of the page table. Each partition holds the pages whose
+     * ids hash to it, together with its own replacement policy, and is
+     * guarded by its own monitor so that lookups of resident pages in
+     * different partitions never contend.
+     */
+    private static class Partition {
+        final int capacity;
+        final HashMap<PageId, Page> pages;
+        final ReplacementPolicy policy;
+        /** Pages read ahead of their first request by a transaction. */
+        final HashSet<PageId> prefetched;
+        /** recLSN of the dirty pages seen by a checkpoint or logged by logPages. */
+        final HashMap<PageId, Long> recLSN;
+        /**
+         * Dirty pages whose update record is already in the log, with the
+         * number of log records that must be on disk before the page is.
+         */
+        final HashMap<PageId, Integer> logged;
+
+        Partition(int capacity, ReplacementPolicy policy) {
+            this.capacity = capacity;
+            this.pages = new HashMap<PageId, Page>();
+            this.policy = policy;
+            this.prefetched = new HashSet<PageId>();
+            this.recLSN = new HashMap<PageId, Long>();
+            this.logged = new HashMap<PageId, Integer>();
+        }
+    }
+
+    private static final ExecutorService FLUSHER = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-page-flusher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final int numPages;
+    private final Partition[] partitions;
+    private final PageFrameArena arena;
+    private volatile ReadAhead readAhead;
+    private final LockManager lockManager = new LockManager();
+    private final VersionStore versions = new VersionStore();
+    /** Locks the pages the background flusher writes, like a reader. */
+    private final TransactionId flusherTid = new TransactionId();
+    /** The first error the background flusher has not reported yet. */
+    private final AtomicReference<IOException> flushFailure = new AtomicReference<IOException>();
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, replaced with
+     * the CLOCK policy. Large pools are split into one partition per
+     * available processor.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // some code goes here
+        this(numPages, defaultPartitions(numPages), new ReplacementPolicy.Factory() {
+            public ReplacementPolicy create(int partitionPages) {
+                return new ClockPolicy(partitionPages);
+            }
+        });
+    }
+
+    /**
+     * Creates an unpartitioned BufferPool that caches up to numPages pages
+     * and uses the given policy to choose pages to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy; must be sized for numPages
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this.numPages = numPages;
+        this.partitions = new Partition[] { new Partition(numPages, policy) };
+        this.arena = null;
+        this.readAhead = new ReadAhead(this);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numPartitions hash partitions of (nearly) equal size. Each partition
+     * gets its own replacement policy from the factory.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numPartitions number of partitions of the page table
+     * @param factory creates the replacement policy of each partition
+     */
+    public BufferPool(int numPages, int numPartitions, ReplacementPolicy.Factory factory) {
+        this(numPages, numPartitions, factory, 0);
+    }
+
+    /**
+     * Creates a partitioned BufferPool that caches up to numPages parsed
+     * pages on the heap, backed by an off-heap arena of arenaPages raw
+     * pages. Clean pages evicted from the heap are kept in the arena and
+     * re-parsed from there when requested again.
+     *
+     * @param numPages maximum number of parsed pages in this buffer pool.
+     * @param numPartitions number of partitions of the page table
+     * @param factory creates the replacement policy of each partition
+     * @param arenaPages number of off-heap page frames, or 0 for none
+     * @see PageFrameArena
+     */
+    public BufferPool(int numPages, int numPartitions, ReplacementPolicy.Factory factory,
+            int arenaPages) {
+        if (numPartitions < 1 || numPartitions > numPages)
+            throw new IllegalArgumentException("cannot split " + numPages
+                    + " pages into " + numPartitions + " partitions");
+        this.numPages = numPages;
+        this.partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            int capacity = numPages / numPartitions + (i < numPages % numPartitions ? 1 : 0);
+            partitions[i] = new Partition(capacity, factory.create(capacity));
+        }
+        this.arena = arenaPages > 0 ? new PageFrameArena(arenaPages) : null;
+        this.readAhead = new ReadAhead(this);
+    }
+
+    private static int defaultPartitions(int numPages) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cpus, numPages / MIN_PAGES_PER_PARTITION));
+    }
+
+    private Partition partitionFor(PageId pid) {
+        // page ids of one table and category differ only in their middle
+        // bits, so mix all of them into the low bits (the fmix32 finalizer
+        // of MurmurHash3) before taking the remainder
+        int h = pid.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return partitions[(h & 0x7fffffff) % partitions.length];
     }
     
     public static int getPageSize() {
@@ -49,6 +185,68 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /** @return the maximum number of parsed pages held by this pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the off-heap page arena of this pool, or null if it has none */
+    public PageFrameArena getArena() {
+        return arena;
+    }
+
+    /** @return the read-ahead prefetcher of this pool, or null if read-ahead is off */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Replace the read-ahead prefetcher of this pool.
+     *
+     * @param readAhead the new prefetcher, or null to turn read-ahead off
+     */
+    public void setReadAhead(ReadAhead readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /** @return the number of hash partitions of the page table */
+    public int getNumPartitions() {
+        return partitions.length;
+    }
+
+    /** @return the number of page requests served from the pool */
+    public long getHits() {
+        long hits = 0;
+        for (Partition part : partitions) {
+            synchronized (part) {
+                hits += part.policy.getHits();
+            }
+        }
+        return hits;
+    }
+
+    /** @return the number of page requests that had to read the page from disk */
+    public long getMisses() {
+        long misses = 0;
+        for (Partition part : partitions) {
+            synchronized (part) {
+                misses += part.policy.getMisses();
+            }
+        }
+        return misses;
+    }
+
+    /** @return the number of pages evicted from the pool */
+    public long getEvictions() {
+        long evictions = 0;
+        for (Partition part : partitions) {
+            synchronized (part) {
+                evictions += part.policy.getEvictions();
+            }
+        }
+        return evictions;
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -60,6 +258,11 @@ public class BufferPool {
      * space in the buffer pool, a page should be evicted and the new page
      * should be added in its place.
      *
+     * <p>
+     * A snapshot transaction (see {@link #beginSnapshot}) takes no lock,
+     * and is given a private copy of the page as it was committed when the
+     * snapshot began.
+     *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
@@ -67,7 +270,122 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        if (versions.isEnabled() && versions.isSnapshot(tid)) {
+            if (perm != Permissions.READ_ONLY)
+                throw new DbException("snapshot transaction " + tid.getId() + " is read-only");
+            Page committed = fetch(pid, false).getBeforeImage();
+            // look for an older version only now: a commit that changed the
+            // page after the snapshot began recorded the version it replaced
+            // before it changed the before image read above
+            Page old = versions.lookup(tid, pid);
+            return old != null ? old : committed;
+        }
+        lockManager.acquire(tid, pid, perm);
+        return fetch(pid, false);
+    }
+
+    /**
+     * Enable snapshot isolation: from now on, the committed versions of
+     * pages that snapshot transactions may need are kept. Must be called
+     * before snapshot transactions are begun, and before any transaction
+     * that may overlap with them starts writing.
+     */
+    public void enableSnapshotIsolation() {
+        versions.enable();
+    }
+
+    /**
+     * Make tid a read-only snapshot transaction: until it completes, it
+     * reads every page as it was committed at this point, without taking
+     * locks, so that it neither blocks nor is blocked by writers.
+     *
+     * @param tid the transaction, which must not have read any page yet
+     * @throws IllegalStateException if snapshot isolation is not enabled
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.begin(tid);
+    }
+
+    /** @return the store of old page versions read by snapshot transactions */
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
+    /**
+     * Bring the specified page into the buffer pool without locking it on
+     * behalf of any transaction, so that a later getPage() finds it
+     * resident. Used by {@link ReadAhead}.
+     *
+     * @param pid the ID of the page to prefetch
+     * @return the page, or null if no page could be evicted to make room
+     */
+    Page prefetchPage(PageId pid) {
+        try {
+            return fetch(pid, true);
+        } catch (DbException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the specified page without locking it, reading it in if it is
+     * not resident. Callers must be prepared for the page to change under
+     * them; see {@link PageLatches}.
+     *
+     * @param pid the ID of the requested page
+     */
+    Page getPageUnlocked(PageId pid) throws DbException {
+        return fetch(pid, false);
+    }
+
+    /**
+     * Return the specified page, reading it in (and evicting another page)
+     * if it is not resident.
+     */
+    private Page fetch(PageId pid, boolean prefetch) throws DbException {
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            Page page = lookup(part, pid, prefetch);
+            if (page != null)
+                return page;
+            if (part.pages.size() < part.capacity)
+                return load(part, pid, prefetch);
+        }
+        // the partition is full. Evicting may write log records, which
+        // must happen under the pool monitor (see the locking note in
+        // LogFile), and the pool monitor is always taken before a partition.
+        synchronized (this) {
+            synchronized (part) {
+                Page page = lookup(part, pid, prefetch);
+                if (page != null)
+                    return page;
+                if (part.pages.size() >= part.capacity)
+                    evictPage(part);
+                return load(part, pid, prefetch);
+            }
+        }
+    }
+
+    /** Look up a resident page; the caller must hold the partition monitor. */
+    private Page lookup(Partition part, PageId pid, boolean prefetch) {
+        Page page = part.pages.get(pid);
+        // the first request for a prefetched page is the reference that
+        // its read-in was recorded for, so it is not counted again
+        if (page != null && !prefetch && !part.prefetched.remove(pid))
+            part.policy.recordHit(pid);
+        return page;
+    }
+
+    /** Read a page into a partition with room; the caller must hold the partition monitor. */
+    private Page load(Partition part, PageId pid, boolean prefetch) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        byte[] data = arena != null ? arena.take(pid) : null;
+        Page page = data != null ? file.parsePage(pid, data) : file.readPage(pid);
+        part.pages.put(pid, page);
+        part.policy.recordMiss(pid);
+        if (prefetch)
+            part.prefetched.add(pid);
+        return page;
     }
 
     /**
@@ -82,6 +400,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -92,13 +411,19 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /** @return the lock manager guarding the pages of this pool */
+    public LockManager getLockManager() {
+        return lockManager;
     }
 
     /**
@@ -112,6 +437,44 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        ArrayList<PageId> discarded = new ArrayList<PageId>();
+        try {
+            if (commit)
+                flushPages(tid);
+            // tid may hold table locks rather than page locks, so look at
+            // every resident page
+            for (Partition part : partitions) {
+                synchronized (part) {
+                    Iterator<Page> it = part.pages.values().iterator();
+                    while (it.hasNext()) {
+                        Page page = it.next();
+                        PageId pid = page.getId();
+                        if (commit) {
+                            if (lockManager.holdsLock(tid, pid))
+                                page.setBeforeImage();
+                        } else if (tid.equals(page.isDirty())) {
+                            // NO STEAL: the disk still holds the page as it
+                            // was before tid changed it
+                            it.remove();
+                            part.policy.remove(pid);
+                            part.prefetched.remove(pid);
+                            part.recLSN.remove(pid);
+                            part.logged.remove(pid);
+                            discarded.add(pid);
+                        }
+                    }
+                }
+            }
+            if (commit)
+                versions.committed(tid);
+            else
+                versions.aborted(tid);
+        } finally {
+            versions.end(tid);
+            lockManager.releaseAll(tid);
+        }
+        for (PageId pid : discarded)
+            notifyDiscarded(pid);
     }
 
     /**
@@ -133,6 +496,24 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtied(tid, file.insertTuple(tid, t));
+    }
+
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid. The table places the tuples page by page (see
+     * {@link DbFile#insertTuples}), so each page the batch goes to is
+     * locked, dirtied and, when flushed, logged once.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtied(tid, file.insertTuples(tid, tuples));
     }
 
     /**
@@ -152,6 +533,72 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (t.getRecordId() == null)
+            throw new DbException("tuple to delete is not stored in any table");
+        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        cacheDirtied(tid, file.deleteTuple(tid, t));
+    }
+
+    /**
+     * Remove a batch of tuples, which may belong to different tables, on
+     * behalf of transaction tid. Each table gets its tuples in one call to
+     * {@link DbFile#deleteTuples}, so each page is locked and dirtied once.
+     *
+     * @param tid the transaction deleting the tuples
+     * @param tuples the tuples to delete
+     */
+    public void deleteTuples(TransactionId tid, List<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<Integer, ArrayList<Tuple>> byTable = new LinkedHashMap<Integer, ArrayList<Tuple>>();
+        for (Tuple t : tuples) {
+            if (t.getRecordId() == null)
+                throw new DbException("tuple to delete is not stored in any table");
+            int tableId = t.getRecordId().getPageId().getTableId();
+            ArrayList<Tuple> ofTable = byTable.get(tableId);
+            if (ofTable == null) {
+                ofTable = new ArrayList<Tuple>();
+                byTable.put(tableId, ofTable);
+            }
+            ofTable.add(t);
+        }
+        for (Map.Entry<Integer, ArrayList<Tuple>> e : byTable.entrySet()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+            cacheDirtied(tid, file.deleteTuples(tid, e.getValue()));
+        }
+    }
+
+    /**
+     * Mark the pages an update of tid modified as dirty, and make them the
+     * cached versions of those pages.
+     */
+    private void cacheDirtied(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            PageId pid = page.getId();
+            Partition part = partitionFor(pid);
+            synchronized (part) {
+                if (part.pages.containsKey(pid) || part.pages.size() < part.capacity) {
+                    cache(part, page);
+                    continue;
+                }
+            }
+            // see fetch() for the monitor order
+            synchronized (this) {
+                synchronized (part) {
+                    if (!part.pages.containsKey(pid) && part.pages.size() >= part.capacity)
+                        evictPage(part);
+                    cache(part, page);
+                }
+            }
+        }
+    }
+
+    /** Put a page in its partition, which has room for it; the caller must hold the partition monitor. */
+    private void cache(Partition part, Page page) {
+        // a logged image is out of date once the page is updated again
+        part.logged.remove(page.getId());
+        if (part.pages.put(page.getId(), page) == null)
+            part.policy.recordMiss(page.getId());
     }
 
     /**
@@ -162,7 +609,12 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        for (Partition part : partitions) {
+            synchronized (part) {
+                for (PageId pid : part.pages.keySet())
+                    flushPage(pid);
+            }
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -173,9 +625,31 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            if (part.pages.remove(pid) != null)
+                part.policy.remove(pid);
+            part.prefetched.remove(pid);
+            part.recLSN.remove(pid);
+            part.logged.remove(pid);
+        }
+        if (arena != null)
+            arena.remove(pid);
+        notifyDiscarded(pid);
+    }
+
+    /** Tell the file of a page that the page was dropped without being written. */
+    private void notifyDiscarded(PageId pid) {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return; // the table is gone
+        }
+        file.pageDiscarded(pid);
     }
 
     /**
@@ -185,22 +659,245 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            Page page = part.pages.get(pid);
+            if (page != null)
+                flushPage(page);
+        }
+    }
+
+    /**
+     * Writes a page to disk if it is dirty, logging the update first unless
+     * {@link #logPages} already has. The caller must hold the page's
+     * partition monitor, and the pool monitor if the page may still need
+     * logging.
+     */
+    private void flushPage(Page page) throws IOException {
+        PageId pid = page.getId();
+        Partition part = partitionFor(pid);
+        TransactionId dirtier = page.isDirty();
+        if (dirtier != null) {
+            Page before = page.getBeforeImage();
+            LogFile log = Database.getLogFile();
+            Integer records = part.logged.get(pid);
+            if (records == null) {
+                log.logWrite(dirtier, before, page);
+                records = log.getTotalRecords();
+            }
+            // write ahead: the update record must be on disk before the page
+            log.forceThrough(records);
+            // snapshots may still need the committed image once the disk
+            // holds the update
+            versions.pageFlushed(dirtier, before);
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            page.markDirty(false, null);
+        }
+        part.recLSN.remove(pid);
+        part.logged.remove(pid);
+    }
+
+    /** @return the pages in the pool that tid has dirtied */
+    private List<Page> dirtiedBy(TransactionId tid) {
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (Partition part : partitions) {
+            synchronized (part) {
+                for (Page page : part.pages.values()) {
+                    if (tid.equals(page.isDirty()))
+                        dirty.add(page);
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Write the update records for the pages tid has dirtied to the log,
+     * without forcing it, so that the force of tid's COMMIT record, which
+     * group commit shares between transactions, also covers them. The pages
+     * themselves are written when tid completes. The log is appended to
+     * outside the partition monitors, which rollback takes after the log's.
+     * <p>
+     * A page logged here for the first time since it was last written gets
+     * the offset of its record as its recLSN. Until the record is appended,
+     * the page holds the end of the log as its recLSN instead, so that a
+     * checkpoint taken in between still redoes the record.
+     *
+     * @param tid the committing transaction
+     * @return the number of log records that must be on disk before the
+     *         pages are
+     */
+    public int logPages(TransactionId tid) throws IOException {
+        LogFile log = Database.getLogFile();
+        int records = 0;
+        for (Page page : dirtiedBy(tid)) {
+            PageId pid = page.getId();
+            Partition part = partitionFor(pid);
+            long end = log.getEndOffset();
+            synchronized (part) {
+                Integer logged = part.logged.get(pid);
+                if (logged != null || part.pages.get(pid) != page) {
+                    if (logged != null)
+                        records = Math.max(records, logged);
+                    continue;
+                }
+                if (!part.recLSN.containsKey(pid))
+                    part.recLSN.put(pid, end);
+            }
+            // tid holds the page's exclusive lock, so it does not change here
+            long start = log.logWrite(tid, page.getBeforeImage(), page);
+            int through = log.getTotalRecords();
+            records = Math.max(records, through);
+            synchronized (part) {
+                if (part.pages.get(pid) == page) {
+                    part.logged.put(pid, through);
+                    Long rec = part.recLSN.get(pid);
+                    if (rec != null && rec == end)
+                        part.recLSN.put(pid, start);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Returns the dirty page table for a checkpoint: every dirty page in the
+     * pool, with its recLSN, the log offset from which recovery may have to
+     * redo its updates. A page whose update has been logged, by logPages
+     * or a previous checkpoint, keeps the recLSN it was given then; any
+     * other dirty page has no update in the log yet, so its updates are
+     * logged after lsn, which becomes its recLSN.
+     *
+     * @param lsn the current end of the log
+     * @return a map from the id of each dirty page to its recLSN
+     */
+    public Map<PageId, Long> getDirtyPages(long lsn) {
+        HashMap<PageId, Long> dirty = new HashMap<PageId, Long>();
+        for (Partition part : partitions) {
+            synchronized (part) {
+                part.recLSN.keySet().retainAll(part.pages.keySet());
+                for (Page page : part.pages.values()) {
+                    if (page.isDirty() == null)
+                        continue;
+                    Long rec = part.recLSN.get(page.getId());
+                    if (rec == null) {
+                        rec = lsn;
+                        part.recLSN.put(page.getId(), rec);
+                    }
+                    dirty.put(page.getId(), rec);
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Write the given pages to disk on a background thread, one page at a
+     * time, so that the pool is never held for more than one page write.
+     * Pages that are clean or no longer in the pool are skipped, and so are
+     * pages that a running transaction has dirtied or locked for writing:
+     * NO STEAL keeps them off the disk until the transaction commits, and
+     * its commit writes them. The flusher share locks each page it writes,
+     * so no transaction changes the page while it is written.
+     * <p>
+     * If a write fails, the flusher stops; the pages left stay dirty, keep
+     * their recLSN and are retried by the next checkpoint. The error is
+     * thrown by the next call of this method.
+     *
+     * @param pids the pages to flush
+     * @throws IOException if the previous background flush failed
+     */
+    public void flushPagesInBackground(Collection<PageId> pids) throws IOException {
+        IOException failure = flushFailure.getAndSet(null);
+        if (failure != null)
+            throw new IOException("background page flush failed: " + failure.getMessage(), failure);
+        final ArrayList<PageId> todo = new ArrayList<PageId>(pids);
+        if (todo.isEmpty())
+            return;
+        FLUSHER.execute(new Runnable() {
+            public void run() {
+                try {
+                    for (PageId pid : todo)
+                        flushIdlePage(pid);
+                } catch (IOException e) {
+                    flushFailure.compareAndSet(null, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write a dirty page to disk unless a transaction that may still change
+     * it is running. See {@link #flushPagesInBackground}.
+     */
+    private void flushIdlePage(PageId pid) throws IOException {
+        Partition part = partitionFor(pid);
+        TransactionId dirtier;
+        synchronized (part) {
+            Page page = part.pages.get(pid);
+            dirtier = page == null ? null : page.isDirty();
+        }
+        if (dirtier == null || lockManager.holdsLock(dirtier, pid))
+            return;
+        if (!lockManager.tryAcquireShared(flusherTid, pid))
+            return; // a writer holds the page; its commit writes it
+        try {
+            flushPage(pid);
+        } finally {
+            lockManager.releaseAll(flusherTid);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
+        The update records are logged first and the log is forced once for
+        all of them, or not at all if a commit has forced them already.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        // force outside the partition monitors, so that flushPage() finds
+        // the records on disk and does not need the log's monitor
+        Database.getLogFile().forceThrough(logPages(tid));
+        for (Page page : dirtiedBy(tid)) {
+            Partition part = partitionFor(page.getId());
+            synchronized (part) {
+                if (part.pages.get(page.getId()) == page)
+                    flushPage(page);
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The page is chosen by the partition's replacement policy among its
+     * clean pages; dirty pages are never evicted (NO STEAL). The caller
+     * must hold the partition monitor.
+     *
+     * @param part the full partition to make room in
+     * @throws DbException if every page in the partition is dirty
      */
-    private synchronized  void evictPage() throws DbException {
+    private synchronized  void evictPage(final Partition part) throws DbException {
         // some code goes here
         // not necessary for lab1
+        PageId victim = part.policy.chooseVictim(new ReplacementPolicy.EvictionFilter() {
+            public boolean canEvict(PageId pid) {
+                Page page = part.pages.get(pid);
+                return page != null && page.isDirty() == null;
+            }
+        });
+        if (victim == null)
+            throw new DbException("unable to evict a page: all pages in the buffer pool are dirty");
+        try {
+            flushPage(part.pages.get(victim));
+        } catch (IOException e) {
+            throw new DbException("unable to flush page " + victim + ": " + e.getMessage());
+        }
+        Page page = part.pages.remove(victim);
+        part.prefetched.remove(victim);
+        part.recLSN.remove(victim);
+        if (arena != null)
+            arena.put(victim, page.getPageData());
     }
 
 }
@@ -18,25 +18,67 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Catalog {
 
+    /** A table: its file, name and primary key. */
+    private static class Table {
+        final DbFile file;
+        final String name;
+        final String pkeyField;
+
+        Table(DbFile file, String name, String pkeyField) {
+            this.file = file;
+            this.name = name;
+            this.pkeyField = pkeyField;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Table> tables;
+    private final ConcurrentHashMap<String, Integer> nameToId;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
         // some code goes here
+        tables = new ConcurrentHashMap<Integer, Table>();
+        nameToId = new ConcurrentHashMap<String, Integer>();
     }
 
     /**
      * Add a new table to the catalog.
      * This table's contents are stored in the specified DbFile.
+     * A table that is replaced, by id or by name, is dropped and its file
+     * closed.
      * @param file the contents of the table to add;  file.getId() is the identfier of
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
      * conflict exists, use the last table to be added as the table for a given name.
      * @param pkeyField the name of the primary key field
      */
-    public void addTable(DbFile file, String name, String pkeyField) {
+    public synchronized void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
+        if (name == null)
+            throw new IllegalArgumentException("table name may not be null");
+        Table old = tables.get(file.getId());
+        if (old != null && !old.name.equals(name))
+            nameToId.remove(old.name);
+        Integer oldId = nameToId.get(name);
+        if (oldId != null && oldId != file.getId())
+            drop(tables.remove(oldId));
+        tables.put(file.getId(), new Table(file, name, pkeyField));
+        nameToId.put(name, file.getId());
+        if (old != null && old.file != file)
+            drop(old);
+    }
+
+    /** Close the file of a table that is no longer in the catalog. */
+    private void drop(Table t) {
+        try {
+            t.file.close();
+        } catch (IOException e) {
+            // the table is gone from the catalog either way; its pages were
+            // written when they were flushed, so there is nothing to lose
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -60,7 +102,10 @@ public class Catalog {
      */
     public int getTableId(String name) throws NoSuchElementException {
         // some code goes here
-        return 0;
+        Integer id = name == null ? null : nameToId.get(name);
+        if (id == null)
+            throw new NoSuchElementException("no table named " + name);
+        return id;
     }
 
     /**
@@ -71,7 +116,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        return null;
+        return getTable(tableid).file.getTupleDesc();
     }
 
     /**
@@ -82,27 +127,38 @@ public class Catalog {
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        return null;
+        return getTable(tableid).file;
     }
 
     public String getPrimaryKey(int tableid) {
         // some code goes here
-        return null;
+        return getTable(tableid).pkeyField;
     }
 
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
-        return null;
+        return Collections.unmodifiableSet(tables.keySet()).iterator();
     }
 
     public String getTableName(int id) {
         // some code goes here
-        return null;
+        return getTable(id).name;
+    }
+    
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table t = tables.get(tableid);
+        if (t == null)
+            throw new NoSuchElementException("no table with id " + tableid);
+        return t;
     }
     
-    /** Delete all tables from the catalog */
-    public void clear() {
+    /** Delete all tables from the catalog, closing their files */
+    public synchronized void clear() {
         // some code goes here
+        for (Table t : tables.values())
+            drop(t);
+        tables.clear();
+        nameToId.clear();
     }
     
     /**
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClockPolicy implements the CLOCK (second chance) approximation of LRU.
+ * Resident pages sit in a circular array of frames, each with a reference
+ * bit that is set whenever the page is used. The clock hand sweeps the
+ * frames, clearing set bits, and evicts the first page whose bit is
+ * already clear.
+ * <p>
+ * Pages admitted on a miss start with a clear reference bit, so a page read
+ * once by a sequential scan is evicted on the next sweep, while a page that
+ * is referenced again while resident survives a full revolution of the hand.
+ */
+public class ClockPolicy extends AbstractReplacementPolicy {
+
+    private final PageId[] frames;
+    private final boolean[] referenced;
+    private final HashMap<PageId, Integer> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private int hand = 0;
+
+    /**
+     * Create a CLOCK policy for a pool of the given size.
+     *
+     * @param numPages the maximum number of resident pages
+     */
+    public ClockPolicy(int numPages) {
+        frames = new PageId[numPages];
+        referenced = new boolean[numPages];
+        frameOf = new HashMap<PageId, Integer>();
+        freeFrames = new ArrayDeque<Integer>();
+        for (int i = 0; i < numPages; i++)
+            freeFrames.add(i);
+    }
+
+    protected void onHit(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            referenced[frame] = true;
+        else
+            onMiss(pid);
+    }
+
+    protected void onMiss(PageId pid) {
+        if (frameOf.containsKey(pid))
+            return;
+        Integer frame = freeFrames.poll();
+        if (frame == null)
+            throw new IllegalStateException("clock has no free frame for " + pid);
+        frames[frame] = pid;
+        referenced[frame] = false;
+        frameOf.put(pid, frame);
+    }
+
+    public void remove(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced[frame] = false;
+            freeFrames.add(frame);
+        }
+    }
+
+    protected PageId selectVictim(EvictionFilter filter) {
+        // two revolutions are enough to clear every reference bit and come
+        // back around to each frame once more
+        for (int steps = 0; steps < 2 * frames.length; steps++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[frame];
+            if (pid == null)
+                continue;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+            } else if (filter.canEvict(pid)) {
+                remove(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -19,6 +19,17 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Construct the specified page from its raw bytes, without doing any
+     * I/O. The bytes must have been produced by {@link Page#getPageData()}
+     * on a page of this file, or read from disk by {@link #readPage}.
+     *
+     * @param id the id of the page
+     * @param data the bytes of the page
+     * @return the parsed page
+     */
+    public Page parsePage(PageId id, byte[] data);
+
     /**
      * Push the specified page to disk.
      *
@@ -59,6 +70,50 @@ public interface DbFile {
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts a batch of tuples to the file on behalf of transaction.
+     * Implementations should place the tuples page by page, so that each
+     * affected page is locked and modified once for the whole batch. The
+     * default implementation inserts the tuples one at a time.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add, in the order they should be added
+     * @return An ArrayList containing each page that was modified once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        for (Tuple t : tuples) {
+            for (Page p : insertTuple(tid, t))
+                dirtied.put(p.getId(), p);
+        }
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    /**
+     * Removes a batch of tuples from the file on behalf of transaction.
+     * Implementations should group the tuples by the page they are on, so
+     * that each affected page is locked and modified once for the whole
+     * batch. The default implementation deletes the tuples one at a time.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to delete
+     * @return An ArrayList containing each page that was modified once
+     * @throws DbException if a tuple cannot be deleted or is not a member
+     *   of the file
+     */
+    public default ArrayList<Page> deleteTuples(TransactionId tid, List<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        for (Tuple t : tuples) {
+            for (Page p : deleteTuple(tid, t))
+                dirtied.put(p.getId(), p);
+        }
+        return new ArrayList<Page>(dirtied.values());
+    }
+
     /**
      * Returns an iterator over all the tuples stored in this DbFile. The
      * iterator must use {@link BufferPool#getPage}, rather than
@@ -88,4 +143,23 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Release the resources the file holds open, such as file descriptors
+     * and memory mappings. The catalog calls this when the table is dropped
+     * or replaced; a file used again afterwards reopens them.
+     */
+    public default void close() throws IOException {
+    }
+
+    /**
+     * Called by the buffer pool when it drops a page of this file without
+     * writing it, for instance because the changes to the page are rolled
+     * back, so that the file can forget what it learned from those changes.
+     * The default does nothing.
+     *
+     * @param pid the page dropped
+     */
+    public default void pageDiscarded(PageId pid) {
+    }
 }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.*;
 
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
@@ -10,6 +11,11 @@ public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private final TransactionId tid;
+    private OpIterator child;
+    private final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE });
+    private boolean done = false;
+
     /**
      * Constructor specifying the transaction that this delete belongs to as
      * well as the child to read from.
@@ -21,48 +27,85 @@ public class Delete extends Operator {
      */
     public Delete(TransactionId t, OpIterator child) {
         // some code goes here
+        this.tid = t;
+        this.child = child;
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.open();
+        super.open();
+        done = false;
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.rewind();
+        done = false;
     }
 
     /**
      * Deletes tuples as they are read from the child operator. Deletes are
      * processed via the buffer pool (which can be accessed via the
      * Database.getBufferPool() method.
+     * <p>
+     * Tuples are passed to the BufferPool in batches of
+     * {@link Insert#BATCH_SIZE}, so that each page they are on is locked and
+     * dirtied once per batch.
      * 
      * @return A 1-field tuple containing the number of deleted records.
      * @see Database#getBufferPool
-     * @see BufferPool#deleteTuple
+     * @see BufferPool#deleteTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        if (done)
+            return null;
+        done = true;
+        int count = 0;
+        ArrayList<Tuple> batch = new ArrayList<Tuple>(Insert.BATCH_SIZE);
+        try {
+            while (child.hasNext()) {
+                batch.add(child.next());
+                if (batch.size() == Insert.BATCH_SIZE) {
+                    Database.getBufferPool().deleteTuples(tid, batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                Database.getBufferPool().deleteTuples(tid, batch);
+                count += batch.size();
+            }
+        } catch (IOException e) {
+            throw new DbException("delete failed: " + e.getMessage());
+        }
+        Tuple result = new Tuple(td);
+        result.setField(0, new IntField(count));
+        return result;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[] { child };
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ExternalSort sorts tuples using a bounded amount of memory, spilling
+ * sorted runs to {@link SpillFile}s when the input does not fit.
+ * <p>
+ * Runs are formed by replacement selection: a heap holds as many tuples as
+ * the memory budget allows, the smallest is written to the current run and
+ * replaced by the next input tuple, and an input tuple smaller than the last
+ * one written waits in the heap for the next run. On random input this
+ * makes runs about twice the size of memory, and sorted input becomes a
+ * single run. If the whole input fits in the heap, nothing is written.
+ * <p>
+ * Runs are merged with a loser tree, a tournament over the head tuple of
+ * each run that finds the next tuple with one comparison per level. If
+ * there are more runs than can be merged at once with a read buffer each,
+ * groups of them are first merged into longer runs.
+ */
+public class ExternalSort {
+
+    /** The memory budget, in bytes of tuple data, used unless one is given. */
+    public static final long DEFAULT_MEMORY = 16L << 20;
+
+    /** Bytes of memory set aside for reading each run during a merge. */
+    private static final int RUN_BUFFER = 64 * 1024;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> cmp;
+    private final int maxTuples;
+    private final int fanIn;
+
+    private ArrayList<Tuple> memory = null; // the sorted input, if it fit
+    private final ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private Iterator<Tuple> memoryIt = null;
+    private LoserTree merge = null;
+
+    /**
+     * @param td the TupleDesc of the tuples to sort
+     * @param cmp the order to sort them in
+     * @param memoryBytes the memory budget, measured in bytes of tuples as
+     *            {@link TupleDesc#getSize} counts them
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> cmp, long memoryBytes) {
+        this(td, cmp, (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, memoryBytes / td.getSize())),
+                (int) Math.max(2, Math.min(1024, memoryBytes / RUN_BUFFER)));
+    }
+
+    /**
+     * @param maxTuples the number of tuples to hold in memory
+     * @param fanIn the number of runs to merge at once, at least 2
+     */
+    ExternalSort(TupleDesc td, Comparator<Tuple> cmp, int maxTuples, int fanIn) {
+        this.td = td;
+        this.cmp = cmp;
+        this.maxTuples = maxTuples;
+        this.fanIn = fanIn;
+    }
+
+    /** A tuple in the replacement selection heap, and the run it goes to. */
+    private static class Entry {
+        int run;
+        Tuple t;
+
+        Entry(int run, Tuple t) {
+            this.run = run;
+            this.t = t;
+        }
+    }
+
+    /**
+     * Read and sort all tuples of an open iterator. The sorted tuples are then
+     * read with {@link #next}.
+     */
+    public void sort(OpIterator child) throws DbException, TransactionAbortedException {
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(11, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                if (a.run != b.run)
+                    return a.run < b.run ? -1 : 1;
+                return cmp.compare(a.t, b.t);
+            }
+        });
+        while (heap.size() < maxTuples && child.hasNext())
+            heap.add(new Entry(0, child.next()));
+
+        if (!child.hasNext()) {
+            memory = new ArrayList<Tuple>(heap.size());
+            while (!heap.isEmpty())
+                memory.add(heap.poll().t);
+            rewind();
+            return;
+        }
+
+        try {
+            int run = 0;
+            SpillFile out = new SpillFile(td);
+            runs.add(out);
+            while (!heap.isEmpty()) {
+                Entry e = heap.poll();
+                if (e.run != run) {
+                    out.finishWriting();
+                    out = new SpillFile(td);
+                    runs.add(out);
+                    run = e.run;
+                }
+                out.add(e.t);
+                if (child.hasNext()) {
+                    Tuple t = child.next();
+                    // a tuple smaller than the one just written has missed this run
+                    e.run = cmp.compare(t, e.t) >= 0 ? run : run + 1;
+                    e.t = t;
+                    heap.add(e);
+                }
+            }
+            out.finishWriting();
+
+            while (runs.size() > fanIn) {
+                List<SpillFile> group = runs.subList(0, fanIn);
+                SpillFile merged = new SpillFile(td);
+                LoserTree tree = new LoserTree(group);
+                Tuple t;
+                while ((t = tree.next()) != null)
+                    merged.add(t);
+                tree.close();
+                merged.finishWriting();
+                for (SpillFile f : group)
+                    f.delete();
+                group.clear();
+                runs.add(merged);
+            }
+        } catch (IOException e) {
+            close();
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+        rewind();
+    }
+
+    /** @return the number of runs the input was spilled to, 0 if it fit in memory */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /** Start reading the sorted tuples from the first again. */
+    public void rewind() throws DbException {
+        if (memory != null) {
+            memoryIt = memory.iterator();
+            return;
+        }
+        try {
+            if (merge != null)
+                merge.close();
+            merge = new LoserTree(runs);
+        } catch (IOException e) {
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+    }
+
+    /** @return the next tuple in sorted order, or null if there are no more */
+    public Tuple next() throws DbException {
+        if (memoryIt != null)
+            return memoryIt.hasNext() ? memoryIt.next() : null;
+        if (merge == null)
+            return null;
+        try {
+            return merge.next();
+        } catch (IOException e) {
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+    }
+
+    /** Release the memory and delete the files of this sort. */
+    public void close() {
+        if (merge != null) {
+            try {
+                merge.close();
+            } catch (IOException e) {
+                // the runs are being deleted anyway
+            }
+            merge = null;
+        }
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
+        memory = null;
+        memoryIt = null;
+    }
+
+    /**
+     * A loser tree merging sorted runs. Run i is leaf k + i of a complete
+     * binary tree over nodes 1 to 2k - 1; each internal node holds the run
+     * that lost the match played there, and node 0 holds the overall winner.
+     * An exhausted run has a null head, which loses to every tuple.
+     */
+    private class LoserTree implements Closeable {
+        private final int k;
+        private final SpillFile.Reader[] readers;
+        private final Tuple[] heads;
+        private final int[] tree;
+
+        LoserTree(List<SpillFile> runs) throws IOException {
+            k = runs.size();
+            readers = new SpillFile.Reader[k];
+            heads = new Tuple[k];
+            tree = new int[Math.max(k, 1)];
+            Arrays.fill(tree, -1);
+            for (int i = 0; i < k; i++) {
+                readers[i] = runs.get(i).reader();
+                heads[i] = readers[i].next();
+            }
+            for (int i = 0; i < k; i++)
+                replay(i);
+        }
+
+        /** @return true if the head of run a comes before that of run b */
+        private boolean beats(int a, int b) {
+            if (heads[a] == null)
+                return false;
+            if (heads[b] == null)
+                return true;
+            int c = cmp.compare(heads[a], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        /**
+         * Play the matches from the leaf of run i up to the root. While the
+         * tree is being built, a node no run has reached yet keeps the first
+         * run to arrive and the climb stops there.
+         */
+        private void replay(int i) {
+            int winner = i;
+            for (int n = (i + k) / 2; n > 0; n /= 2) {
+                if (tree[n] == -1) {
+                    tree[n] = winner;
+                    return;
+                }
+                if (beats(tree[n], winner)) {
+                    int loser = winner;
+                    winner = tree[n];
+                    tree[n] = loser;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        /** @return the next tuple of the merged runs, or null if there are no more */
+        Tuple next() throws IOException {
+            if (k == 0)
+                return null;
+            int w = tree[0];
+            Tuple t = heads[w];
+            if (t == null)
+                return null;
+            heads[w] = readers[w].next();
+            replay(w);
+            return t;
+        }
+
+        public void close() throws IOException {
+            for (SpillFile.Reader r : readers)
+                r.close();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * FreeSpaceMap records approximately how much room each page of a HeapFile
+ * has, so that inserts can go straight to a page with an empty slot instead
+ * of reading pages until they find one.
+ * <p>
+ * The map keeps one byte per page in a file next to the heap file. Byte 0
+ * means the page's free space is unknown; otherwise the byte is one more
+ * than the page's free space category, where category 0 means the page is
+ * full and categories 1 to {@link #MAX_CATEGORY} are the fraction of empty
+ * slots, rounded up so that any page with an empty slot has a category of
+ * at least 1. Pages past the end of the map are unknown as well, so a map
+ * that is missing or older than its heap file is still safe to use.
+ * <p>
+ * The map is a hint and is not logged: a page it says has room may turn out
+ * to be full (for instance after a crash), in which case the caller records
+ * that and asks again. A page it says is full gets its room back the next
+ * time a tuple on it is deleted, or is made unknown with {@link #forget}
+ * when changes to it are rolled back. Changes are kept in memory and
+ * written back to the file in batches (see {@link #sync}), so a crash may
+ * lose the latest ones, which only makes the map more out of date.
+ * <p>
+ * Inserters are spread over the pages with room: each caller starts its
+ * search at a page picked from its own id (see {@link #findPage(int, long)}),
+ * so concurrent transactions do not all wait for the lock on the first
+ * page with room.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** The largest free space category, for an entirely empty page. */
+    public static final int MAX_CATEGORY = 254;
+
+    private static final byte UNKNOWN = 0;
+
+    /** Number of updates after which the changed part of the map is written back. */
+    static final int WRITE_BACK_UPDATES = 256;
+
+    private final MappedFileIO io;
+    private byte[] map;
+    private int size;
+    /** Pages that have room or whose free space is unknown. */
+    private final BitSet candidates = new BitSet();
+    /** The range of entries changed since the last write back, and the number of changes. */
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = -1;
+    private int pendingUpdates = 0;
+
+    /**
+     * Open the free-space map stored in the given file, creating it if it
+     * does not exist.
+     */
+    public FreeSpaceMap(File f) throws IOException {
+        this.io = new MappedFileIO(f);
+        this.size = (int) io.length();
+        this.map = new byte[Math.max(size, 64)];
+        if (size > 0) {
+            byte[] data = new byte[size];
+            io.read(0, data);
+            System.arraycopy(data, 0, map, 0, size);
+        }
+        for (int i = 0; i < size; i++) {
+            if (map[i] != category(0))
+                candidates.set(i);
+        }
+    }
+
+    private static byte category(int c) {
+        return (byte) (c + 1);
+    }
+
+    /**
+     * Returns a page that may have an empty slot: the first page the map
+     * records as having room or does not know about.
+     *
+     * @param numPages the number of pages in the heap file
+     * @return the page number, or -1 if every page is known to be full
+     */
+    public int findPage(int numPages) {
+        return findPage(numPages, 0);
+    }
+
+    /**
+     * Returns a page that may have an empty slot for a caller: the first
+     * page the map records as having room or does not know about, searching
+     * from a start page picked from the caller's id and wrapping around. A
+     * caller that asks again keeps getting the same page until it is full,
+     * while different callers tend to get different pages.
+     *
+     * @param numPages the number of pages in the heap file
+     * @param caller the id of the caller, such as a transaction id
+     * @return the page number, or -1 if every page is known to be full
+     */
+    public synchronized int findPage(int numPages, long caller) {
+        if (numPages <= 0)
+            return -1;
+        int h = (int) (caller ^ (caller >>> 32)) * 0x9e3779b9;
+        int start = (int) (((h ^ (h >>> 16)) & 0x7fffffffL) % numPages);
+        int pgNo = nextCandidate(start, numPages);
+        return pgNo >= 0 ? pgNo : nextCandidate(0, start);
+    }
+
+    /** @return the first page in [from, to) that may have room, or -1 */
+    private int nextCandidate(int from, int to) {
+        int pgNo = candidates.nextSetBit(from);
+        if (pgNo >= 0 && pgNo < Math.min(size, to))
+            return pgNo;
+        // pages past the end of the map are unknown
+        int unknown = Math.max(from, size);
+        return unknown < to ? unknown : -1;
+    }
+
+    /**
+     * Record the free space of a page.
+     *
+     * @param pgNo the page number
+     * @param emptySlots the number of empty slots on the page
+     * @param numSlots the number of slots on the page
+     */
+    public synchronized void update(int pgNo, int emptySlots, int numSlots) throws IOException {
+        int c = 0;
+        if (emptySlots > 0)
+            c = (int) (((long) emptySlots * MAX_CATEGORY + numSlots - 1) / numSlots);
+        set(pgNo, category(Math.min(c, MAX_CATEGORY)));
+    }
+
+    /**
+     * Forget the free space of a page, for instance because changes to it
+     * were rolled back; the next search for room may offer it again.
+     *
+     * @param pgNo the page number
+     */
+    public synchronized void forget(int pgNo) {
+        if (pgNo >= size || map[pgNo] == UNKNOWN)
+            return;
+        // not counted as an update, so that it never writes to the file
+        map[pgNo] = UNKNOWN;
+        candidates.set(pgNo);
+        dirtyFrom = Math.min(dirtyFrom, pgNo);
+        dirtyTo = Math.max(dirtyTo, pgNo);
+    }
+
+    /**
+     * Forget the free space of every page, for instance because the heap
+     * file has fewer pages than the map, so the map must belong to an older
+     * version of the file.
+     */
+    public synchronized void clear() throws IOException {
+        Arrays.fill(map, UNKNOWN);
+        candidates.set(0, size);
+        if (size > 0) {
+            dirtyFrom = 0;
+            dirtyTo = size - 1;
+            sync();
+        }
+    }
+
+    /** @return the number of pages the map has entries for */
+    public synchronized int getNumPages() {
+        return size;
+    }
+
+    private void set(int pgNo, byte b) throws IOException {
+        if (pgNo < size && map[pgNo] == b)
+            return;
+
+        if (pgNo >= map.length)
+            map = Arrays.copyOf(map, Math.max(pgNo + 1, 2 * map.length));
+        if (pgNo >= size) {
+            // pages skipped over are unknown
+            candidates.set(size, pgNo);
+            size = pgNo + 1;
+        }
+        map[pgNo] = b;
+        candidates.set(pgNo, b != category(0));
+        dirtyFrom = Math.min(dirtyFrom, pgNo);
+        dirtyTo = Math.max(dirtyTo, pgNo);
+        if (++pendingUpdates >= WRITE_BACK_UPDATES)
+            sync();
+    }
+
+    /** Write the entries changed since the last write back to the file. */
+    public synchronized void sync() throws IOException {
+        if (dirtyTo >= dirtyFrom)
+            io.write(dirtyFrom, Arrays.copyOfRange(map, dirtyFrom, dirtyTo + 1));
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+        pendingUpdates = 0;
+    }
+
+    /**
+     * @return the approximate fraction of the slots of a page that are
+     *   empty, or -1 if it is not known
+     */
+    public synchronized double getFreeSpace(int pgNo) {
+        if (pgNo >= size || map[pgNo] == UNKNOWN)
+            return -1;
+        return (double) ((map[pgNo] & 0xff) - 1) / MAX_CATEGORY;
+    }
+
+    /**
+     * Write back the pending changes and close the file of this map; the
+     * map may not be used afterwards.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            io.close();
+        }
+    }
+}
@@ -1,37 +1,80 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. It loads child1 into a hash table; if
+ * child1 does not fit in the memory budget, both children are split into
+ * partitions on a hash of the join field. Partition 0 of child1 stays in
+ * the hash table as far as there is room and is joined while child2 is
+ * partitioned, and every other partition, and the part of partition 0 that
+ * did not fit, is written to a {@link SpillFile} and joined afterwards with
+ * the same partition of child2. A partition that is still too big is
+ * partitioned again with a different hash, up to {@link #MAX_DEPTH} times;
+ * one that is still too big after that, because most of its tuples share
+ * one key, is joined a hash table at a time against its whole child2
+ * partition. A large join thus reads each input once, and writes and reads
+ * back the spilled partitions once.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The memory budget, in bytes of tuple data, used unless one is given. */
+    public static final long DEFAULT_MEMORY = 16L << 20;
+
+    /** The number of times a partition may be partitioned again. */
+    public static final int MAX_DEPTH = 3;
+
+    /** Bytes of memory set aside for the write buffer of each spill file. */
+    private static final int SPILL_BUFFER = 64 * 1024;
+
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
+    private final long memory;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
      *            Iterator for the left(outer) relation to join
      * @param child2
      *            Iterator for the right(inner) relation to join
+     * @param memoryBytes
+     *            the memory budget for the hash table, measured in bytes of
+     *            child1 tuples as {@link TupleDesc#getSize} counts them
      */
-    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBytes) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memory = memoryBytes;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Constructor with the default memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY);
+    }
+
     public JoinPredicate getJoinPredicate() {
         return pred;
     }
@@ -39,7 +82,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -49,33 +92,275 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
+
+    /** Where the tuples of one side of a pass come from. */
+    private interface Source {
+        /** @return the next tuple, or null if there are no more */
+        Tuple next() throws DbException, TransactionAbortedException;
+
+        void rewind() throws DbException, TransactionAbortedException;
+
+        /** Release the source once its pass is done. */
+        void done();
+    }
+
+    private static class ChildSource implements Source {
+        private final OpIterator child;
+
+        ChildSource(OpIterator child) {
+            this.child = child;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return child.hasNext() ? child.next() : null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void done() {
+        }
+    }
+
+    private static class SpillSource implements Source {
+        private final SpillFile file;
+        private SpillFile.Reader reader;
+
+        SpillSource(SpillFile file) throws DbException {
+            this.file = file;
+            open();
+        }
+
+        private void open() throws DbException {
+            try {
+                reader = file.reader();
+            } catch (IOException e) {
+                throw new DbException("hash join failed: " + e.getMessage());
+            }
+        }
+
+        public Tuple next() throws DbException {
+            try {
+                return reader.next();
+            } catch (IOException e) {
+                throw new DbException("hash join failed: " + e.getMessage());
+            }
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        private void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing more is read from the file
+            }
+        }
+
+        public void done() {
+            close();
+            file.delete();
+        }
+    }
+
+    /** A partition of both children that is still to be joined. */
+    private static class Partition {
+        final SpillFile build, probe;
+        final int depth;
+
+        Partition(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+    }
+
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    // the pass being joined: child1 against child2, or a partition of each
+    private transient int maxTuples, fanOut;
+    private transient boolean started;
+    private transient Source build, probe;
+    private transient int depth;
+    private transient int loaded;              // tuples in map
+    private transient Tuple nextBuild;         // read from build but not yet loaded
+    private transient boolean buildDone;       // all of build is loaded or spilled
+    private transient SpillFile[] buildParts;  // non-null if this pass partitions
+    private transient SpillFile[] probeParts;
+    private transient ArrayDeque<Partition> pending;
+
+    private void addToMap(Tuple t) {
+        ArrayList<Tuple> list = map.get(t.getField(pred.getField1()));
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(t.getField(pred.getField1()), list);
+        }
+        list.add(t);
+        loaded++;
+    }
+
+    /**
+     * Load the hash table with the next tuples of build, as many as fit;
+     * buildDone is set if there are no more.
+     */
+    private void loadMap() throws DbException, TransactionAbortedException {
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+        loaded = 0;
+        if (nextBuild != null)
+            addToMap(nextBuild);
+        nextBuild = null;
+        while (true) {
+            Tuple t = build.next();
+            if (t == null) {
+                buildDone = true;
+                return;
+            }
+            if (loaded == maxTuples) {
+                nextBuild = t;
+                return;
+            }
+            addToMap(t);
+        }
+    }
+
+    /** @return the partition of a join field value in a pass at the given depth */
+    private int partition(Field f, int depth) {
+        int h = f.hashCode() * 0x9E3779B9 + depth * 0x7F4A7C15;
+        h ^= h >>> 15;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % fanOut;
+    }
+
+    /**
+     * Split the build side of this pass into partitions, keeping as much of
+     * partition 0 in the hash table as fits.
+     */
+    private void partitionBuild() throws DbException, TransactionAbortedException {
+        buildParts = new SpillFile[fanOut];
+        probeParts = new SpillFile[fanOut];
+        try {
+            for (int i = 0; i < fanOut; i++) {
+                buildParts[i] = new SpillFile(child1.getTupleDesc());
+                probeParts[i] = new SpillFile(child2.getTupleDesc());
+            }
+            for (Iterator<Map.Entry<Object, ArrayList<Tuple>>> it = map.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Object, ArrayList<Tuple>> e = it.next();
+                int p = partition((Field) e.getKey(), depth);
+                if (p != 0) {
+                    for (Tuple t : e.getValue())
+                        buildParts[p].add(t);
+                    loaded -= e.getValue().size();
+                    it.remove();
+                }
+            }
+            Tuple t = nextBuild;
+            nextBuild = null;
+            for (; t != null; t = build.next()) {
+                int p = partition(t.getField(pred.getField1()), depth);
+                if (p == 0 && loaded < maxTuples)
+                    addToMap(t);
+                else
+                    buildParts[p].add(t);
+            }
+            for (SpillFile f : buildParts)
+                f.finishWriting();
+        } catch (IOException e) {
+            throw new DbException("hash join failed: " + e.getMessage());
+        }
+        buildDone = true;
+    }
+
+    /**
+     * Start the next pass: child1 and child2 the first time, then each
+     * spilled partition in turn.
+     *
+     * @return false if there are no more passes
+     */
+    private boolean nextPass() throws DbException, TransactionAbortedException {
+        if (!started) {
+            started = true;
+            build = new ChildSource(child1);
+            probe = new ChildSource(child2);
+            depth = 0;
+        } else {
+            Partition p = pending.poll();
+            if (p == null)
+                return false;
+            build = new SpillSource(p.build);
+            probe = new SpillSource(p.probe);
+            depth = p.depth;
+        }
+        buildParts = probeParts = null;
+        buildDone = false;
+        nextBuild = null;
+        loadMap();
+        if (!buildDone && depth <= MAX_DEPTH)
+            partitionBuild();
+        return true;
+    }
+
+    /** Finish the current pass, queueing the partitions it spilled. */
+    private void endPass() throws DbException {
+        build.done();
+        probe.done();
+        build = probe = null;
+        if (buildParts != null) {
+            for (int i = 0; i < fanOut; i++) {
+                try {
+                    probeParts[i].finishWriting();
+                } catch (IOException e) {
+                    throw new DbException("hash join failed: " + e.getMessage());
+                }
+                if (buildParts[i].size() > 0 && probeParts[i].size() > 0) {
+                    pending.add(new Partition(buildParts[i], probeParts[i], depth + 1));
+                } else {
+                    buildParts[i].delete();
+                    probeParts[i].delete();
+                }
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            buildParts = probeParts = null;
         }
-        return cnt > 0;
+    }
 
+    /** Delete the spill files of this join and start over. */
+    private void reset() {
+        if (build != null)
+            build.done();
+        if (probe != null)
+            probe.done();
+        build = probe = null;
+        if (buildParts != null) {
+            for (int i = 0; i < fanOut; i++) {
+                buildParts[i].delete();
+                probeParts[i].delete();
+            }
+        }
+        buildParts = probeParts = null;
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.build.delete();
+                p.probe.delete();
+            }
+        }
+        pending = new ArrayDeque<Partition>();
+        started = false;
+        map.clear();
+        listIt = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        maxTuples = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memory / child1.getTupleDesc().getSize()));
+        // half the budget may go to the write buffers of the spill files
+        fanOut = (int) Math.max(2, Math.min(64, memory / (4 * SPILL_BUFFER)));
+        reset();
         super.open();
     }
 
@@ -85,13 +370,13 @@ public class HashEquiJoin extends Operator {
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        reset();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -110,7 +395,7 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
@@ -131,32 +416,45 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            listIt = null;
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+            if (build == null && !nextPass())
+                return null;
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            t2 = probe.next();
+            if (t2 == null) {
+                if (!buildDone) {
+                    // a partition too skewed to split: join the next hash
+                    // table of it against the whole probe side again
+                    probe.rewind();
+                    loadMap();
+                } else {
+                    endPass();
+                }
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
+            }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            Field key = t2.getField(pred.getField2());
+            if (buildParts != null) {
+                int p = partition(key, depth);
+                try {
+                    // partition 0 may also have build tuples on disk
+                    if (buildParts[p].size() > 0)
+                        probeParts[p].add(t2);
+                } catch (IOException e) {
+                    throw new DbException("hash join failed: " + e.getMessage());
+                }
+                if (p != 0)
+                    continue;
+            }
+            ArrayList<Tuple> l = map.get(key);
+            if (l != null)
+                listIt = l.iterator();
         }
-
-        return null;
     }
 
     @Override
@@ -169,5 +467,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
@@ -9,12 +9,21 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Next to the file, in a file with the same name and a ".fsm" suffix, a
+ * {@link FreeSpaceMap} records roughly how full each page is, so that
+ * inserts go straight to a page with room.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    private final File f;
+    private final TupleDesc td;
+    private volatile MappedFileIO io;
+    private FreeSpaceMap freeSpace;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -24,6 +33,8 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this.f = f;
+        this.td = td;
     }
 
     /**
@@ -33,7 +44,7 @@ public class HeapFile implements DbFile {
      */
     public File getFile() {
         // some code goes here
-        return null;
+        return f;
     }
 
     /**
@@ -47,7 +58,7 @@ public class HeapFile implements DbFile {
      */
     public int getId() {
         // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return f.getAbsoluteFile().hashCode();
     }
 
     /**
@@ -57,19 +68,87 @@ public class HeapFile implements DbFile {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return td;
+    }
+
+    /**
+     * Returns the I/O layer of this file, opening it on first use so the
+     * file descriptor stays open across page reads and writes.
+     */
+    private MappedFileIO io() throws IOException {
+        MappedFileIO current = io;
+        if (current != null)
+            return current;
+        synchronized (this) {
+            if (io == null)
+                io = new MappedFileIO(f);
+            return io;
+        }
+    }
+
+    /**
+     * Returns the free-space map of this file, opening it on first use.
+     */
+    synchronized FreeSpaceMap freeSpace() throws IOException {
+        if (freeSpace == null) {
+            freeSpace = new FreeSpaceMap(new File(f.getPath() + ".fsm"));
+            // a map with more pages than the file was left by an older file
+            if (freeSpace.getNumPages() > numPages())
+                freeSpace.clear();
+        }
+        return freeSpace;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        try {
+            if (io != null)
+                io.close();
+        } finally {
+            io = null;
+            if (freeSpace != null)
+                freeSpace.close();
+            freeSpace = null;
+        }
+    }
+
+    /**
+     * Forgets the free space of a discarded page, which the free-space map
+     * may record as lower than it is if an insert on the page was rolled
+     * back. A map that is not open has no changes from the pool's pages.
+     */
+    public synchronized void pageDiscarded(PageId pid) {
+        if (freeSpace != null)
+            freeSpace.forget(pid.getPageNumber());
     }
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        return null;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            io().read((long) pid.getPageNumber() * BufferPool.getPageSize(), data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return parsePage(pid, data);
+    }
+
+    // see DbFile.java for javadocs
+    public Page parsePage(PageId pid, byte[] data) {
+        try {
+            return new HeapPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        io().write((long) page.getId().getPageNumber() * BufferPool.getPageSize(),
+                page.getPageData());
     }
 
     /**
@@ -77,30 +156,204 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return 0;
+        try {
+            return (int) (io().length() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        return insertTuples(tid, Collections.singletonList(t));
+    }
+
+    /**
+     * Inserts a batch of tuples, filling each page the free-space map finds
+     * before moving on to the next one.
+     *
+     * @see DbFile#insertTuples
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        FreeSpaceMap fsm = freeSpace();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int i = 0;
+        while (i < tuples.size()) {
+            HeapPage page = pageWithRoom(tid, fsm);
+            while (i < tuples.size() && page.getNumEmptySlots() > 0)
+                page.insertTuple(tuples.get(i++));
+            fsm.update(page.getId().getPageNumber(), page.getNumEmptySlots(), page.numSlots);
+            dirtied.add(page);
+        }
+        return dirtied;
+    }
+
+    /**
+     * Returns a page with an empty slot, locked for writing by tid, adding a
+     * page to the file if every page is full.
+     */
+    private HeapPage pageWithRoom(TransactionId tid, FreeSpaceMap fsm)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        for (int pgNo = fsm.findPage(numPages(), tid.getId()); pgNo >= 0;
+                pgNo = fsm.findPage(numPages(), tid.getId())) {
+            HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(getId(), pgNo),
+                    Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0)
+                return page;
+            // the map was out of date
+            fsm.update(pgNo, 0, page.numSlots);
+        }
+
+        // every page is full: add an empty one
+        HeapPageId pid;
+        synchronized (this) {
+            pid = new HeapPageId(getId(), numPages());
+            writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        }
+        HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+        if (page.getNumEmptySlots() == 0)
+            throw new DbException("tuples of " + td + " do not fit on a page");
+        return page;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
-            TransactionAbortedException {
+            IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        return deleteTuples(tid, Collections.singletonList(t));
+    }
+
+    /**
+     * Deletes a batch of tuples page by page.
+     *
+     * @see DbFile#deleteTuples
+     */
+    public ArrayList<Page> deleteTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, ArrayList<Tuple>> byPage = new LinkedHashMap<PageId, ArrayList<Tuple>>();
+        for (Tuple t : tuples) {
+            RecordId rid = t.getRecordId();
+            if (rid == null || rid.getPageId().getTableId() != getId())
+                throw new DbException("tuple is not a member of this file");
+            ArrayList<Tuple> onPage = byPage.get(rid.getPageId());
+            if (onPage == null) {
+                onPage = new ArrayList<Tuple>();
+                byPage.put(rid.getPageId(), onPage);
+            }
+            onPage.add(t);
+        }
+
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        for (Map.Entry<PageId, ArrayList<Tuple>> e : byPage.entrySet()) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, e.getKey(),
+                    Permissions.READ_WRITE);
+            for (Tuple t : e.getValue())
+                page.deleteTuple(t);
+            freeSpace().update(page.getId().getPageNumber(), page.getNumEmptySlots(), page.numSlots);
+            dirtied.add(page);
+        }
+        return dirtied;
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return null;
+        return new HeapFileIterator(this, tid);
+    }
+
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a HeapFile.
+ * Pages are read in page number order, and each page read is reported to
+ * the BufferPool's {@link ReadAhead} so that the following pages are loaded
+ * in the background.
+ */
+class HeapFileIterator extends AbstractDbFileIterator {
+
+    private final HeapFile f;
+    private final TransactionId tid;
+    private Iterator<Tuple> it = null;
+    private int pgNo = 0;
+
+    /** Finds the page after a given page of the file. */
+    private final ReadAhead.Successor successor = new ReadAhead.Successor() {
+        public PageId next(Page page) {
+            int next = page.getId().getPageNumber() + 1;
+            if (next >= f.numPages())
+                return null;
+            return new HeapPageId(f.getId(), next);
+        }
+    };
+
+    /**
+     * Constructor for this iterator
+     * @param f - the HeapFile containing the tuples
+     * @param tid - the transaction id
+     */
+    public HeapFileIterator(HeapFile f, TransactionId tid) {
+        this.f = f;
+        this.tid = tid;
+    }
+
+    /**
+     * Open this iterator by getting an iterator on the first page
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        pgNo = 0;
+        it = pageIterator(pgNo);
+    }
+
+    private Iterator<Tuple> pageIterator(int pgNo)
+            throws DbException, TransactionAbortedException {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+        ReadAhead readAhead = Database.getBufferPool().getReadAhead();
+        if (readAhead != null)
+            readAhead.pageRead(page, successor);
+        return page.iterator();
+    }
+
+    /**
+     * Read the next tuple either from the current page if it has more tuples
+     * or from the next non-empty page.
+     *
+     * @return the next tuple, or null if none exists
+     */
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (it == null)
+            return null;
+        while (!it.hasNext()) {
+            if (pgNo + 1 >= f.numPages()) {
+                it = null;
+                return null;
+            }
+            it = pageIterator(++pgNo);
+        }
+        return it.next();
+    }
+
+    /**
+     * rewind this iterator back to the beginning of the tuples
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
     }
 
+    /**
+     * close the iterator
+     */
+    public void close() {
+        super.close();
+        it = null;
+    }
 }
 
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins its child with a table stored in a
+ * {@link BTreeFile} keyed on the join field. For each tuple of the child it
+ * looks up the matching tuples of the table with
+ * {@link BTreeFile#indexIterator}, so it reads a path from the root of the
+ * B+ tree to a leaf and the leaves holding the matches, instead of the whole
+ * table.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private OpIterator child1;
+    private final BTreeScan child2;
+    private final TransactionId tid;
+    private final BTreeFile file;
+    private final Predicate.Op probeOp;
+    private TupleDesc comboTD;
+    transient private Tuple t1 = null;
+    transient private DbFileIterator inner = null;
+
+    /**
+     * Constructor. Accepts the outer child and the inner table to join and
+     * the predicate to join them on
+     *
+     * @param tid
+     *            The transaction the inner table is read in
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE, and its field2 must be the key of the
+     *            inner table
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param tableid
+     *            The inner table, which must be stored in a BTreeFile
+     * @param tableAlias
+     *            The alias of the inner table, which prefixes its field
+     *            names as in {@link BTreeScan}
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, OpIterator child1,
+            int tableid, String tableAlias) {
+        if (!canProbe(p.getOperator()))
+            throw new IllegalArgumentException("IndexNestedLoopJoin does not support " + p.getOperator());
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile) || ((BTreeFile) f).keyField() != p.getField2())
+            throw new IllegalArgumentException("table " + tableid + " has no B+ tree on field " + p.getField2());
+        this.tid = tid;
+        this.pred = p;
+        this.child1 = child1;
+        this.file = (BTreeFile) f;
+        this.child2 = new BTreeScan(tid, tableid, tableAlias, null);
+        this.probeOp = probeOp(p.getOperator());
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if an IndexNestedLoopJoin can join on the operator
+     */
+    public static boolean canProbe(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return the operator op' such that a op b is b op' a
+     */
+    private static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeInner();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeInner();
+        child1.rewind();
+    }
+
+    private void closeInner() {
+        if (inner != null)
+            inner.close();
+        inner = null;
+        t1 = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null && inner.hasNext()) {
+                Tuple t2 = inner.next();
+                Tuple t = new Tuple(comboTD);
+                int n1 = t1.getTupleDesc().numFields();
+                for (int i = 0; i < n1; i++)
+                    t.setField(i, t1.getField(i));
+                for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+                    t.setField(n1 + i, t2.getField(i));
+                return t;
+            }
+            closeInner();
+            if (!child1.hasNext())
+                return null;
+            t1 = child1.next();
+            inner = file.indexIterator(tid, new IndexPredicate(probeOp, t1.getField(pred.getField1())));
+            inner.open();
+        }
+    }
+
+    /**
+     * @return the outer child and a {@link BTreeScan} of the inner table,
+     *         which describes it but is not read
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    /**
+     * Replaces the outer child; the inner table stays the same.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+    }
+}
@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.*;
+
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
  * constructor
@@ -8,6 +11,15 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of tuples handed to the buffer pool at a time. */
+    static final int BATCH_SIZE = 512;
+
+    private final TransactionId tid;
+    private OpIterator child;
+    private final int tableId;
+    private final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE });
+    private boolean done = false;
+
     /**
      * Constructor.
      *
@@ -24,23 +36,36 @@ public class Insert extends Operator {
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
         // some code goes here
+        if (!child.getTupleDesc().equals(Database.getCatalog().getTupleDesc(tableId)))
+            throw new DbException("cannot insert tuples of " + child.getTupleDesc()
+                    + " into table " + tableId);
+        this.tid = t;
+        this.child = child;
+        this.tableId = tableId;
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.open();
+        super.open();
+        done = false;
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.rewind();
+        done = false;
     }
 
     /**
@@ -50,25 +75,52 @@ public class Insert extends Operator {
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
+     * <p>
+     * Tuples are passed to the BufferPool in batches of {@link #BATCH_SIZE},
+     * so that each page they go to is locked and dirtied once per batch.
      *
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        if (done)
+            return null;
+        done = true;
+        int count = 0;
+        ArrayList<Tuple> batch = new ArrayList<Tuple>(BATCH_SIZE);
+        try {
+            while (child.hasNext()) {
+                batch.add(child.next());
+                if (batch.size() == BATCH_SIZE) {
+                    Database.getBufferPool().insertTuples(tid, tableId, batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                Database.getBufferPool().insertTuples(tid, tableId, batch);
+                count += batch.size();
+            }
+        } catch (IOException e) {
+            throw new DbException("insert into table " + tableId + " failed: " + e.getMessage());
+        }
+        Tuple result = new Tuple(td);
+        result.setField(0, new IntField(count));
+        return result;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[] { child };
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 }
@@ -68,12 +68,115 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // mirrors the choice of algorithm in estimateJoinCost
+        boolean sorted1 = isSortedOn(plan1, t1id);
+        boolean sorted2 = !(lj instanceof LogicalSubplanJoinNode) && isSortedOn(plan2, t2id);
+        if (lj.p == Predicate.Op.EQUALS) {
+            if (sorted1 && sorted2)
+                j = new SortMergeJoin(p, plan1, plan2);
+            else
+                j = new HashEquiJoin(p, plan1, plan2);
+        } else if (SortMergeJoin.canMerge(lj.p) && !(lj instanceof LogicalSubplanJoinNode)) {
+            if (!sorted1)
+                plan1 = new OrderBy(t1id, true, plan1);
+            if (!sorted2)
+                plan2 = new OrderBy(t2id, true, plan2);
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * Return the best iterator for computing a given logical join, like
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)}, or an
+     * {@link IndexNestedLoopJoin} if plan2 scans a table stored in a B+ tree
+     * keyed on the join field, and probing the tree for each tuple of plan1
+     * is estimated to cost less than reading all of plan2. Both read plan1
+     * once, so its cost is left out of the comparison.
+     * 
+     * @param tid
+     *            The transaction the join runs in
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param stats
+     *            Statistics for the tables of the query, referenced by base
+     *            table names, not alias
+     */
+    public OpIterator instantiateJoin(TransactionId tid, LogicalJoinNode lj,
+            OpIterator plan1, OpIterator plan2, Map<String, TableStats> stats)
+            throws ParsingException {
+        if (!(plan2 instanceof SeqScan) || probeableIndex(lj) == null)
+            return instantiateJoin(lj, plan1, plan2);
+
+        SeqScan scan = (SeqScan) plan2;
+        TableStats stats2 = stats.get(scan.getTableName());
+        if (stats2 == null)
+            return instantiateJoin(lj, plan1, plan2);
+        int card1;
+        if (plan1 instanceof Operator) {
+            OperatorCardinality.updateOperatorCardinality((Operator) plan1,
+                    p.getTableAliasToIdMapping(), stats);
+            card1 = ((Operator) plan1).getEstimatedCardinality();
+        } else if (plan1 instanceof SeqScan && stats.get(((SeqScan) plan1).getTableName()) != null) {
+            card1 = stats.get(((SeqScan) plan1).getTableName()).estimateTableCardinality(1.0);
+        } else {
+            return instantiateJoin(lj, plan1, plan2);
+        }
+        int card2 = stats2.estimateTableCardinality(1.0);
+        double cost2 = stats2.estimateScanCost();
+        if (estimateIndexJoinCost(lj, card1, card2, 0, cost2) >= estimateScanJoinCost(lj, card1, card2, 0, cost2))
+            return instantiateJoin(lj, plan1, plan2);
+
+        int t1id, t2id;
+        try {
+            t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+            t2id = plan2.getTupleDesc().fieldNameToIndex(lj.f2QuantifiedName);
+        } catch (NoSuchElementException e) {
+            return instantiateJoin(lj, plan1, plan2);
+        }
+        return new IndexNestedLoopJoin(tid, new JoinPredicate(t1id, lj.p, t2id), plan1,
+                Database.getCatalog().getTableId(scan.getTableName()), scan.getAlias());
+    }
+
+    /**
+     * Return true if the tuples of a plan come in ascending order of a field:
+     * if it scans a B+ tree keyed on the field, sorts on it, or filters or
+     * merge joins such input.
+     *
+     * @param plan
+     *            the plan
+     * @param field
+     *            the index of the field in the plan's tuples
+     */
+    static boolean isSortedOn(OpIterator plan, int field) {
+        if (plan instanceof SeqScan || plan instanceof BTreeScan) {
+            String name = (plan instanceof SeqScan) ? ((SeqScan) plan).getTableName()
+                    : ((BTreeScan) plan).getTableName();
+            try {
+                DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+                return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+            } catch (NoSuchElementException e) {
+                return false;
+            }
+        } else if (plan instanceof Filter) {
+            return isSortedOn(((Filter) plan).getChildren()[0], field);
+        } else if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (plan instanceof SortMergeJoin) {
+            return ((SortMergeJoin) plan).isSortedOn(field);
+        }
+        return false;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -102,17 +205,144 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)} does.
+     *
+     * @param scan2
+     *            true if the right-hand side is a scan of the table j.t2Alias,
+     *            which cost2 is the cost of, rather than a join of it with
+     *            other tables; only then may the join probe an index of the
+     *            table, as {@link #instantiateJoin(TransactionId,
+     *            LogicalJoinNode, OpIterator, OpIterator, Map)} does
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean scan2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
+        }
+        double cost = estimateScanJoinCost(j, card1, card2, cost1, cost2);
+        if (scan2)
+            cost = Math.min(cost, estimateIndexJoinCost(j, card1, card2, cost1, cost2));
+        return cost;
+    }
+
+    /**
+     * Estimate the cost of the join that {@link #instantiateJoin} makes,
+     * which reads each input in full.
+     */
+    private double estimateScanJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        if (j.p == Predicate.Op.EQUALS) {
+            if (isSortedOn(j.t1Alias, j.f1PureName) && isSortedOn(j.t2Alias, j.f2PureName)) {
+                // merge join: one pass over each input, one comparison per tuple
+                return cost1 + cost2 + card1 + card2;
+            }
+            // hash join: inserting a tuple costs about as much as two probes
+            return cost1 + cost2 + 2.0 * card1 + card2;
+        } else if (SortMergeJoin.canMerge(j.p)) {
+            // merge join, sorting the inputs that are not sorted; the band of
+            // each outer tuple is about half of the inner input
+            boolean outerIs1 = j.p == Predicate.Op.GREATER_THAN
+                    || j.p == Predicate.Op.GREATER_THAN_OR_EQ;
+            double cost = cost1 + cost2 + (double) card1 * card2 / 2;
+            if (!isSortedOn(j.t1Alias, j.f1PureName))
+                cost += sortCost(card1);
+            if (!isSortedOn(j.t2Alias, j.f2PureName))
+                cost += sortCost(card2);
+            return cost + (outerIs1 ? card1 * cost2 : card2 * cost1) / 2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // nested loops: one scan of the inner input per outer tuple
+            return cost1 + card1 * cost2 + (double) card1 * card2;
+        }
+    }
+
+    /**
+     * Estimate the cost of an {@link IndexNestedLoopJoin}, which looks up the
+     * matches of each outer tuple in the B+ tree of the inner table: a path
+     * from the root to a leaf, and for the inequalities half of the leaves.
+     *
+     * @param cost2
+     *            the cost of a scan of the whole inner table
+     * @return the cost, or infinity if the join cannot probe an index (see
+     *         {@link #probeableIndex})
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        BTreeFile f = probeableIndex(j);
+        if (f == null)
+            return Double.POSITIVE_INFINITY;
+        int pages = Math.max(1, f.numPages());
+        double pageCost = cost2 / pages;
+        Type keyType = f.getTupleDesc().getFieldType(f.keyField());
+        int fanOut = BTreeInternalPage.getMaxEntries(keyType, BufferPool.getPageSize()) + 1;
+        double height = 1 + Math.ceil(Math.log(pages) / Math.log(fanOut));
+        if (j.p == Predicate.Op.EQUALS)
+            return cost1 + card1 * (height * pageCost + 1);
+        return cost1 + card1 * ((height + pages / 2.0) * pageCost + card2 / 2.0);
+    }
+
+    /** @return the number of comparisons needed to sort card tuples */
+    private static double sortCost(int card) {
+        return card * Math.max(1.0, Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * Return the B+ tree an {@link IndexNestedLoopJoin} can probe for a join:
+     * the inner table's, if it is keyed on the join field, the operator can
+     * be probed for, and the query does not filter the table, which would
+     * put a {@link Filter} rather than a scan of the table on the inner side.
+     *
+     * @return the B+ tree, or null if the join cannot probe an index
+     */
+    private BTreeFile probeableIndex(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode || !IndexNestedLoopJoin.canProbe(j.p)
+                || p.hasFilter(j.t2Alias))
+            return null;
+        return indexOn(j.t2Alias, j.f2PureName);
+    }
+
+    /**
+     * Return true if a scan of the table is sorted on the field, because the
+     * table is a B+ tree keyed on it. A join of the table with others is
+     * taken to keep the order of the scan.
+     *
+     * @param tableAlias
+     *            The alias of the table in the query
+     * @param field
+     *            The pure name of the field
+     */
+    private boolean isSortedOn(String tableAlias, String field) {
+        return indexOn(tableAlias, field) != null;
+    }
+
+    /**
+     * Return the table if it is stored in a B+ tree keyed on the field, or
+     * null.
+     *
+     * @param tableAlias
+     *            The alias of the table in the query
+     * @param field
+     *            The pure name of the field
+     */
+    private BTreeFile indexOn(String tableAlias, String field) {
+        Integer tid = tableAlias == null ? null : p.getTableId(tableAlias);
+        if (tid == null)
+            return null;
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(tid);
+            if (f instanceof BTreeFile
+                    && f.getTupleDesc().fieldNameToIndex(field) == ((BTreeFile) f).keyField())
+                return (BTreeFile) f;
+        } catch (NoSuchElementException e) {
+            // not a table of this query
         }
+        return null;
     }
 
     /**
@@ -286,6 +516,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether each side is a scan of its table, not a join of earlier tables
+        boolean scan1 = true, scan2 = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -320,6 +552,7 @@ public class JoinOptimizer {
                                        // left
                 // subtree is
                 t1card = bestCard;
+                scan1 = false;
                 leftPkey = hasPkey(prevBest);
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
@@ -336,6 +569,7 @@ public class JoinOptimizer {
                                        // left
                 // subtree is
                 t2card = bestCard;
+                scan2 = false;
                 rightPkey = hasPkey(prevBest);
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
@@ -350,10 +584,10 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, scan2);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, scan1);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -24,8 +24,15 @@ public class JoinPredicate implements Serializable {
      *            Predicate.Op.LESS_THAN_OR_EQ
      * @see Predicate
      */
+    private final int field1;
+    private final Predicate.Op op;
+    private final int field2;
+
     public JoinPredicate(int field1, Predicate.Op op, int field2) {
         // some code goes here
+        this.field1 = field1;
+        this.op = op;
+        this.field2 = field2;
     }
 
     /**
@@ -36,24 +43,24 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
-        return false;
+        return t1.getField(field1).compare(op, t2.getField(field2));
     }
     
     public int getField1()
     {
         // some code goes here
-        return -1;
+        return field1;
     }
     
     public int getField2()
     {
         // some code goes here
-        return -1;
+        return field2;
     }
     
     public Predicate.Op getOperator()
     {
         // some code goes here
-        return null;
+        return op;
     }
 }
@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRUKPolicy implements the LRU-K algorithm of O'Neil, O'Neil and Weikum.
+ * For every page it remembers the logical times of its last K references
+ * and evicts the resident page whose K-th most recent reference lies
+ * furthest in the past. Pages with fewer than K references have an
+ * infinite backward K-distance and are evicted first, oldest last reference
+ * first, so pages touched once by a scan never push out pages that are
+ * referenced repeatedly.
+ * <p>
+ * Reference history is retained for a bounded number of pages that have
+ * already been evicted, so a page that is re-read soon after eviction is
+ * recognized as re-referenced.
+ */
+public class LRUKPolicy extends AbstractReplacementPolicy {
+
+    /** Default K, i.e. LRU-2. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final int retainedHistory;
+    private long clock = 0;
+
+    /** Last K reference times of each resident page, most recent first. */
+    private final HashMap<PageId, long[]> resident = new HashMap<PageId, long[]>();
+
+    /** Reference histories of recently evicted pages, oldest first. */
+    private final LinkedHashMap<PageId, long[]> evicted = new LinkedHashMap<PageId, long[]>();
+
+    /**
+     * Create an LRU-2 policy for a pool of the given size.
+     *
+     * @param numPages the maximum number of resident pages
+     */
+    public LRUKPolicy(int numPages) {
+        this(numPages, DEFAULT_K);
+    }
+
+    /**
+     * Create an LRU-K policy for a pool of the given size.
+     *
+     * @param numPages the maximum number of resident pages
+     * @param k the number of past references considered per page
+     */
+    public LRUKPolicy(int numPages, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.retainedHistory = numPages;
+    }
+
+    protected void onHit(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history == null) {
+            onMiss(pid);
+            return;
+        }
+        reference(history);
+    }
+
+    protected void onMiss(PageId pid) {
+        long[] history = evicted.remove(pid);
+        if (history == null) {
+            history = new long[k];
+            Arrays.fill(history, -1);
+        }
+        reference(history);
+        resident.put(pid, history);
+    }
+
+    private void reference(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = clock++;
+    }
+
+    public void remove(PageId pid) {
+        resident.remove(pid);
+        evicted.remove(pid);
+    }
+
+    protected PageId selectVictim(EvictionFilter filter) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : resident.entrySet()) {
+            long[] history = e.getValue();
+            long kth = history[k - 1];
+            long last = history[0];
+            // a smaller K-th reference time means a larger backward
+            // K-distance; -1 stands for an infinite distance
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (!filter.canEvict(e.getKey()))
+                    continue;
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        if (victim != null) {
+            evicted.put(victim, resident.remove(victim));
+            if (evicted.size() > retainedHistory) {
+                Iterator<PageId> it = evicted.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,448 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants hierarchical locks on tables and pages to
+ * transactions and detects deadlocks among them.
+ * <p>
+ * A page is read under a shared (S) page lock and written under an
+ * exclusive (X) one, and before either the transaction takes the matching
+ * intention lock (IS or IX) on the page's table. A transaction holding an
+ * S, SIX or X lock on a table needs no page locks to read the table's
+ * pages, and one holding X none to write them. Once a transaction holds
+ * more than the escalation threshold of page locks on one table, they are
+ * replaced by a single S or X table lock, provided that lock can be granted
+ * right away; otherwise escalation is retried at the next threshold
+ * crossing. A scan over a large table thus holds a bounded number of locks.
+ * <p>
+ * A transaction whose request conflicts with locks held by others waits.
+ * While it waits, it has an edge in the wait-for graph to every
+ * transaction holding a conflicting lock. Every time a request blocks, and
+ * every time a waiting request is woken up without being granted, the graph
+ * is searched for a cycle through the requester. If one is found, the
+ * youngest transaction on the cycle (the one with the largest id, which has
+ * done the least work) is chosen as the victim: its pending request throws
+ * TransactionAbortedException, and the others go on waiting for the
+ * victim's locks to be released when it aborts. Deadlocks are thus broken
+ * as soon as they form, without timeouts.
+ * <p>
+ * A request covered by a lock the transaction already holds, such as a
+ * page read again, returns without taking the manager's monitor.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Default number of page locks on one table after which a
+        transaction's locks are escalated to a table lock. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 512;
+
+    /** Lock modes, from weakest to strongest. */
+    public enum Mode {
+        IS, IX, S, SIX, X;
+
+        private static final boolean[][] COMPATIBLE = {
+            //         IS     IX     S      SIX    X
+            /* IS  */ { true,  true,  true,  true,  false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  false, false, false, false },
+            /* X   */ { false, false, false, false, false },
+        };
+
+        /** @return true if a lock in this mode and one in mode m may be
+            held on the same object by different transactions */
+        public boolean isCompatible(Mode m) {
+            return COMPATIBLE[ordinal()][m.ordinal()];
+        }
+
+        /** @return the weakest mode that grants both this mode and m */
+        public Mode join(Mode m) {
+            if (this == m)
+                return this;
+            if (this == X || m == X)
+                return X;
+            if (this == SIX || m == SIX)
+                return SIX;
+            if ((this == S && m == IX) || (this == IX && m == S))
+                return SIX;
+            return ordinal() > m.ordinal() ? this : m;
+        }
+    }
+
+    /** Lock key of a whole table. */
+    private static class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        public int hashCode() {
+            return tableId;
+        }
+    }
+
+    /** A request a transaction is waiting on. */
+    private static class Request {
+        final Object key;
+        final Mode mode;
+
+        Request(Object key, Mode mode) {
+            this.key = key;
+            this.mode = mode;
+        }
+    }
+
+    /** Holders of each locked table or page, with the mode each holds. */
+    private final HashMap<Object, HashMap<TransactionId, Mode>> locks
+            = new HashMap<Object, HashMap<TransactionId, Mode>>();
+    /**
+     * Tables and pages each transaction holds locks on, with the mode held.
+     * Written under the monitor, read without it by {@link #acquire}.
+     */
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Object, Mode>> held
+            = new ConcurrentHashMap<TransactionId, ConcurrentHashMap<Object, Mode>>();
+    /** Number of page locks each transaction holds, by table. */
+    private final HashMap<TransactionId, HashMap<Integer, Integer>> pageCounts
+            = new HashMap<TransactionId, HashMap<Integer, Integer>>();
+    private final HashMap<TransactionId, Request> waiting = new HashMap<TransactionId, Request>();
+    private final HashSet<TransactionId> victims = new HashSet<TransactionId>();
+    private int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+    private long deadlocks = 0;
+    private long escalations = 0;
+
+    /**
+     * Set the number of page locks on one table after which a
+     * transaction's locks are escalated to a table lock.
+     */
+    public synchronized void setEscalationThreshold(int threshold) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("bad escalation threshold " + threshold);
+        escalationThreshold = threshold;
+    }
+
+    /**
+     * Acquire a lock on a page, and the intention lock on its table,
+     * waiting while other transactions hold conflicting locks. A
+     * transaction holding the only shared lock on a page may upgrade it to
+     * an exclusive one.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *   of a deadlock, or interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean write = perm == Permissions.READ_WRITE;
+        if (!covered(tid, pid, write))
+            lockPage(tid, pid, write);
+    }
+
+    /**
+     * @return true if the locks tid holds already allow it to read, or to
+     *   write, pid. Only tid changes its own locks, so the answer stays true
+     *   while tid runs; it is read without the monitor.
+     */
+    private boolean covered(TransactionId tid, PageId pid, boolean write) {
+        Map<Object, Mode> mine = held.get(tid);
+        if (mine == null)
+            return false;
+        Mode page = mine.get(pid);
+        if (page == Mode.X || (!write && page == Mode.S))
+            return true;
+        Mode table = mine.get(new TableKey(pid.getTableId()));
+        return table == Mode.X || (!write && (table == Mode.S || table == Mode.SIX));
+    }
+
+    private synchronized void lockPage(TransactionId tid, PageId pid, boolean write)
+            throws TransactionAbortedException {
+        TableKey table = new TableKey(pid.getTableId());
+        Mode tableMode = modeOf(tid, table);
+        if (tableMode == Mode.X || (!write && (tableMode == Mode.S || tableMode == Mode.SIX)))
+            return; // the table lock covers the page
+        lock(tid, table, write ? Mode.IX : Mode.IS);
+        if (lock(tid, pid, write ? Mode.X : Mode.S)) {
+            HashMap<Integer, Integer> counts = pageCounts.get(tid);
+            if (counts == null) {
+                counts = new HashMap<Integer, Integer>();
+                pageCounts.put(tid, counts);
+            }
+            Integer n = counts.get(table.tableId);
+            n = n == null ? 1 : n + 1;
+            counts.put(table.tableId, n);
+            if (n % escalationThreshold == 0)
+                escalate(tid, table);
+        }
+    }
+
+    /**
+     * Acquire a shared lock on a page, and the intention lock on its table,
+     * if both can be granted without waiting.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @return true if tid now holds a lock allowing it to read pid; if
+     *   false, tid holds no lock it did not hold before
+     */
+    public synchronized boolean tryAcquireShared(TransactionId tid, PageId pid) {
+        TableKey table = new TableKey(pid.getTableId());
+        Mode tableMode = modeOf(tid, table);
+        if (tableMode == Mode.X || tableMode == Mode.S || tableMode == Mode.SIX)
+            return true; // the table lock covers the page
+        if (tableMode == null && !tryGrant(tid, table, Mode.IS))
+            return false;
+        if (modeOf(tid, pid) != null || tryGrant(tid, pid, Mode.S))
+            return true;
+        if (tableMode == null) {
+            unlock(tid, table);
+            notifyAll();
+        }
+        return false;
+    }
+
+    /**
+     * Acquire a lock on a whole table, waiting while other transactions
+     * hold conflicting locks.
+     *
+     * @param tid the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param mode the mode to lock the table in
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *   of a deadlock, or interrupted while waiting
+     */
+    public synchronized void acquireTable(TransactionId tid, int tableId, Mode mode)
+            throws TransactionAbortedException {
+        lock(tid, new TableKey(tableId), mode);
+    }
+
+    /** @return the mode tid holds on the object, or null */
+    private Mode modeOf(TransactionId tid, Object key) {
+        HashMap<TransactionId, Mode> holders = locks.get(key);
+        return holders == null ? null : holders.get(tid);
+    }
+
+    /**
+     * Lock an object in the given mode (joined with any mode tid already
+     * holds on it), waiting as needed.
+     *
+     * @return true if tid did not hold a lock on the object before
+     */
+    private boolean lock(TransactionId tid, Object key, Mode mode)
+            throws TransactionAbortedException {
+        Mode old = modeOf(tid, key);
+        Mode want = old == null ? mode : old.join(mode);
+        if (want == old)
+            return false;
+        if (tryGrant(tid, key, want))
+            return old == null;
+        waiting.put(tid, new Request(key, want));
+        try {
+            while (true) {
+                if (victims.remove(tid))
+                    throw new TransactionAbortedException();
+                if (tryGrant(tid, key, want))
+                    return old == null;
+                TransactionId victim = findDeadlockVictim(tid);
+                if (victim != null) {
+                    deadlocks++;
+                    victims.add(victim);
+                    notifyAll();
+                    continue;
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw new TransactionAbortedException();
+        } finally {
+            waiting.remove(tid);
+        }
+    }
+
+    /** Grant the lock if it is compatible with the locks held by others. */
+    private boolean tryGrant(TransactionId tid, Object key, Mode mode) {
+        HashMap<TransactionId, Mode> holders = locks.get(key);
+        if (holders == null) {
+            holders = new HashMap<TransactionId, Mode>();
+            locks.put(key, holders);
+        }
+        for (Map.Entry<TransactionId, Mode> h : holders.entrySet()) {
+            if (!h.getKey().equals(tid) && !h.getValue().isCompatible(mode))
+                return false;
+        }
+        holders.put(tid, mode);
+        ConcurrentHashMap<Object, Mode> keys = held.get(tid);
+        if (keys == null) {
+            keys = new ConcurrentHashMap<Object, Mode>();
+            held.put(tid, keys);
+        }
+        keys.put(key, mode);
+        return true;
+    }
+
+    /**
+     * Replace tid's page locks on a table by a table lock, if it can be
+     * granted without waiting.
+     */
+    private void escalate(TransactionId tid, TableKey table) {
+        Mode want = Mode.S;
+        ArrayList<PageId> pages = new ArrayList<PageId>();
+        for (Object key : held.get(tid).keySet()) {
+            if (key instanceof PageId && ((PageId) key).getTableId() == table.tableId) {
+                pages.add((PageId) key);
+                if (modeOf(tid, key) == Mode.X)
+                    want = Mode.X;
+            }
+        }
+        if (!tryGrant(tid, table, modeOf(tid, table).join(want)))
+            return;
+        escalations++;
+        for (PageId pid : pages)
+            unlock(tid, pid);
+        pageCounts.get(tid).remove(table.tableId);
+        notifyAll();
+    }
+
+    /** @return the transactions tid's pending request waits for */
+    private List<TransactionId> waitsFor(TransactionId tid) {
+        Request r = waiting.get(tid);
+        if (r == null || victims.contains(tid))
+            return Collections.emptyList();
+        // every holder may have released while tid has not woken yet
+        HashMap<TransactionId, Mode> holders = locks.get(r.key);
+        if (holders == null)
+            return Collections.emptyList();
+        ArrayList<TransactionId> blockers = new ArrayList<TransactionId>();
+        for (Map.Entry<TransactionId, Mode> h : holders.entrySet()) {
+            if (!h.getKey().equals(tid) && !h.getValue().isCompatible(r.mode))
+                blockers.add(h.getKey());
+        }
+        return blockers;
+    }
+
+    /**
+     * Search the wait-for graph for a cycle through tid.
+     *
+     * @return the youngest transaction on the cycle, or null if there is none
+     */
+    private TransactionId findDeadlockVictim(TransactionId tid) {
+        // depth-first search, keeping the path to the current transaction
+        ArrayDeque<TransactionId> path = new ArrayDeque<TransactionId>();
+        ArrayDeque<Iterator<TransactionId>> edges = new ArrayDeque<Iterator<TransactionId>>();
+        HashSet<TransactionId> visited = new HashSet<TransactionId>();
+        path.push(tid);
+        edges.push(waitsFor(tid).iterator());
+        visited.add(tid);
+        while (!path.isEmpty()) {
+            Iterator<TransactionId> it = edges.peek();
+            if (!it.hasNext()) {
+                path.pop();
+                edges.pop();
+                continue;
+            }
+            TransactionId next = it.next();
+            if (next.equals(tid)) {
+                TransactionId victim = tid;
+                for (TransactionId t : path) {
+                    if (t.getId() > victim.getId())
+                        victim = t;
+                }
+                return victim;
+            }
+            if (visited.add(next)) {
+                path.push(next);
+                edges.push(waitsFor(next).iterator());
+            }
+        }
+        return null;
+    }
+
+    /** Drop tid's lock on an object, without waking waiters. */
+    private void unlock(TransactionId tid, Object key) {
+        HashMap<TransactionId, Mode> holders = locks.get(key);
+        if (holders != null) {
+            holders.remove(tid);
+            if (holders.isEmpty())
+                locks.remove(key);
+        }
+        ConcurrentHashMap<Object, Mode> keys = held.get(tid);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty())
+                held.remove(tid);
+        }
+    }
+
+    /**
+     * Release a transaction's lock on a page, if it holds one. Locks on
+     * the page's table are kept.
+     */
+    public synchronized void release(TransactionId tid, PageId pid) {
+        if (modeOf(tid, pid) != null) {
+            unlock(tid, pid);
+            HashMap<Integer, Integer> counts = pageCounts.get(tid);
+            Integer n = counts.get(pid.getTableId());
+            if (n != null && n > 1)
+                counts.put(pid.getTableId(), n - 1);
+            else
+                counts.remove(pid.getTableId());
+        }
+        notifyAll();
+    }
+
+    /**
+     * Release every lock held by a transaction.
+     */
+    public synchronized void releaseAll(TransactionId tid) {
+        ConcurrentHashMap<Object, Mode> keys = held.get(tid);
+        if (keys != null) {
+            for (Object key : new ArrayList<Object>(keys.keySet()))
+                unlock(tid, key);
+        }
+        pageCounts.remove(tid);
+        victims.remove(tid);
+        notifyAll();
+    }
+
+    /** @return true if tid holds a lock allowing it to read pid */
+    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
+        if (modeOf(tid, pid) != null)
+            return true;
+        Mode tableMode = modeOf(tid, new TableKey(pid.getTableId()));
+        return tableMode == Mode.S || tableMode == Mode.SIX || tableMode == Mode.X;
+    }
+
+    /** @return true if tid holds a lock allowing it to write pid */
+    public synchronized boolean holdsExclusive(TransactionId tid, PageId pid) {
+        return modeOf(tid, pid) == Mode.X
+            || modeOf(tid, new TableKey(pid.getTableId())) == Mode.X;
+    }
+
+    /** @return the mode tid holds on a table, or null if it holds none */
+    public synchronized Mode getTableMode(TransactionId tid, int tableId) {
+        return modeOf(tid, new TableKey(tableId));
+    }
+
+    /** @return the number of tables and pages currently locked */
+    public synchronized int getNumLocks() {
+        return locks.size();
+    }
+
+    /** @return the number of deadlocks detected so far */
+    public synchronized long getDeadlocks() {
+        return deadlocks;
+    }
+
+    /** @return the number of successful lock escalations so far */
+    public synchronized long getEscalations() {
+        return escalations;
+    }
+}
@@ -3,6 +3,13 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.lang.reflect.*;
 
 /**
@@ -39,11 +46,15 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
+<li> Offsets in the log are positions in a single address space that
+is stored in several files (see SegmentedLog).  The first long integer
+of the log, kept in the log file itself, represents the offset of the
 last written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> All additional data in the log consists of log records, kept in
+fixed-size segment files next to the log file.  Log records are variable
+length, and may span two segments.  Offsets never change; truncating the
+log deletes the oldest segments.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
@@ -51,8 +62,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,11 +72,18 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li>DELTA records log an update of a HeapPage, BTreeLeafPage or
+BTreeInternalPage compactly, as the byte ranges of the page that
+changed with their before and after contents.  They are written
+instead of UPDATE records whenever they are smaller; see PageDelta.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  This is followed by the dirty page table: an
+integer count of dirty pages, and for each page its id (see writePageId) and
+a long integer recLSN, the offset from which recovery must redo its updates.
 
 </ul>
 
@@ -74,7 +92,7 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private SegmentedLog log;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,17 +100,43 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
+    static final byte HEAP_PAGE_ID = 0;
+    static final byte BTREE_PAGE_ID = 1;
     final static int LONG_SIZE = 8;
 
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
+    int totalForces = 0; //protected by this
+    volatile int forcedRecords = 0; // totalRecords at the last force //written under this
+
+    /** Default longest time, in microseconds, that a group commit waits
+        for more commits to join its batch. */
+    public static final long DEFAULT_GROUP_COMMIT_WAIT_MICROS = 1000;
+    /** Default number of commits after which a group commit batch is
+        forced without waiting any longer. */
+    public static final int DEFAULT_GROUP_COMMIT_BATCH = 32;
+
+    /** Default size of the segment files the log is stored in. */
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    // group commit state, all protected by this
+    private boolean groupCommit = false;
+    private long groupCommitWaitNanos;
+    private int groupCommitBatch;
+    private Thread flusher = null;
+    private long lastCommit = 0;   // number of commit records written
+    private long forcedCommit = 0; // number of commit records known to be on disk
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    private int recoveryThreads = Runtime.getRuntime().availableProcessors(); //protected by this
+    private final LinkedHashMap<String,Long> recoveryMillis = new LinkedHashMap<String,Long>(); //protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -105,8 +149,20 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor.
+        Initialize and back the log file with the specified file, storing
+        log records in segment files of the given size next to it.
+
+        @param f The log file's name
+        @param segmentSize The size of each segment file in bytes
+        @see SegmentedLog
+    */
+    public LogFile(File f, long segmentSize) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        log = new SegmentedLog(f, segmentSize);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -127,17 +183,144 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            log.clear();
+            log.writeLong(NO_CHECKPOINT_ID);
+            log.seek(log.length());
+            currentOffset = log.getFilePointer();
         }
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /**
+     * @return an offset no later than that of the next record appended to
+     *         the log
+     */
+    public synchronized long getEndOffset() {
+        return recoveryUndecided ? 0 : currentOffset;
+    }
+
+    /** Set the number of threads recover() replays pages on.
+        @param threads the number of redo and undo workers
+    */
+    public synchronized void setRecoveryThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("bad number of recovery threads " + threads);
+        recoveryThreads = threads;
+    }
+
+    /** @return the wall-clock time in milliseconds that each phase of the
+        last recover() took, by phase name ("analysis", "redo" and "undo").
+        Redo and undo overlap, so their times may add up to more than the
+        total.
+    */
+    public synchronized Map<String,Long> getRecoveryMillis() {
+        return new LinkedHashMap<String,Long>(recoveryMillis);
+    }
+
+    /** @return the number of times the log has been forced to disk */
+    public synchronized int getTotalForces() {
+        return totalForces;
+    }
+
+    /** Turn on group commit with the default wait time and batch size.
+        @see #enableGroupCommit(long, int)
+    */
+    public void enableGroupCommit() {
+        enableGroupCommit(DEFAULT_GROUP_COMMIT_WAIT_MICROS, DEFAULT_GROUP_COMMIT_BATCH);
+    }
+
+    /** Turn on group commit. Rather than forcing the log itself,
+        logCommit() then writes its COMMIT record and waits for a
+        background flusher thread, which forces the log once for all the
+        commits that arrived since its last force. A batch is forced as
+        soon as it holds maxBatch commits, or maxWaitMicros after its
+        first commit arrived, whichever comes first.
+
+        @param maxWaitMicros the longest time a commit waits for others to
+          join its batch
+        @param maxBatch the largest number of commits in one batch
+    */
+    public synchronized void enableGroupCommit(long maxWaitMicros, int maxBatch) {
+        if (maxWaitMicros < 0 || maxBatch < 1)
+            throw new IllegalArgumentException("bad group commit settings: wait "
+                                               + maxWaitMicros + "us, batch " + maxBatch);
+        groupCommitWaitNanos = maxWaitMicros * 1000;
+        groupCommitBatch = maxBatch;
+        groupCommit = true;
+        if (flusher == null) {
+            flusher = new Thread("simpledb-group-commit") {
+                public void run() {
+                    flushCommits();
+                }
+            };
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        notifyAll();
+    }
+
+    /** Turn off group commit; every logCommit() forces the log again. */
+    public synchronized void disableGroupCommit() {
+        groupCommit = false;
+        flusher = null;
+        notifyAll();
+    }
+
+    /** @return true if group commit is enabled */
+    public synchronized boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /** Body of the group commit flusher thread: repeatedly wait for a
+        batch of commits to gather, then force the log for all of them.
+        The force itself happens outside the monitor, so that the next
+        batch can append its records meanwhile.
+    */
+    private void flushCommits() {
+        Thread me = Thread.currentThread();
+        while (true) {
+            long target;
+            int records;
+            synchronized (this) {
+                try {
+                    while (flusher == me && forcedCommit == lastCommit)
+                        wait();
+                    long deadline = System.nanoTime() + groupCommitWaitNanos;
+                    long left;
+                    while (flusher == me && lastCommit - forcedCommit < groupCommitBatch
+                           && (left = deadline - System.nanoTime()) > 0)
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                } catch (InterruptedException e) {
+                    disableGroupCommit();
+                }
+                if (flusher != me)
+                    return;
+                target = lastCommit;
+                records = totalRecords;
+            }
+            try {
+                log.force();
+            } catch (IOException e) {
+                synchronized (this) {
+                    // committers fall back to forcing, and see the error themselves
+                    e.printStackTrace();
+                    disableGroupCommit();
+                }
+                continue;
+            }
+            synchronized (this) {
+                totalForces++;
+                if (target > forcedCommit)
+                    forcedCommit = target;
+                if (records > forcedRecords)
+                    forcedRecords = records;
+                notifyAll();
+            }
+        }
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -158,10 +341,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                log.writeInt(ABORT_RECORD);
+                log.writeLong(tid.getId());
+                log.writeLong(currentOffset);
+                currentOffset = log.getFilePointer();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,20 +352,37 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk. With group commit enabled, the
+        force is shared with concurrent commits, and this method returns
+        once the flusher has forced a batch containing the record.
 
         @param tid The committing transaction.
+        @see #enableGroupCommit(long, int)
     */
     public synchronized void logCommit(TransactionId tid) throws IOException {
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        log.writeInt(COMMIT_RECORD);
+        log.writeLong(tid.getId());
+        log.writeLong(currentOffset);
+        currentOffset = log.getFilePointer();
+        long ticket = ++lastCommit;
+        notifyAll(); // wake the flusher
+        while (forcedCommit < ticket) {
+            if (!groupCommit) {
+                force();
+                break;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                force();
+                break;
+            }
+        }
         tidToFirstLogRecord.remove(tid.getId());
     }
 
@@ -191,14 +391,16 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the offset of the record in the log
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + log.getFilePointer());
         preAppend();
+        long start = log.getFilePointer();
         /* update record conists of
 
            record type
@@ -206,19 +408,30 @@ public class LogFile {
            before page data (see writePageData)
            after page data
            start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+           a delta record replaces the two images with the changed
+           ranges of the page (see PageDelta.write)
+        */
+        PageDelta delta = PageDelta.compute(before, after);
+        if (delta != null) {
+            log.writeInt(DELTA_RECORD);
+            log.writeLong(tid.getId());
+            delta.write(log);
+        } else {
+            log.writeInt(UPDATE_RECORD);
+            log.writeLong(tid.getId());
+
+            writePageData(log,before);
+            writePageData(log,after);
+        }
+        log.writeLong(currentOffset);
+        currentOffset = log.getFilePointer();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return start;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput log, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -233,43 +446,43 @@ public class LogFile {
         String pageClassName = p.getClass().getName();
         String idClassName = pid.getClass().getName();
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        log.writeUTF(pageClassName);
+        log.writeUTF(idClassName);
 
-        raf.writeInt(pageInfo.length);
+        log.writeInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+            log.writeInt(pageInfo[i]);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        log.writeInt(pageData.length);
+        log.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    Page readPageData(DataInput log) throws IOException {
         PageId pid;
         Page newPage = null;
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        String pageClassName = log.readUTF();
+        String idClassName = log.readUTF();
 
         try {
             Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
             Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
+            int numIdArgs = log.readInt();
             Object idArgs[] = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
+                idArgs[i] = new Integer(log.readInt());
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
             Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+            int pageSize = log.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            log.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
@@ -307,150 +520,117 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        log.writeInt(BEGIN_RECORD);
+        log.writeLong(tid.getId());
+        log.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = log.getFilePointer();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
+        Map<PageId, Long> dirtyPages;
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+                //Debug.log("CHECKPOINT, offset = " + log.getFilePointer());
                 preAppend();
                 long startCpOffset, endCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                startCpOffset = log.getFilePointer();
+                // fuzzy checkpoint: record the dirty pages rather than
+                // flushing them while every transaction waits
+                dirtyPages = Database.getBufferPool().getDirtyPages(startCpOffset);
+                log.writeInt(CHECKPOINT_RECORD);
+                log.writeLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
+                log.writeInt(keys.size());
                 while (els.hasNext()) {
                     Long key = els.next();
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    log.writeLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    log.writeLong(tidToFirstLogRecord.get(key));
+                }
+
+                //write the dirty page table
+                log.writeInt(dirtyPages.size());
+                for (Map.Entry<PageId, Long> e : dirtyPages.entrySet()) {
+                    writePageId(log, e.getKey());
+                    log.writeLong(e.getValue());
                 }
 
                 //once the CP is written, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                endCpOffset = log.getFilePointer();
+                log.seek(0);
+                log.writeLong(startCpOffset);
+                log.seek(endCpOffset);
+                log.writeLong(currentOffset);
+                currentOffset = log.getFilePointer();
+                force();
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
 
+        // write the dirty pages out in the background, so the next
+        // checkpoint can start redo later in the log
+        Database.getBufferPool().flushPagesInBackground(dirtyPages.keySet());
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  The log is kept from the first record that recovery
+        may still need (see the last checkpoint), and the whole segments
+        before that record are deleted; nothing is copied and no offsets
+        change. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        log.seek(0);
+        long cpLoc = log.readLong();
 
         long minLogRecord = cpLoc;
 
         if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
+            log.seek(cpLoc);
+            int cpType = log.readInt();
             @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+            long cpTid = log.readLong();
 
             if (cpType != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
+            int numOutstanding = log.readInt();
 
             for (int i = 0; i < numOutstanding; i++) {
                 @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
+                long tid = log.readLong();
+                long firstLogRecord = log.readLong();
                 if (firstLogRecord < minLogRecord) {
                     minLogRecord = firstLogRecord;
                 }
             }
-        }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
 
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
+            int numDirty = log.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                readPageId(log);
+                long recLSN = log.readLong();
+                if (recLSN < minLogRecord) {
+                    minLogRecord = recLSN;
                 }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
             }
-        }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+            // we can truncate everything before minLogRecord
+            int deleted = log.truncateBefore(minLogRecord);
+            Debug.log("TRUNCATING LOG; DELETED " + deleted + " SEGMENTS, NEW START : " + log.firstLSN());
+        }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+        log.seek(currentOffset);
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -467,21 +647,238 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("no live transaction " + tid.getId());
+                undoUpdates(Collections.singleton(tid.getId()), first, new PageReplayer(0));
+                log.seek(currentOffset);
             }
         }
     }
 
+    /** A change to one page, to be redone or undone during recovery. */
+    private interface PageChange {
+        /** @return the id of the changed page */
+        PageId pageId();
+        /** @return the page as it is once the change has been applied */
+        Page apply() throws IOException;
+    }
+
+    /** Read the page change logged by an UPDATE or DELTA record, with
+        log positioned just after the record's transaction id.  log is
+        left at the end of the record's body.
+
+        @param redo true for the change to the after image, false for the
+          change back to the before image.  For a DELTA record, the image
+          is computed from the image of the page on disk when the change
+          is applied.
+    */
+    private PageChange readUpdate(int type, final boolean redo) throws IOException {
+        if (type == DELTA_RECORD) {
+            final PageDelta delta = PageDelta.read(log);
+            return new PageChange() {
+                public PageId pageId() {
+                    return delta.getPageId();
+                }
+
+                public Page apply() {
+                    return delta.applyToDisk(redo);
+                }
+            };
+        }
+        Page before = readPageData(log);
+        Page after = readPageData(log);
+        final Page image = redo ? after : before;
+        return new PageChange() {
+            public PageId pageId() {
+                return image.getId();
+            }
+
+            public Page apply() {
+                return image;
+            }
+        };
+    }
+
+    /** Applies page changes on a pool of worker threads.  All changes to
+        a page go to the same worker, which applies them in the order they
+        were submitted, so changes to one page stay in log order while
+        different pages are replayed in parallel. */
+    private class PageReplayer {
+        private final ExecutorService[] workers;
+        private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        /** @param threads the number of workers; 0 applies changes in
+            the submitting thread */
+        PageReplayer(int threads) {
+            workers = new ExecutorService[threads];
+            for (int i = 0; i < threads; i++) {
+                final String name = "simpledb-recovery-" + i;
+                workers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, name);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+
+        private ExecutorService workerFor(PageId pid) {
+            int h = 31 * pid.getTableId() + pid.getPageNumber();
+            return workers[(h & 0x7fffffff) % workers.length];
+        }
+
+        /** Apply a change after every change to its page submitted before. */
+        void submit(final PageChange change) throws IOException {
+            if (workers.length == 0) {
+                installPage(change.apply());
+                return;
+            }
+            workerFor(change.pageId()).execute(new Runnable() {
+                public void run() {
+                    if (failure.get() != null)
+                        return;
+                    try {
+                        installPage(change.apply());
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+
+        /** Run r once every worker has applied the changes submitted
+            before this call. */
+        void whenApplied(final Runnable r) {
+            final AtomicInteger pending = new AtomicInteger(workers.length);
+            if (workers.length == 0)
+                r.run();
+            for (ExecutorService worker : workers) {
+                worker.execute(new Runnable() {
+                    public void run() {
+                        if (pending.decrementAndGet() == 0)
+                            r.run();
+                    }
+                });
+            }
+        }
+
+        /** Wait for all submitted changes to be applied, and stop the
+            workers.
+            @throws IOException if any change failed
+        */
+        void finish() throws IOException {
+            for (ExecutorService worker : workers)
+                worker.shutdown();
+            try {
+                for (ExecutorService worker : workers)
+                    worker.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted during recovery");
+            }
+            Exception e = failure.get();
+            if (e instanceof IOException)
+                throw (IOException) e;
+            if (e != null)
+                throw new IOException("recovery failed", e);
+        }
+    }
+
+    /** Skip the body of a record of the given type, with log positioned
+        just after the record's transaction id. */
+    private void skipRecord(int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            readPageData(log);
+            readPageData(log);
+            break;
+        case DELTA_RECORD:
+            PageDelta.read(log);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = log.readInt();
+            log.skipBytes(numXactions * 2 * LONG_SIZE);
+            int numDirty = log.readInt();
+            while (numDirty-- > 0) {
+                readPageId(log);
+                log.readLong();
+            }
+            break;
+        }
+    }
+
+    /** Write the id of a HeapPage or B+ tree page: a byte telling which,
+        followed by the integers of PageId.serialize(). */
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        out.writeByte(pid instanceof BTreePageId ? BTREE_PAGE_ID : HEAP_PAGE_ID);
+        for (int x : pid.serialize())
+            out.writeInt(x);
+    }
+
+    /** Read a page id written by writePageId. */
+    static PageId readPageId(DataInput in) throws IOException {
+        byte kind = in.readByte();
+        if (kind == BTREE_PAGE_ID)
+            return new BTreePageId(in.readInt(), in.readInt(), in.readInt());
+        else if (kind == HEAP_PAGE_ID)
+            return new HeapPageId(in.readInt(), in.readInt());
+        throw new IOException("unknown page id class " + kind + " in log record");
+    }
+
+    /** Write a page restored from the log to disk, and drop any cached
+        copy of it from the BufferPool. */
+    private void installPage(Page page) throws IOException {
+        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+        Database.getBufferPool().discardPage(page.getId());
+    }
+
+    /** Undo, newest first, the updates logged by the given transactions
+        at or after the given offset.  Deltas must be undone in reverse
+        order, since each one is applied to the page image the next
+        newer one left behind.
+    */
+    private void undoUpdates(Set<Long> tids, long from, PageReplayer replayer)
+        throws IOException {
+        ArrayList<Long> updates = new ArrayList<Long>(); // offsets of update bodies
+        ArrayList<Integer> types = new ArrayList<Integer>();
+        log.seek(from);
+        while (log.getFilePointer() < log.length()) {
+            int type = log.readInt();
+            long record_tid = log.readLong();
+            if ((type == UPDATE_RECORD || type == DELTA_RECORD) && tids.contains(record_tid)) {
+                updates.add(log.getFilePointer());
+                types.add(type);
+            }
+            skipRecord(type);
+            log.readLong();
+        }
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            log.seek(updates.get(i));
+            replayer.submit(readUpdate(types.get(i), false));
+        }
+        replayer.finish();
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
-        try {
-            logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
-        } catch (IOException e) {
-            System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
-            e.printStackTrace();
+    public void shutdown() {
+        synchronized (Database.getBufferPool()) {
+            synchronized (this) {
+                disableGroupCommit();
+                try {
+                    // checkpoints no longer flush the pool themselves
+                    Database.getBufferPool().flushAllPages();
+                    logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+                    log.close();
+                } catch (IOException e) {
+                    System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
+                    e.printStackTrace();
+                }
+            }
         }
     }
 
@@ -494,6 +891,117 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                recoveryMillis.clear();
+                long analysisStart = System.currentTimeMillis();
+                if (log.length() < LONG_SIZE) {
+                    log.clear();
+                    log.writeLong(NO_CHECKPOINT_ID);
+                }
+                log.seek(0);
+                long cpLoc = log.readLong();
+
+                // transactions live at the checkpoint, and their first
+                // record; dirty pages at the checkpoint, and their recLSN
+                HashMap<Long,Long> losers = new HashMap<Long,Long>();
+                HashMap<PageId,Long> dirtyPages = new HashMap<PageId,Long>();
+                long redoStart = LONG_SIZE;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    log.seek(cpLoc);
+                    log.readInt();
+                    log.readLong();
+                    int numXactions = log.readInt();
+                    while (numXactions-- > 0) {
+                        long xid = log.readLong();
+                        losers.put(xid, log.readLong());
+                    }
+                    int numDirty = log.readInt();
+                    while (numDirty-- > 0) {
+                        PageId pid = readPageId(log);
+                        dirtyPages.put(pid, log.readLong());
+                    }
+                    log.readLong();
+                    redoStart = log.getFilePointer();
+                    // the checkpoint did not flush anything: pages that
+                    // were dirty may miss updates logged since their recLSN
+                    for (long recLSN : dirtyPages.values())
+                        redoStart = Math.min(redoStart, recLSN);
+                }
+
+                // analysis: find out how every transaction ended.  Aborted
+                // transactions were rolled back before their ABORT record
+                // was forced, so they are neither redone nor undone.
+                HashSet<Long> aborted = new HashSet<Long>();
+                log.seek(redoStart);
+                while (log.getFilePointer() < log.length()) {
+                    long start = log.getFilePointer();
+                    int type = log.readInt();
+                    long record_tid = log.readLong();
+                    if (type == BEGIN_RECORD)
+                        losers.put(record_tid, start);
+                    else if (type == COMMIT_RECORD)
+                        losers.remove(record_tid);
+                    else if (type == ABORT_RECORD) {
+                        losers.remove(record_tid);
+                        aborted.add(record_tid);
+                    }
+                    skipRecord(type);
+                    log.readLong();
+                }
+                recoveryMillis.put("analysis", System.currentTimeMillis() - analysisStart);
+
+                // redo: repeat history from the smallest recLSN.  Before
+                // the checkpoint, only updates to pages that were dirty at
+                // the checkpoint, at or after their recLSN, may be missing
+                // from disk.  This thread reads the log, and the pages are
+                // replayed in parallel.
+                final long redoBegin = System.currentTimeMillis();
+                final AtomicLong redoEnd = new AtomicLong();
+                PageReplayer replayer = new PageReplayer(recoveryThreads);
+                log.seek(redoStart);
+                while (log.getFilePointer() < log.length()) {
+                    long start = log.getFilePointer();
+                    int type = log.readInt();
+                    long record_tid = log.readLong();
+                    if ((type == UPDATE_RECORD || type == DELTA_RECORD)
+                        && !aborted.contains(record_tid)) {
+                        PageChange change = readUpdate(type, true);
+                        Long recLSN = dirtyPages.get(change.pageId());
+                        if (cpLoc == NO_CHECKPOINT_ID || start > cpLoc
+                            || (recLSN != null && start >= recLSN)) {
+                            replayer.submit(change);
+                        }
+                    } else {
+                        skipRecord(type);
+                    }
+                    log.readLong();
+                }
+                replayer.whenApplied(new Runnable() {
+                    public void run() {
+                        redoEnd.set(System.currentTimeMillis());
+                    }
+                });
+
+                // undo: roll back the transactions that never finished,
+                // and log their end so a later recovery leaves them alone.
+                // Each page is undone by the worker that redid it, once
+                // its redo is done, so undo overlaps the redo of other
+                // pages.
+                long undoBegin = System.currentTimeMillis();
+                long undoFrom = losers.isEmpty() ? log.length() : Collections.min(losers.values());
+                undoUpdates(losers.keySet(), undoFrom, replayer);
+                recoveryMillis.put("redo", redoEnd.get() - redoBegin);
+                recoveryMillis.put("undo", System.currentTimeMillis() - undoBegin);
+                Debug.log("RECOVERY TIMES (ms): " + recoveryMillis);
+                currentOffset = log.length();
+                log.seek(currentOffset);
+                for (Long xid : losers.keySet()) {
+                    log.writeInt(ABORT_RECORD);
+                    log.writeLong(xid);
+                    log.writeLong(currentOffset);
+                    currentOffset = log.getFilePointer();
+                }
+                tidToFirstLogRecord.clear();
+                force();
             }
          }
     }
@@ -504,7 +1012,27 @@ public class LogFile {
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        log.force();
+        totalForces++;
+        // every record written so far is on disk now
+        forcedCommit = lastCommit;
+        forcedRecords = totalRecords;
+        notifyAll();
+    }
+
+    /** Force the log to disk, unless its first records records are
+        already there; for instance because a COMMIT record written after
+        them has been forced. Takes no lock in that case, so it may be
+        called while holding locks that rollback() needs.
+        @param records a value of getTotalRecords() that must be on disk
+    */
+    public void forceThrough(int records) throws IOException {
+        if (forcedRecords >= records)
+            return;
+        synchronized (this) {
+            if (forcedRecords < records)
+                force();
+        }
     }
 
 }
@@ -35,6 +35,7 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -81,6 +82,15 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** @return true if the plan filters the table with the given alias */
+    boolean hasFilter(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                return true;
+        }
+        return false;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -216,6 +226,19 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Limit the result to its first n tuples in the ORDER BY order, which
+        is planned as a {@link TopN} rather than a full sort.
+        @param n the number of tuples to return
+        @throws ParsingException if the plan has no ORDER BY or n is negative
+    */
+    public void setLimit(int n) throws ParsingException {
+        if (!hasOrderBy)
+            throw new ParsingException("LIMIT is only supported after ORDER BY.");
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative.");
+        limit = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -382,7 +405,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             OpIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = jo.instantiateJoin(t,lj,plan1,plan2,statsMap);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -475,7 +498,11 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int field = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(field, oByAsc, limit, node);
+            else
+                node = new OrderBy(field, oByAsc, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * MappedFileIO is the page I/O layer shared by HeapFile and BTreeFile. It
+ * keeps a single FileChannel open for the lifetime of the file and serves
+ * reads from memory mappings of the file, so that a page miss costs a
+ * memory copy out of the OS page cache rather than a seek and a read
+ * system call.
+ * <p>
+ * The file is mapped in fixed-size chunks. A chunk is mapped the first time
+ * it is read and covers as much of the file as existed at that time; when
+ * the file grows past the end of a partially mapped chunk, that chunk is
+ * remapped. Writes inside the mapped region go through the mapping, and
+ * writes past it (i.e. appends) go through the channel.
+ * <p>
+ * Reads and writes copy through private views of the current mappings and
+ * take no lock; only mapping a chunk and appending to the file are
+ * serialized.
+ *
+ * @Threadsafe, except that the file may not be used while or after it is
+ *   closed
+ */
+public class MappedFileIO {
+
+    /** Default size of each mapped region of the file. */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private final int chunkSize;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    /** The mapping of each chunk, or null; replaced, never changed, when a chunk is (re)mapped. */
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    /**
+     * Open the specified file for reading and writing.
+     *
+     * @param f the file to open; it is created if it does not exist
+     */
+    public MappedFileIO(File f) throws IOException {
+        this(f, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Open the specified file for reading and writing, mapping it in chunks
+     * of the given size.
+     *
+     * @param f the file to open; it is created if it does not exist
+     * @param chunkSize the size of each mapped region of the file
+     */
+    public MappedFileIO(File f, int chunkSize) throws IOException {
+        this.chunkSize = chunkSize;
+        this.file = f;
+        this.raf = new RandomAccessFile(f, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    /** @return the file underlying this object */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the current length of the file in bytes */
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Read data.length bytes starting at the given file offset.
+     *
+     * @param offset the offset in the file to read from
+     * @param data the buffer to fill
+     * @throws IllegalArgumentException if the requested bytes are past the
+     *   end of the file
+     */
+    public void read(long offset, byte[] data) throws IOException {
+        if (offset < 0 || offset + data.length > channel.size())
+            throw new IllegalArgumentException("Read past end of file " + file);
+        int done = 0;
+        while (done < data.length) {
+            long pos = offset + done;
+            MappedByteBuffer chunk = chunkFor(pos, data.length - done);
+            int start = (int) (pos % chunkSize);
+            int len = Math.min(data.length - done, chunk.capacity() - start);
+            ByteBuffer view = chunk.duplicate();
+            view.position(start);
+            view.get(data, done, len);
+            done += len;
+        }
+    }
+
+    /**
+     * Write data at the given file offset, extending the file if needed.
+     *
+     * @param offset the offset in the file to write to
+     * @param data the bytes to write
+     */
+    public void write(long offset, byte[] data) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        int done = 0;
+        while (done < data.length) {
+            long pos = offset + done;
+            int chunkNo = (int) (pos / chunkSize);
+            int start = (int) (pos % chunkSize);
+            MappedByteBuffer chunk = chunkNo < mapped.length ? mapped[chunkNo] : null;
+            if (chunk == null || start >= chunk.capacity()) {
+                // not mapped yet: write the rest through the channel
+                ByteBuffer src = ByteBuffer.wrap(data, done, data.length - done);
+                while (src.hasRemaining())
+                    channel.write(src, offset + src.position());
+                return;
+            }
+            int len = Math.min(data.length - done, chunk.capacity() - start);
+            ByteBuffer view = chunk.duplicate();
+            view.position(start);
+            view.put(data, done, len);
+            done += len;
+        }
+    }
+
+    /**
+     * Append data to the end of the file.
+     *
+     * @param data the bytes to append
+     * @return the offset at which the data was written
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long offset = channel.size();
+        write(offset, data);
+        return offset;
+    }
+
+    /** Force all writes to this file to disk. */
+    public void force() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            if (chunk != null)
+                chunk.force();
+        }
+        channel.force(true);
+    }
+
+    /** Unmap and close the file; the object may not be used afterwards. */
+    public synchronized void close() throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        chunks = new MappedByteBuffer[0];
+        for (MappedByteBuffer chunk : mapped) {
+            if (chunk != null)
+                unmap(chunk);
+        }
+        raf.close();
+    }
+
+    /**
+     * Release a mapping now rather than when it is garbage collected, which
+     * would keep the file's pages mapped, and on some systems the file
+     * itself undeletable, until then.
+     */
+    private static void unmap(MappedByteBuffer chunk) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            java.lang.reflect.Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class)
+                    .invoke(theUnsafe.get(null), chunk);
+        } catch (ReflectiveOperationException e) {
+            // no way to unmap on this JVM: the garbage collector unmaps it
+        } catch (SecurityException e) {
+            // ditto
+        }
+    }
+
+    /**
+     * Return the mapping of the chunk containing pos, (re)mapping it if it
+     * does not yet cover the next len bytes that exist in the file.
+     */
+    private MappedByteBuffer chunkFor(long pos, int len) throws IOException {
+        int chunkNo = (int) (pos / chunkSize);
+        int start = (int) (pos % chunkSize);
+        MappedByteBuffer[] mapped = chunks;
+        MappedByteBuffer chunk = chunkNo < mapped.length ? mapped[chunkNo] : null;
+        if (chunk != null && start + Math.min(len, chunkSize - start) <= chunk.capacity())
+            return chunk;
+        return remap(chunkNo, start + Math.min(len, chunkSize - start));
+    }
+
+    /**
+     * Map chunk chunkNo, unless another thread has already mapped at least
+     * the first end bytes of it.
+     */
+    private synchronized MappedByteBuffer remap(int chunkNo, int end) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        MappedByteBuffer chunk = chunkNo < mapped.length ? mapped[chunkNo] : null;
+        if (chunk != null && end <= chunk.capacity())
+            return chunk;
+        long chunkStart = (long) chunkNo * chunkSize;
+        long size = Math.min(chunkSize, channel.size() - chunkStart);
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, size);
+        mapped = Arrays.copyOf(mapped, Math.max(mapped.length, chunkNo + 1));
+        mapped[chunkNo] = chunk;
+        chunks = mapped;
+        // the mapping it replaces may still be in use by a reader, so it
+        // is left to the garbage collector
+        return chunk;
+    }
+}
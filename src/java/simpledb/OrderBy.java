@@ -3,18 +3,20 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. It sorts
+ * its input with an {@link ExternalSort}, so an input larger than the
+ * memory budget is sorted in runs on disk and merged.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
+    private final long memory;
+    private transient ExternalSort sort;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -25,13 +27,31 @@ public class OrderBy extends Operator {
      *            true if the sort order is ascending.
      * @param child
      *            the tuples to sort.
+     * @param memoryBytes
+     *            the memory budget of the sort, see {@link ExternalSort}.
      */
-    public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, long memoryBytes) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memory = memoryBytes;
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, with the
+     * default memory budget.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, ExternalSort.DEFAULT_MEMORY);
     }
     
     public boolean isASC()
@@ -56,21 +76,22 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        // read all the tuples and sort them, on disk if they do not fit
+        sort = new ExternalSort(td, new TupleComparator(orderByField, asc), memory);
+        sort.sort(child);
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        if (sort != null)
+            sort.close();
+        sort = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        sort.rewind();
     }
 
     /**
@@ -82,10 +103,7 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+        return sort == null ? null : sort.next();
     }
 
     @Override
@@ -99,25 +117,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PageDelta is the payload of a DELTA_RECORD in the log: the byte ranges of
+ * a page that an update changed, with their contents before and after the
+ * update. It is used instead of full before and after images for HeapPage,
+ * BTreeLeafPage and BTreeInternalPage, whose updates touch only a header
+ * bit, a slot and perhaps a few pointers, so that logging a one-tuple insert
+ * costs tens of bytes rather than two pages.
+ * <p>
+ * A delta is applied to the current on-disk image of its page: redo() puts
+ * the after bytes of every range in place, and undo() the before bytes.
+ * Ranges closer together than a few bytes are merged, since each range costs
+ * eight bytes of framing.
+ *
+ * @see LogFile
+ */
+class PageDelta {
+
+    /** Changed bytes at most this far apart are logged as one range. */
+    static final int MERGE_GAP = 8;
+
+    private final PageId pid;
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(PageId pid, int[] offsets, byte[][] before, byte[][] after) {
+        this.pid = pid;
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Compute the delta between two images of a page.
+     *
+     * @param before the image of the page before the update
+     * @param after the image of the page after the update
+     * @return the delta, or null if the page type is not logged as deltas
+     *   or the delta would not be smaller than a full page image
+     */
+    static PageDelta compute(Page before, Page after) {
+        if (!(after instanceof HeapPage || after instanceof BTreeLeafPage
+              || after instanceof BTreeInternalPage))
+            return null;
+        return compute(after.getId(), before.getPageData(), after.getPageData());
+    }
+
+    /**
+     * Compute the delta between two images of the page with the given id.
+     *
+     * @return the delta, or null if it would not be smaller than a full
+     *   page image
+     */
+    static PageDelta compute(PageId pid, byte[] before, byte[] after) {
+        if (before.length != after.length)
+            return null;
+        ArrayList<int[]> ranges = new ArrayList<int[]>();
+        int size = 0;
+        int i = 0;
+        while (i < after.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1; // one past the last differing byte
+            for (int j = end; j < after.length && j < end + MERGE_GAP; j++) {
+                if (before[j] != after[j])
+                    end = j + 1;
+            }
+            ranges.add(new int[] { start, end });
+            size += 2 * LogFile.INT_SIZE + 2 * (end - start);
+            if (size >= after.length)
+                return null;
+            i = end;
+        }
+        int[] offsets = new int[ranges.size()];
+        byte[][] b = new byte[ranges.size()][];
+        byte[][] a = new byte[ranges.size()][];
+        for (int r = 0; r < offsets.length; r++) {
+            int start = ranges.get(r)[0], end = ranges.get(r)[1];
+            offsets[r] = start;
+            b[r] = Arrays.copyOfRange(before, start, end);
+            a[r] = Arrays.copyOfRange(after, start, end);
+        }
+        return new PageDelta(pid, offsets, b, a);
+    }
+
+    /** @return the id of the page this delta applies to */
+    PageId getPageId() {
+        return pid;
+    }
+
+    /** @return the number of changed byte ranges */
+    int numRanges() {
+        return offsets.length;
+    }
+
+    /**
+     * Apply the after bytes of this delta to a page image.
+     *
+     * @param data the image to update in place
+     * @return data
+     */
+    byte[] redo(byte[] data) {
+        return apply(data, after);
+    }
+
+    /**
+     * Apply the before bytes of this delta to a page image.
+     *
+     * @param data the image to update in place
+     * @return data
+     */
+    byte[] undo(byte[] data) {
+        return apply(data, before);
+    }
+
+    private byte[] apply(byte[] data, byte[][] images) {
+        for (int r = 0; r < offsets.length; r++)
+            System.arraycopy(images[r], 0, data, offsets[r], images[r].length);
+        return data;
+    }
+
+    /**
+     * Apply this delta to the current image of its page on disk, and
+     * return the resulting page. The page is not written back.
+     *
+     * @param redo true to apply the after bytes, false for the before bytes
+     */
+    Page applyToDisk(boolean redo) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        byte[] data;
+        try {
+            data = file.readPage(pid).getPageData();
+        } catch (IllegalArgumentException e) {
+            // the page was never written out: start from an empty page
+            data = new byte[BufferPool.getPageSize()];
+        }
+        return file.parsePage(pid, redo ? redo(data) : undo(data));
+    }
+
+    /**
+     * Serialize this delta. The format is the page id (see
+     * {@link LogFile#writePageId}), the number of ranges, and for each range
+     * its offset, its length, and its before and after bytes.
+     */
+    void write(DataOutput out) throws IOException {
+        LogFile.writePageId(out, pid);
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(after[r].length);
+            out.write(before[r]);
+            out.write(after[r]);
+        }
+    }
+
+    /**
+     * Read a delta written by {@link #write}.
+     */
+    static PageDelta read(DataInput in) throws IOException {
+        PageId pid = LogFile.readPageId(in);
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int len = in.readInt();
+            before[r] = new byte[len];
+            after[r] = new byte[len];
+            in.readFully(before[r]);
+            in.readFully(after[r]);
+        }
+        return new PageDelta(pid, offsets, before, after);
+    }
+}
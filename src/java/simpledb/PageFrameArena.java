@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PageFrameArena is an off-heap second-level page cache for the BufferPool.
+ * It is one large direct ByteBuffer split into frames of
+ * {@link BufferPool#getPageSize()} bytes, each holding the raw bytes of a
+ * clean page.
+ * <p>
+ * The arena is exclusive with the BufferPool's page table: when the pool
+ * evicts a clean page it stores the page's bytes here, and when the pool
+ * misses on a page that is in the arena it takes the bytes back out and
+ * re-parses them with {@link DbFile#parsePage} instead of reading the disk.
+ * Pages therefore only exist as parsed objects on the Java heap while they
+ * are resident in the page table, and the arena can be made much larger
+ * than the heap could hold in parsed pages without adding to GC work.
+ *
+ * @Threadsafe
+ */
+public class PageFrameArena {
+
+    private final ByteBuffer frames;
+    private final int frameSize;
+    private final int numFrames;
+    private final int[] lengths;
+    private final HashMap<PageId, Integer> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private final ReplacementPolicy policy;
+
+    /**
+     * Allocate an arena of numFrames page-sized frames.
+     *
+     * @param numFrames the number of pages the arena can hold
+     */
+    public PageFrameArena(int numFrames) {
+        this.frameSize = BufferPool.getPageSize();
+        this.numFrames = numFrames;
+        if ((long) numFrames * frameSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("arena of " + numFrames
+                    + " frames exceeds the maximum direct buffer size");
+        this.frames = ByteBuffer.allocateDirect(numFrames * frameSize);
+        this.lengths = new int[numFrames];
+        this.frameOf = new HashMap<PageId, Integer>();
+        this.freeFrames = new ArrayDeque<Integer>();
+        for (int i = 0; i < numFrames; i++)
+            freeFrames.add(i);
+        this.policy = new ClockPolicy(numFrames);
+    }
+
+    /** @return the number of frames in this arena */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of pages currently held in this arena */
+    public synchronized int size() {
+        return frameOf.size();
+    }
+
+    /**
+     * Store the bytes of a clean page, dropping the least recently stored
+     * page if the arena is full.
+     *
+     * @param pid the id of the page
+     * @param data the page's bytes, as returned by {@link Page#getPageData()}
+     * @return false if the page is too large for a frame and was not stored
+     */
+    public synchronized boolean put(PageId pid, byte[] data) {
+        if (data.length > frameSize)
+            return false;
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            frame = freeFrames.poll();
+            if (frame == null) {
+                PageId victim = policy.chooseVictim(new ReplacementPolicy.EvictionFilter() {
+                    public boolean canEvict(PageId p) {
+                        return true;
+                    }
+                });
+                frame = frameOf.remove(victim);
+            }
+            frameOf.put(pid, frame);
+            policy.recordMiss(pid);
+        }
+        ByteBuffer view = frames.duplicate();
+        view.position(frame * frameSize);
+        view.put(data);
+        lengths[frame] = data.length;
+        return true;
+    }
+
+    /**
+     * Remove a page from the arena and return its bytes.
+     *
+     * @param pid the id of the page
+     * @return the page's bytes, or null if the page is not in the arena
+     */
+    public synchronized byte[] take(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null)
+            return null;
+        policy.remove(pid);
+        freeFrames.add(frame);
+        byte[] data = new byte[lengths[frame]];
+        ByteBuffer view = frames.duplicate();
+        view.position(frame * frameSize);
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * Drop a page from the arena, if it is there.
+     *
+     * @param pid the id of the page
+     */
+    public synchronized void remove(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            policy.remove(pid);
+            freeFrames.add(frame);
+        }
+    }
+
+    /** @return the number of pages dropped from the arena to make room */
+    public synchronized long getEvictions() {
+        return policy.getEvictions();
+    }
+}
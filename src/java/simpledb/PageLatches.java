@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * PageLatches implements short-term optimistic latches on pages, separate
+ * from the transactional locks of the LockManager. BTreeFile uses them so
+ * that searches can read internal pages without locking them.
+ * <p>
+ * Each latch has a version counter and a count of writers. A writer
+ * latches a page before changing it and releases the latch when its
+ * operation is done, which bumps the version. A reader takes no latch: it
+ * notes the version with {@link #readBegin} before reading the page, and
+ * after reading checks with {@link #validate} that no writer was active or
+ * finished in between. If the check fails, what it read may be torn and it
+ * must start over.
+ * <p>
+ * Writers still hold transactional locks on the pages they change, so a
+ * write latch is never contended by another writer; it only tells readers
+ * that a change is in progress.
+ * <p>
+ * The latches are a fixed array, and each page hashes to one of them, so
+ * the memory used does not grow with the number of pages ever latched.
+ * Pages sharing a latch only make readers of one start over when the
+ * other is written.
+ *
+ * @Threadsafe
+ */
+class PageLatches {
+
+    /** The low bits of a latch word count writers, the rest is the version. */
+    private static final long WRITER = 1;
+    private static final long WRITER_MASK = 0xffff;
+    private static final long VERSION = WRITER_MASK + 1;
+
+    /** Number of latches; a power of two. */
+    private static final int STRIPES = 1024;
+
+    private final AtomicLongArray latches = new AtomicLongArray(STRIPES);
+    /** Pages each transaction holds write latches on. */
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> held
+            = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    /** @return the index of the latch of a page */
+    private static int latch(PageId pid) {
+        int h = pid.hashCode() * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Start an optimistic read of a page.
+     *
+     * @return the version to validate the read against, or -1 if a writer
+     *   holds the latch
+     */
+    long readBegin(PageId pid) {
+        long v = latches.get(latch(pid));
+        return (v & WRITER_MASK) != 0 ? -1 : v;
+    }
+
+    /**
+     * @return true if the page has not been write latched since
+     *   {@link #readBegin} returned version
+     */
+    boolean validate(PageId pid, long version) {
+        return latches.get(latch(pid)) == version;
+    }
+
+    /**
+     * Write latch a page on behalf of tid, if it does not hold the latch
+     * already. tid must hold an exclusive lock on the page.
+     */
+    void beginWrite(TransactionId tid, PageId pid) {
+        Set<PageId> pids = held.get(tid);
+        if (pids == null) {
+            pids = new HashSet<PageId>();
+            held.put(tid, pids);
+        }
+        if (pids.add(pid))
+            latches.addAndGet(latch(pid), WRITER);
+    }
+
+    /** Release all write latches held by tid. */
+    void endWrites(TransactionId tid) {
+        Set<PageId> pids = held.remove(tid);
+        if (pids == null)
+            return;
+        for (PageId pid : pids)
+            latches.addAndGet(latch(pid), VERSION - WRITER);
+    }
+}
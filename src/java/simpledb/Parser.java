@@ -132,8 +132,77 @@ public class Parser {
 
     }
 
+    /**
+     * Matches a statement ending in a LIMIT clause, which Zql does not parse:
+     * group 1 is the statement without it and group 2 the limit.
+     */
+    private static final java.util.regex.Pattern LIMIT = java.util.regex.Pattern
+            .compile("(?is)^(.*\\S)\\s+LIMIT\\s+(\\d{1,9})\\s*;?\\s*$");
+
+    /**
+     * Return the first statement of a text, up to and including the first
+     * semicolon outside a quoted string, or the whole text if there is none.
+     */
+    static String firstStatement(String text) {
+        char quote = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ';') {
+                return text.substring(0, i + 1);
+            }
+        }
+        return text;
+    }
+
+    /** @return true if s ends inside a quoted string */
+    private static boolean inQuotes(String s) {
+        char quote = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            }
+        }
+        return quote != 0;
+    }
+
+    /**
+     * Remove a trailing LIMIT clause from a single statement (see
+     * firstStatement). A LIMIT inside a quoted string is left alone.
+     *
+     * @param s the statement
+     * @param limit set to the limit, or -1 if there is none
+     * @return the statement without the clause
+     */
+    static String stripLimit(String s, int[] limit) {
+        java.util.regex.Matcher m = LIMIT.matcher(s);
+        if (!m.matches() || inQuotes(m.group(1))) {
+            limit[0] = -1;
+            return s;
+        }
+        limit[0] = Integer.parseInt(m.group(2));
+        return m.group(1) + ";";
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
+        return parseQueryLogicalPlan(tid, q, -1);
+    }
+
+    /**
+     * @param limit the number of tuples of a LIMIT clause following the
+     *            query, or -1 if there is none
+     */
+    public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q, int limit)
+            throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
@@ -267,6 +336,9 @@ public class Parser {
             lp.addOrderBy(f.getValue(), oby.getAscOrder());
 
         }
+        if (limit >= 0) {
+            lp.setLimit(limit);
+        }
         return lp;
     }
 
@@ -276,9 +348,15 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1);
+    }
+
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
-        LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        LogicalPlan lp = parseQueryLogicalPlan(tId, s, limit);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,12 +543,13 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        int[] limit = new int[1];
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(firstStatement(s), limit).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt, limit[0]);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,8 +582,19 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // read the first statement to take off its LIMIT clause before
+            // Zql sees it; Zql reads only that statement too
+            ByteArrayOutputStream stmt = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                stmt.write(buf, 0, n);
+            int[] limit = new int[1];
+            String text = stripLimit(firstStatement(stmt.toString("UTF-8")), limit);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(text.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            if (limit[0] >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException("LIMIT is only supported in queries.");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -525,7 +615,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit[0]);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -581,7 +671,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReadAhead detects sequential page access and loads the following pages
+ * into the BufferPool on a background I/O thread, so that a scan over cold
+ * data overlaps its disk reads with its processing instead of blocking on
+ * every page miss.
+ * <p>
+ * Scans report each page they read with {@link #pageRead}, together with a
+ * {@link Successor} that knows which page comes next in scan order (the next
+ * page number of a HeapFile, or the right sibling of a B+ tree leaf). Access
+ * to a file is considered sequential when a scan reads the page that was
+ * the successor of the page it read before. Once a file is being read
+ * sequentially, ReadAhead keeps up to a window of pages loaded ahead of the
+ * scan. The window starts at the minimum size and doubles, up to the
+ * maximum, whenever the scan catches up with the pages read ahead; a
+ * non-sequential access resets it.
+ *
+ * @Threadsafe
+ */
+public class ReadAhead {
+
+    /** Default number of pages read ahead once a sequential scan is detected. */
+    public static final int DEFAULT_MIN_WINDOW = 2;
+
+    /** Default upper bound on the number of pages read ahead of a scan. */
+    public static final int DEFAULT_MAX_WINDOW = 32;
+
+    /**
+     * Finds the page that follows a given page in scan order.
+     */
+    public interface Successor {
+        /**
+         * @param page a page of the scanned file
+         * @return the id of the page after it, or null if it is the last one
+         */
+        public PageId next(Page page);
+    }
+
+    /** Read-ahead state of one file. */
+    private static class Stream {
+        PageId expected;   // successor of the page read last
+        PageId lastIssued; // last page read ahead (or read by the scan)
+        int window = 0;    // 0 until sequential access is detected
+        int ahead = 0;     // pages read ahead and not yet consumed
+        boolean busy = false;
+        boolean atEnd = false;
+    }
+
+    private static final ExecutorService IO_THREAD = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final BufferPool pool;
+    private final int minWindow;
+    private final int maxWindow;
+    private final HashMap<Integer, Stream> streams = new HashMap<Integer, Stream>();
+    private long pagesReadAhead = 0;
+
+    /**
+     * Create a prefetcher for the given pool with the default window sizes.
+     *
+     * @param pool the pool to load pages into
+     */
+    public ReadAhead(BufferPool pool) {
+        this(pool, DEFAULT_MIN_WINDOW, DEFAULT_MAX_WINDOW);
+    }
+
+    /**
+     * Create a prefetcher for the given pool. The window is further capped
+     * at a quarter of the pool, so read-ahead never floods the pool.
+     *
+     * @param pool the pool to load pages into
+     * @param minWindow the number of pages read ahead when a sequential scan
+     *   is first detected
+     * @param maxWindow the largest number of pages read ahead of a scan
+     */
+    public ReadAhead(BufferPool pool, int minWindow, int maxWindow) {
+        if (minWindow < 1 || maxWindow < minWindow)
+            throw new IllegalArgumentException("bad read-ahead window " + minWindow + ".." + maxWindow);
+        this.pool = pool;
+        this.maxWindow = Math.max(1, Math.min(maxWindow, pool.getNumPages() / 4));
+        this.minWindow = Math.min(minWindow, this.maxWindow);
+    }
+
+    /** @return the total number of pages issued for read-ahead */
+    public synchronized long getPagesReadAhead() {
+        return pagesReadAhead;
+    }
+
+    /**
+     * Report that a scan has read a page, and read ahead of it if the file
+     * is being read sequentially.
+     *
+     * @param page the page the scan just obtained from the pool
+     * @param successor finds the pages following page in scan order
+     */
+    public synchronized void pageRead(Page page, Successor successor) {
+        PageId pid = page.getId();
+        Stream s = streams.get(pid.getTableId());
+        if (s == null || !pid.equals(s.expected)) {
+            // first access, or a jump: start over
+            s = new Stream();
+            streams.put(pid.getTableId(), s);
+        } else if (s.window == 0) {
+            s.window = minWindow;
+        } else if (s.ahead > 0) {
+            s.ahead--;
+        } else if (!s.busy) {
+            // the scan caught up with everything read ahead
+            s.window = Math.min(2 * s.window, maxWindow);
+        }
+        s.expected = successor.next(page);
+        if (s.expected == null)
+            s.atEnd = true;
+        if (s.ahead == 0 && !s.busy)
+            s.lastIssued = pid;
+
+        if (s.window > 0 && !s.busy && !s.atEnd && s.ahead <= s.window / 2) {
+            int count = s.window - s.ahead;
+            s.busy = true;
+            s.ahead += count;
+            pagesReadAhead += count;
+            final Stream stream = s;
+            final PageId from = s.lastIssued;
+            final int n = count;
+            final Successor succ = successor;
+            IO_THREAD.execute(new Runnable() {
+                public void run() {
+                    readAhead(stream, from, n, succ);
+                }
+            });
+        }
+    }
+
+    /** Load up to count pages following from into the pool. */
+    private void readAhead(Stream s, PageId from, int count, Successor successor) {
+        int done = 0;
+        boolean end = false;
+        PageId last = from;
+        try {
+            Page cur = pool.prefetchPage(from);
+            while (cur != null && done < count) {
+                PageId next = successor.next(cur);
+                if (next == null) {
+                    end = true;
+                    break;
+                }
+                cur = pool.prefetchPage(next);
+                if (cur == null)
+                    break;
+                last = next;
+                done++;
+            }
+        } catch (RuntimeException e) {
+            // read-ahead is only a hint; the scan will read the page itself
+        }
+        synchronized (this) {
+            s.ahead = Math.max(0, s.ahead - (count - done));
+            s.lastIssued = last;
+            if (end)
+                s.atEnd = true;
+            else if (done < count)
+                // the pool had no room: back off
+                s.window = Math.max(minWindow, s.window / 2);
+            s.busy = false;
+        }
+    }
+}
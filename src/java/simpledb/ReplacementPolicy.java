@@ -0,0 +1,80 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool should evict
+ * when it needs room for a new page. The BufferPool reports every page
+ * reference to the policy and asks it for a victim in evictPage().
+ * <p>
+ * Implementations are not required to be thread safe; each policy serves
+ * one partition of the BufferPool and is only called under that
+ * partition's monitor.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ * @see ClockPolicy
+ * @see LRUKPolicy
+ * @see TwoQPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Callback used by {@link #chooseVictim} to ask the BufferPool whether a
+     * particular resident page may be evicted right now (for example, the
+     * BufferPool refuses to evict dirty pages).
+     */
+    public interface EvictionFilter {
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Creates policies for the partitions of a partitioned BufferPool.
+     *
+     * @see BufferPool#BufferPool(int, int, ReplacementPolicy.Factory)
+     */
+    public interface Factory {
+        public ReplacementPolicy create(int numPages);
+    }
+
+    /**
+     * Record a reference to a page that was already resident in the pool.
+     *
+     * @param pid the id of the referenced page
+     */
+    public void recordHit(PageId pid);
+
+    /**
+     * Record that a page was just read in and admitted to the pool.
+     *
+     * @param pid the id of the admitted page
+     */
+    public void recordMiss(PageId pid);
+
+    /**
+     * Forget a resident page that left the pool without being chosen as a
+     * victim (e.g. through {@link BufferPool#discardPage}).
+     *
+     * @param pid the id of the removed page
+     */
+    public void remove(PageId pid);
+
+    /**
+     * Choose a resident page to evict and stop tracking it. Only pages
+     * accepted by the filter may be returned.
+     *
+     * @param filter decides which resident pages may be evicted
+     * @return the id of the evicted page, or null if no resident page may
+     *   be evicted
+     */
+    public PageId chooseVictim(EvictionFilter filter);
+
+    /** @return the number of references to pages that were resident */
+    public long getHits();
+
+    /** @return the number of references to pages that had to be read in */
+    public long getMisses();
+
+    /** @return the number of pages chosen as victims */
+    public long getEvictions();
+
+    /** Reset the hit, miss and eviction counters to zero. */
+    public void resetStats();
+}
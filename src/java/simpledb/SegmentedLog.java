@@ -0,0 +1,297 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * SegmentedLog is the storage behind LogFile: a single address space of log
+ * sequence numbers (LSNs, i.e. byte offsets) stored in fixed-size segment
+ * files, with a random-access read and write interface modeled on
+ * RandomAccessFile.
+ * <p>
+ * The first {@link LogFile#LONG_SIZE} bytes of the address space are the
+ * master record, which holds the LSN of the last checkpoint. They are kept
+ * in the log file itself (e.g. "log"). The log records that follow are kept
+ * in segment files next to it ("log.000000", "log.000001", ...), segment k
+ * holding LSNs LONG_SIZE + k * segmentSize up to the next segment. LSNs
+ * never change once written, so truncating the log is just deleting the
+ * oldest segment files.
+ * <p>
+ * Not thread safe, except for {@link #force}: callers must hold the LogFile
+ * monitor.
+ */
+class SegmentedLog implements DataInput, DataOutput {
+
+    private static final int MASTER_SIZE = LogFile.LONG_SIZE;
+
+    private final File master;
+    private final RandomAccessFile masterRaf;
+    private final long segmentSize;
+    /** Open segments, by segment number. */
+    private final TreeMap<Long, RandomAccessFile> segments = new TreeMap<Long, RandomAccessFile>();
+    private long pos = 0;
+    private long firstUnforced = 0; // protected by this
+
+    private final DataInputStream in = new DataInputStream(new InputStream() {
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xff);
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            return SegmentedLog.this.readSome(b, off, len);
+        }
+    });
+
+    private final DataOutputStream out = new DataOutputStream(new OutputStream() {
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            SegmentedLog.this.write(b, off, len);
+        }
+    });
+
+    /**
+     * Open the log stored in the given file and its segment files, creating
+     * it if it does not exist.
+     *
+     * @param master the file holding the master record
+     * @param segmentSize the size of each segment file in bytes
+     */
+    SegmentedLog(File master, long segmentSize) throws IOException {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("bad log segment size " + segmentSize);
+        this.master = master;
+        this.segmentSize = segmentSize;
+        this.masterRaf = new RandomAccessFile(master, "rw");
+        File dir = master.getAbsoluteFile().getParentFile();
+        String prefix = master.getName() + ".";
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (!name.startsWith(prefix))
+                    continue;
+                try {
+                    long k = Long.parseLong(name.substring(prefix.length()));
+                    segments.put(k, new RandomAccessFile(new File(dir, name), "rw"));
+                } catch (NumberFormatException e) {
+                    // not one of our segments
+                }
+            }
+        }
+        if (!segments.isEmpty())
+            firstUnforced = segments.firstKey();
+    }
+
+    private File segmentFile(long k) {
+        return new File(master.getAbsoluteFile().getParentFile(),
+                        String.format("%s.%06d", master.getName(), k));
+    }
+
+    /** @return segment number k, or null if it does not exist and create is false */
+    private RandomAccessFile segment(long k, boolean create) throws IOException {
+        RandomAccessFile seg = segments.get(k);
+        if (seg == null && create) {
+            seg = new RandomAccessFile(segmentFile(k), "rw");
+            synchronized (this) {
+                segments.put(k, seg);
+            }
+        }
+        return seg;
+    }
+
+    /** @return the LSN just past the end of the log */
+    long length() throws IOException {
+        if (segments.isEmpty())
+            return masterRaf.length();
+        long last = segments.lastKey();
+        return MASTER_SIZE + last * segmentSize + segments.get(last).length();
+    }
+
+    /** @return the LSN of the oldest record still in the log */
+    long firstLSN() {
+        if (segments.isEmpty())
+            return MASTER_SIZE;
+        return MASTER_SIZE + segments.firstKey() * segmentSize;
+    }
+
+    /** @return the LSN the next read or write happens at */
+    long getFilePointer() {
+        return pos;
+    }
+
+    /** Move to the given LSN. */
+    void seek(long lsn) {
+        pos = lsn;
+    }
+
+    /** Discard the whole log, including the master record. */
+    void clear() throws IOException {
+        synchronized (this) {
+            for (Map.Entry<Long, RandomAccessFile> e : segments.entrySet()) {
+                e.getValue().close();
+                segmentFile(e.getKey()).delete();
+            }
+            segments.clear();
+            firstUnforced = 0;
+        }
+        masterRaf.setLength(0);
+        pos = 0;
+    }
+
+    /**
+     * Delete every segment that lies entirely before the given LSN. The
+     * segment holding the end of the log is never deleted.
+     *
+     * @return the number of segments deleted
+     */
+    int truncateBefore(long lsn) throws IOException {
+        int deleted = 0;
+        synchronized (this) {
+            while (segments.size() > 1) {
+                long k = segments.firstKey();
+                if (MASTER_SIZE + (k + 1) * segmentSize > lsn)
+                    break;
+                segments.remove(k).close();
+                segmentFile(k).delete();
+                deleted++;
+            }
+            if (!segments.isEmpty())
+                firstUnforced = Math.max(firstUnforced, segments.firstKey());
+        }
+        return deleted;
+    }
+
+    /**
+     * Force everything written so far to disk. May be called without the
+     * LogFile monitor, concurrently with appends; it then forces at least
+     * what was written before it was called.
+     */
+    void force() throws IOException {
+        ArrayList<FileChannel> channels = new ArrayList<FileChannel>();
+        channels.add(masterRaf.getChannel());
+        synchronized (this) {
+            for (RandomAccessFile seg : segments.tailMap(firstUnforced).values())
+                channels.add(seg.getChannel());
+            if (!segments.isEmpty())
+                firstUnforced = segments.lastKey();
+        }
+        for (FileChannel ch : channels) {
+            try {
+                ch.force(true);
+            } catch (ClosedChannelException e) {
+                // the segment was truncated away meanwhile
+            }
+        }
+    }
+
+    /** Close all files of the log. */
+    void close() throws IOException {
+        synchronized (this) {
+            for (RandomAccessFile seg : segments.values())
+                seg.close();
+            segments.clear();
+        }
+        masterRaf.close();
+    }
+
+    /**
+     * Read up to len bytes at the current LSN, stopping at the end of a
+     * segment.
+     *
+     * @return the number of bytes read, or -1 at the end of the log
+     */
+    private int readSome(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        RandomAccessFile file;
+        long filePos;
+        int max;
+        if (pos < MASTER_SIZE) {
+            file = masterRaf;
+            filePos = pos;
+            max = (int) (MASTER_SIZE - pos);
+        } else {
+            long k = (pos - MASTER_SIZE) / segmentSize;
+            filePos = (pos - MASTER_SIZE) % segmentSize;
+            file = segment(k, false);
+            if (file == null) {
+                if (!segments.isEmpty() && k < segments.firstKey())
+                    throw new IOException("log position " + pos + " has been truncated");
+                return -1;
+            }
+            max = (int) Math.min(Integer.MAX_VALUE, segmentSize - filePos);
+        }
+        file.seek(filePos);
+        int n = file.read(b, off, Math.min(len, max));
+        if (n > 0)
+            pos += n;
+        return n;
+    }
+
+    /** Write len bytes at the current LSN, spanning segments as needed. */
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            RandomAccessFile file;
+            long filePos;
+            int n;
+            if (pos < MASTER_SIZE) {
+                file = masterRaf;
+                filePos = pos;
+                n = (int) Math.min(len, MASTER_SIZE - pos);
+            } else {
+                long k = (pos - MASTER_SIZE) / segmentSize;
+                filePos = (pos - MASTER_SIZE) % segmentSize;
+                file = segment(k, true);
+                n = (int) Math.min(len, segmentSize - filePos);
+            }
+            file.seek(filePos);
+            file.write(b, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // DataInput, at the current LSN
+
+    public void readFully(byte[] b) throws IOException { in.readFully(b); }
+    public void readFully(byte[] b, int off, int len) throws IOException { in.readFully(b, off, len); }
+    public int skipBytes(int n) throws IOException { pos += n; return n; }
+    public boolean readBoolean() throws IOException { return in.readBoolean(); }
+    public byte readByte() throws IOException { return in.readByte(); }
+    public int readUnsignedByte() throws IOException { return in.readUnsignedByte(); }
+    public short readShort() throws IOException { return in.readShort(); }
+    public int readUnsignedShort() throws IOException { return in.readUnsignedShort(); }
+    public char readChar() throws IOException { return in.readChar(); }
+    public int readInt() throws IOException { return in.readInt(); }
+    public long readLong() throws IOException { return in.readLong(); }
+    public float readFloat() throws IOException { return in.readFloat(); }
+    public double readDouble() throws IOException { return in.readDouble(); }
+    public String readUTF() throws IOException { return in.readUTF(); }
+
+    @Deprecated
+    public String readLine() throws IOException {
+        throw new UnsupportedOperationException("the log has no lines");
+    }
+
+    // DataOutput, at the current LSN
+
+    public void write(int b) throws IOException { out.write(b); }
+    public void write(byte[] b) throws IOException { write(b, 0, b.length); }
+    public void writeBoolean(boolean v) throws IOException { out.writeBoolean(v); }
+    public void writeByte(int v) throws IOException { out.writeByte(v); }
+    public void writeShort(int v) throws IOException { out.writeShort(v); }
+    public void writeChar(int v) throws IOException { out.writeChar(v); }
+    public void writeInt(int v) throws IOException { out.writeInt(v); }
+    public void writeLong(long v) throws IOException { out.writeLong(v); }
+    public void writeFloat(float v) throws IOException { out.writeFloat(v); }
+    public void writeDouble(double v) throws IOException { out.writeDouble(v); }
+    public void writeBytes(String s) throws IOException { out.writeBytes(s); }
+    public void writeChars(String s) throws IOException { out.writeChars(s); }
+    public void writeUTF(String s) throws IOException { out.writeUTF(s); }
+}
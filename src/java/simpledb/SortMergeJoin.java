@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that are both sorted in ascending order
+ * on their join fields, such as {@link BTreeScan}s of B+ trees keyed on the
+ * join fields, or {@link OrderBy}s. It streams both children once and has no
+ * build phase.
+ * <p>
+ * For EQUALS, child2 is read in groups of tuples with the same key, and each
+ * child1 tuple is joined with the group of its key; only that group is kept
+ * in memory. For the inequalities the tuples that match a tuple of one child
+ * are a band at the start of the other child: the child2 tuples below (or
+ * not above) a child1 tuple for GREATER_THAN (GREATER_THAN_OR_EQ), and the
+ * child1 tuples below (or not above) a child2 tuple for LESS_THAN
+ * (LESS_THAN_OR_EQ). The band's child is rewound for each tuple of the other
+ * child and read only as far as the end of the band.
+ * <p>
+ * The result is sorted on the join field of child1 for EQUALS, GREATER_THAN
+ * and GREATER_THAN_OR_EQ, and on the join field of child2 for EQUALS,
+ * LESS_THAN and LESS_THAN_OR_EQ.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+
+    // EQUALS: the child2 tuples with key groupKey
+    private transient Tuple left;
+    private transient ArrayList<Tuple> group;
+    private transient int gi;
+    private transient Field groupKey;
+    private transient Tuple nextRight;     // read from child2 but not yet in a group
+    // inequalities: the current tuple of the outer child, whose band is read
+    private transient Tuple outer;
+
+    /**
+     * Constructor. Accepts two children sorted in ascending order on their
+     * join fields and the predicate to join them on
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canMerge(p.getOperator()))
+            throw new IllegalArgumentException("SortMergeJoin does not support " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a SortMergeJoin can join on the operator
+     */
+    public static boolean canMerge(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    /**
+     * @return true if the result is sorted in ascending order on the field
+     *         of {@link #getTupleDesc}
+     */
+    public boolean isSortedOn(int field) {
+        Predicate.Op op = pred.getOperator();
+        int field2 = child1.getTupleDesc().numFields() + pred.getField2();
+        if (field == pred.getField1())
+            return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        if (field == field2)
+            return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                    || op == Predicate.Op.LESS_THAN_OR_EQ;
+        return false;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        group = new ArrayList<Tuple>();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        group = null;
+        left = outer = nextRight = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        left = outer = nextRight = null;
+        group.clear();
+        groupKey = null;
+        gi = 0;
+    }
+
+    /** @return a negative number, zero or a positive number as a is below, equal to or above b */
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            return fetchNextEqual();
+        return fetchNextBand();
+    }
+
+    private Tuple readRight() throws DbException, TransactionAbortedException {
+        return child2.hasNext() ? child2.next() : null;
+    }
+
+    private Tuple fetchNextEqual() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null && gi < group.size())
+                return merge(left, group.get(gi++));
+            if (!child1.hasNext())
+                return null;
+            left = child1.next();
+            gi = 0;
+            Field key = left.getField(pred.getField1());
+            if (groupKey != null && compare(groupKey, key) == 0)
+                continue;
+
+            // child1 has moved past the group: read the group of the new key
+            group.clear();
+            groupKey = null;
+            if (nextRight == null)
+                nextRight = readRight();
+            while (nextRight != null && compare(nextRight.getField(pred.getField2()), key) < 0)
+                nextRight = readRight();
+            while (nextRight != null && compare(nextRight.getField(pred.getField2()), key) == 0) {
+                group.add(nextRight);
+                nextRight = readRight();
+            }
+            if (!group.isEmpty())
+                groupKey = key;
+            else if (nextRight == null)
+                return null; // child2 has run out, and so has the join
+        }
+    }
+
+    private Tuple fetchNextBand() throws TransactionAbortedException, DbException {
+        Predicate.Op op = pred.getOperator();
+        boolean outerIsChild1 = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        boolean strict = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.LESS_THAN;
+        OpIterator outerChild = outerIsChild1 ? child1 : child2;
+        OpIterator band = outerIsChild1 ? child2 : child1;
+        int outerField = outerIsChild1 ? pred.getField1() : pred.getField2();
+        int bandField = outerIsChild1 ? pred.getField2() : pred.getField1();
+
+        while (true) {
+            if (outer != null && band.hasNext()) {
+                Tuple t = band.next();
+                int c = compare(t.getField(bandField), outer.getField(outerField));
+                if (c < 0 || c == 0 && !strict)
+                    return outerIsChild1 ? merge(outer, t) : merge(t, outer);
+            }
+            // the band of outer is done
+            if (!outerChild.hasNext())
+                return null;
+            if (outer != null)
+                band.rewind();
+            outer = outerChild.next();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SpillFile is a temporary file of tuples, for operators that hold more
+ * tuples than fit in memory. Tuples are written one after another and read
+ * back in the same order, as many times as needed.
+ * <p>
+ * The encoding is compact rather than page-sized: an integer field takes 4
+ * bytes and a string field a 2-byte length and its characters, instead of
+ * the fixed {@link Type#STRING_LEN} bytes it takes on a page. A tuple's
+ * RecordId, if it has one, is kept too, so a tuple read back is the same
+ * as the tuple written whether or not it was spilled.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /** Create an empty spill file for tuples of the given TupleDesc. */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    /** @return the number of tuples written to this file */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append a tuple to this file.
+     *
+     * @throws IllegalStateException if writing has been finished
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("spill file is read only");
+        RecordId rid = t.getRecordId();
+        out.writeBoolean(rid != null);
+        if (rid != null) {
+            LogFile.writePageId(out, rid.getPageId());
+            out.writeInt(rid.getTupleNumber());
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                out.writeInt(((IntField) f).getValue());
+            else
+                out.writeUTF(((StringField) f).getValue());
+        }
+        size++;
+    }
+
+    /** Flush the tuples written so far; no more tuples may be added. */
+    public void finishWriting() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Returns a reader over the tuples of this file, from the first. Writing
+     * is finished first if it was not already.
+     */
+    public Reader reader() throws IOException {
+        finishWriting();
+        return new Reader();
+    }
+
+    /** Delete the file. */
+    public void delete() {
+        try {
+            finishWriting();
+        } catch (IOException e) {
+            // the file is being thrown away
+        }
+        file.delete();
+    }
+
+    /** Reads the tuples of a SpillFile in the order they were written. */
+    public class Reader implements Closeable {
+        private final DataInputStream in;
+        private int left = size;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        /** @return the next tuple, or null if there are no more */
+        public Tuple next() throws IOException {
+            if (left == 0)
+                return null;
+            left--;
+            Tuple t = new Tuple(td);
+            if (in.readBoolean())
+                t.setRecordId(new RecordId(LogFile.readPageId(in), in.readInt()));
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    t.setField(i, new IntField(in.readInt()));
+                else
+                    t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+            }
+            return t;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of its input in sorted order. Instead of sorting the whole
+ * input like {@link OrderBy}, it keeps the best n tuples seen so far in a
+ * heap whose root is the worst of them, so it needs memory for n tuples and
+ * time O(m log n) for an input of m tuples.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private TupleDesc td;
+    private int orderByField;
+    private String orderByFieldName;
+    private boolean asc;
+    private int limit;
+    private transient ArrayList<Tuple> top;
+    private transient Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return, at least 0.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        Comparator<Tuple> cmp = new TupleComparator(orderByField, asc);
+        // the root of the heap is the last of the best tuples so far
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.max(1, Math.min(limit, 1024)),
+                Collections.reverseOrder(cmp));
+        if (limit > 0) {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < limit) {
+                    heap.add(t);
+                } else if (cmp.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+        }
+        top = new ArrayList<Tuple>(heap.size());
+        while (!heap.isEmpty())
+            top.add(heap.poll());
+        Collections.reverse(top);
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the best tuples in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -25,6 +25,18 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction running as a read-only snapshot transaction,
+     * which reads the database as committed at this point without taking
+     * locks.
+     *
+     * @see BufferPool#beginSnapshot
+     */
+    public void startSnapshot() {
+        start();
+        Database.getBufferPool().beginSnapshot(tid);
+    }
+
     public TransactionId getId() {
         return tid;
     }
@@ -47,8 +59,10 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
+                //log all the dirty pages for this transaction; the force of
+                //the commit record covers them, and transactionComplete()
+                //below writes the pages out
+                Database.getBufferPool().logPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -0,0 +1,279 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of one TupleDesc, stored by
+ * column: an int[] for each integer field and a String[] for each string
+ * field. Batch operators (see {@link BatchOpIterator}) pass these between
+ * each other instead of Tuples, so that no Field is allocated per row and
+ * the work of an operator is a loop over a column rather than a virtual call
+ * per tuple.
+ * <p>
+ * A batch has a selection vector listing which of its rows are live. Rows
+ * are numbered by their position in the columns; {@link #numRows} and
+ * {@link #row} enumerate the live ones, in order. A filter narrows the
+ * selection instead of copying rows, and a projection shares the columns of
+ * its input, so most operators never copy column data.
+ */
+public class TupleBatch {
+
+    /** The number of rows a batch holds unless a size is given. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;       // per field, null for string fields
+    private final String[][] strings; // per field, null for int fields
+    private int size = 0;
+    private int[] sel = null;         // live rows, or null if all of 0..size-1 are
+    private int numSelected = 0;
+
+    /** Create an empty batch holding up to capacity rows of the given TupleDesc. */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+    }
+
+    /** Create an empty batch of {@link #DEFAULT_SIZE} rows of the given TupleDesc. */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /** A batch whose columns are those of another batch. */
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows this batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows stored, live or not */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** @return the number of live rows */
+    public int numRows() {
+        return sel == null ? size : numSelected;
+    }
+
+    /**
+     * @return the position of the i-th live row, for 0 <= i < numRows()
+     */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * Make the given rows the live ones. The rows must be in increasing
+     * order; the array becomes part of this batch.
+     */
+    public void select(int[] rows, int n) {
+        this.sel = rows;
+        this.numSelected = n;
+    }
+
+    /** Remove all rows. */
+    public void clear() {
+        size = 0;
+        sel = null;
+        numSelected = 0;
+    }
+
+    /** @return the integer column of field i; entries past size() are garbage */
+    public int[] getIntColumn(int i) {
+        return ints[i];
+    }
+
+    /** @return the string column of field i; entries past size() are garbage */
+    public String[] getStringColumn(int i) {
+        return strings[i];
+    }
+
+    public int getInt(int field, int row) {
+        return ints[field][row];
+    }
+
+    public String getString(int field, int row) {
+        return strings[field][row];
+    }
+
+    /** @return the value of a field of a row, as a new Field */
+    public Field getField(int field, int row) {
+        if (ints[field] != null)
+            return new IntField(ints[field][row]);
+        return new StringField(strings[field][row], Type.STRING_LEN);
+    }
+
+    /** @return the value of a field of a row, boxed, for use as a hash key */
+    Object getKey(int field, int row) {
+        if (ints[field] != null)
+            return ints[field][row];
+        return strings[field][row];
+    }
+
+    /** @return a row of this batch as a new Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(i, row));
+        return t;
+    }
+
+    /**
+     * Append a tuple to this batch.
+     *
+     * @throws IllegalStateException if the batch is full or has a selection
+     */
+    public void addTuple(Tuple t) {
+        int r = checkAppend();
+        for (int i = 0; i < ints.length; i++) {
+            Field f = t.getField(i);
+            if (ints[i] != null)
+                ints[i][r] = ((IntField) f).getValue();
+            else
+                strings[i][r] = ((StringField) f).getValue();
+        }
+        size++;
+    }
+
+    /**
+     * Copy a row of another batch into the next row of this one, whose fields
+     * starting at field offset must be those of the other batch.
+     */
+    private void copyRow(TupleBatch from, int row, int offset) {
+        for (int i = 0; i < from.ints.length; i++) {
+            if (ints[offset + i] != null)
+                ints[offset + i][size] = from.ints[i][row];
+            else
+                strings[offset + i][size] = from.strings[i][row];
+        }
+    }
+
+    /**
+     * Append a row of another batch with the same fields as this one.
+     */
+    public void addRow(TupleBatch from, int row) {
+        checkAppend();
+        copyRow(from, row, 0);
+        size++;
+    }
+
+    /**
+     * Append the concatenation of a row of one batch and a row of another, as
+     * a join does; this batch's fields must be those of left then right.
+     */
+    public void addJoinedRow(TupleBatch left, int lrow, TupleBatch right, int rrow) {
+        checkAppend();
+        copyRow(left, lrow, 0);
+        copyRow(right, rrow, left.ints.length);
+        size++;
+    }
+
+    /**
+     * Append a row whose values the caller then sets through the column
+     * arrays.
+     *
+     * @return the position of the new row
+     */
+    public int appendRow() {
+        checkAppend();
+        return size++;
+    }
+
+    /** Check there is room for one more row and return its position. */
+    private int checkAppend() {
+        if (sel != null)
+            throw new IllegalStateException("cannot add rows to a batch with a selection");
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        return size;
+    }
+
+    /**
+     * Returns a batch whose fields are the given fields of this one. The new
+     * batch shares this batch's columns and selection, so it is only valid
+     * until this batch changes.
+     */
+    public TupleBatch project(int[] fields, TupleDesc projected) {
+        int[][] pints = new int[fields.length][];
+        String[][] pstrings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            pints[i] = ints[fields[i]];
+            pstrings[i] = strings[fields[i]];
+        }
+        TupleBatch b = new TupleBatch(projected, capacity, pints, pstrings);
+        b.size = size;
+        b.sel = sel;
+        b.numSelected = numSelected;
+        return b;
+    }
+
+    /**
+     * Returns whether a op b, with the semantics of {@link IntField#compare}.
+     */
+    public static boolean compare(int a, Predicate.Op op, int b) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return a == b;
+        case NOT_EQUALS:
+            return a != b;
+        case GREATER_THAN:
+            return a > b;
+        case GREATER_THAN_OR_EQ:
+            return a >= b;
+        case LESS_THAN:
+            return a < b;
+        case LESS_THAN_OR_EQ:
+            return a <= b;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a op b, with the semantics of {@link StringField#compare}.
+     */
+    public static boolean compare(String a, Predicate.Op op, String b) {
+        if (op == Predicate.Op.LIKE)
+            return a.indexOf(b) >= 0;
+        int c = a.compareTo(b);
+        switch (op) {
+        case EQUALS:
+            return c == 0;
+        case NOT_EQUALS:
+            return c != 0;
+        case GREATER_THAN:
+            return c > 0;
+        case GREATER_THAN_OR_EQ:
+            return c >= 0;
+        case LESS_THAN:
+            return c < 0;
+        case LESS_THAN_OR_EQ:
+            return c <= 0;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+/**
+ * TupleToBatch adapts an OpIterator to the {@link BatchOpIterator}
+ * interface, collecting its tuples into batches, so that batch operators can
+ * run over any tuple operator.
+ */
+public class TupleToBatch extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private final int batchSize;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child the tuple operator to read from
+     * @param batchSize the number of rows in each batch
+     */
+    public TupleToBatch(OpIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    public TupleToBatch(OpIterator child) {
+        this(child, TupleBatch.DEFAULT_SIZE);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), batchSize);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    /** @return the tuple operator this adapter reads from */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[0];
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQPolicy implements the full 2Q algorithm of Johnson and Shasha.
+ * Pages seen for the first time enter a FIFO queue (A1in). When they are
+ * evicted from it, their ids are remembered in a ghost queue (A1out); a page
+ * that is read again while its id is still in A1out is considered hot and
+ * enters the main LRU queue (Am). Pages referenced only once, such as those
+ * read by a sequential scan, therefore cycle through A1in without ever
+ * displacing pages in Am.
+ */
+public class TwoQPolicy extends AbstractReplacementPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<PageId>();
+
+    /**
+     * Create a 2Q policy for a pool of the given size, with A1in sized at a
+     * quarter of the pool and A1out remembering half as many ids as the pool
+     * holds pages, as suggested in the paper.
+     *
+     * @param numPages the maximum number of resident pages
+     */
+    public TwoQPolicy(int numPages) {
+        this(numPages, Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * Create a 2Q policy with explicit queue sizes.
+     *
+     * @param numPages the maximum number of resident pages
+     * @param kin the target size of the A1in FIFO queue
+     * @param kout the maximum number of ids remembered in A1out
+     * @throws IllegalArgumentException if kin is not between 1 and numPages,
+     *         or kout is negative
+     */
+    public TwoQPolicy(int numPages, int kin, int kout) {
+        if (kin < 1 || kin > numPages)
+            throw new IllegalArgumentException("kin must be between 1 and " + numPages + ", not " + kin);
+        if (kout < 0)
+            throw new IllegalArgumentException("kout must not be negative, not " + kout);
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    protected void onHit(PageId pid) {
+        if (am.remove(pid)) {
+            am.add(pid);
+        } else if (!a1in.contains(pid)) {
+            onMiss(pid);
+        }
+        // a hit in A1in is deliberately ignored, since those references are
+        // assumed to be correlated with the first one
+    }
+
+    protected void onMiss(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid))
+            return;
+        if (a1out.remove(pid))
+            am.add(pid);
+        else
+            a1in.add(pid);
+    }
+
+    public void remove(PageId pid) {
+        a1in.remove(pid);
+        am.remove(pid);
+        a1out.remove(pid);
+    }
+
+    protected PageId selectVictim(EvictionFilter filter) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = firstEvictable(a1in, filter);
+            if (victim != null)
+                return demote(victim);
+        }
+        victim = firstEvictable(am, filter);
+        if (victim != null) {
+            am.remove(victim);
+            return victim;
+        }
+        // everything in Am is pinned; fall back to A1in even if it is small
+        victim = firstEvictable(a1in, filter);
+        if (victim != null)
+            return demote(victim);
+        return null;
+    }
+
+    /** Move a victim from A1in to the A1out ghost queue. */
+    private PageId demote(PageId victim) {
+        a1in.remove(victim);
+        a1out.add(victim);
+        if (a1out.size() > kout) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+        return victim;
+    }
+
+    private PageId firstEvictable(Collection<PageId> queue, EvictionFilter filter) {
+        for (PageId pid : queue) {
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * VersionStore keeps the older committed versions of pages that snapshot
+ * transactions may still need, so that they can read a consistent snapshot
+ * of the database without taking locks.
+ * <p>
+ * Each commit that changed pages is given a timestamp from a logical clock,
+ * and a snapshot transaction reads the database as of the clock value when
+ * it began. A page's committed image is always at hand as its before image
+ * (see {@link Page#getBeforeImage}), which BufferPool resets at commit; the
+ * images it replaces are kept here. When a page dirtied by a transaction is
+ * flushed, its before image is recorded as a pending version, valid for
+ * every snapshot, since the disk may now hold uncommitted data. When the
+ * transaction commits, its pending versions get its commit timestamp and are
+ * from then on only valid for snapshots that began before it; when it
+ * aborts, they are dropped. Versions that no active snapshot can see are
+ * discarded as snapshots end.
+ * <p>
+ * Versions are only recorded while snapshot isolation is enabled, so that
+ * databases that do not use it pay nothing for it.
+ *
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    /** Timestamp of a version whose writer has not committed yet. */
+    private static final long PENDING = Long.MAX_VALUE;
+
+    /** A committed image of a page and the timestamp it was replaced at. */
+    private static class Version {
+        long replacedAt;
+        final Page image;
+
+        Version(long replacedAt, Page image) {
+            this.replacedAt = replacedAt;
+            this.image = image;
+        }
+    }
+
+    private volatile boolean enabled = false;
+    private long clock = 0;
+    /** Versions of each page, oldest first. */
+    private final HashMap<PageId, ArrayList<Version>> versions = new HashMap<PageId, ArrayList<Version>>();
+    /** Pages each uncommitted transaction has pending versions of. */
+    private final HashMap<TransactionId, ArrayList<PageId>> pending = new HashMap<TransactionId, ArrayList<PageId>>();
+    /** Start timestamp of each active snapshot transaction. */
+    private final HashMap<TransactionId, Long> snapshots = new HashMap<TransactionId, Long>();
+    /** Number of active snapshots by start timestamp. */
+    private final TreeMap<Long, Integer> starts = new TreeMap<Long, Integer>();
+
+    /**
+     * Start recording page versions. Snapshots can only be begun once this
+     * has been called; it must be called before any transaction that a
+     * snapshot may overlap with starts writing.
+     */
+    public synchronized void enable() {
+        enabled = true;
+    }
+
+    /** @return true if page versions are being recorded */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Make tid a snapshot transaction, reading the database as it was
+     * committed at this point.
+     *
+     * @throws IllegalStateException if snapshot isolation is not enabled
+     */
+    public synchronized void begin(TransactionId tid) {
+        if (!enabled)
+            throw new IllegalStateException("snapshot isolation is not enabled");
+        if (snapshots.containsKey(tid))
+            return;
+        snapshots.put(tid, clock);
+        Integer n = starts.get(clock);
+        starts.put(clock, n == null ? 1 : n + 1);
+    }
+
+    /** @return true if tid is an active snapshot transaction */
+    public synchronized boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /**
+     * Return the version of a page that snapshot transaction tid sees, if
+     * it is not the page's current committed image.
+     *
+     * @return the old version, or null if tid sees the current committed image
+     */
+    public synchronized Page lookup(TransactionId tid, PageId pid) {
+        Long start = snapshots.get(tid);
+        ArrayList<Version> chain = versions.get(pid);
+        if (start == null || chain == null)
+            return null;
+        for (Version v : chain) {
+            if (v.replacedAt > start)
+                return v.image;
+        }
+        return null;
+    }
+
+    /**
+     * Record that a page dirtied by writer is about to be written to disk.
+     *
+     * @param writer the transaction that dirtied the page
+     * @param before the page's committed image
+     */
+    public synchronized void pageFlushed(TransactionId writer, Page before) {
+        if (!enabled)
+            return;
+        PageId pid = before.getId();
+        ArrayList<Version> chain = versions.get(pid);
+        if (chain == null) {
+            chain = new ArrayList<Version>();
+            versions.put(pid, chain);
+        } else if (chain.get(chain.size() - 1).replacedAt == PENDING) {
+            return; // already flushed once by writer
+        }
+        chain.add(new Version(PENDING, before));
+        ArrayList<PageId> pids = pending.get(writer);
+        if (pids == null) {
+            pids = new ArrayList<PageId>();
+            pending.put(writer, pids);
+        }
+        pids.add(pid);
+    }
+
+    /**
+     * Stamp the pending versions of a committed transaction with its commit
+     * timestamp. Must be called after the transaction's pages have been
+     * given their new before images.
+     */
+    public synchronized void committed(TransactionId tid) {
+        ArrayList<PageId> pids = pending.remove(tid);
+        if (pids == null)
+            return;
+        long ts = ++clock;
+        for (PageId pid : pids) {
+            ArrayList<Version> chain = versions.get(pid);
+            chain.get(chain.size() - 1).replacedAt = ts;
+        }
+        prune(pids);
+    }
+
+    /** Drop the pending versions of an aborted transaction. */
+    public synchronized void aborted(TransactionId tid) {
+        ArrayList<PageId> pids = pending.remove(tid);
+        if (pids == null)
+            return;
+        for (PageId pid : pids) {
+            ArrayList<Version> chain = versions.get(pid);
+            chain.remove(chain.size() - 1);
+            if (chain.isEmpty())
+                versions.remove(pid);
+        }
+    }
+
+    /** End snapshot transaction tid, if it is one. */
+    public synchronized void end(TransactionId tid) {
+        Long start = snapshots.remove(tid);
+        if (start == null)
+            return;
+        int n = starts.get(start);
+        if (n > 1)
+            starts.put(start, n - 1);
+        else
+            starts.remove(start);
+        prune(new ArrayList<PageId>(versions.keySet()));
+    }
+
+    /** Discard the versions of the given pages that no snapshot can see. */
+    private void prune(Collection<PageId> pids) {
+        long oldest = starts.isEmpty() ? PENDING - 1 : starts.firstKey();
+        for (PageId pid : pids) {
+            ArrayList<Version> chain = versions.get(pid);
+            if (chain == null)
+                continue;
+            Iterator<Version> it = chain.iterator();
+            while (it.hasNext()) {
+                if (it.next().replacedAt <= oldest)
+                    it.remove();
+            }
+            if (chain.isEmpty())
+                versions.remove(pid);
+        }
+    }
+
+    /** @return the number of page versions currently kept */
+    public synchronized int getNumVersions() {
+        int n = 0;
+        for (ArrayList<Version> chain : versions.values())
+            n += chain.size();
+        return n;
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+
+	private TransactionId tid = new TransactionId();
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** Bulk load the keys 0..n-1 (each twice if dup) into a new two column tree. */
+	private BTreeFile load(int n, boolean dup, double fillFactor) throws Exception {
+		File f = File.createTempFile("bulk", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for(int i = 0; i < n; i++) {
+			tuples.add(BTreeUtility.getBTreeTuple(new int[] {i, -i}));
+			if(dup) {
+				tuples.add(BTreeUtility.getBTreeTuple(new int[] {i, i}));
+			}
+		}
+		bf.bulkLoad(new TupleIterator(bf.getTupleDesc(), tuples), fillFactor);
+		return bf;
+	}
+
+	/** Scan the tree in key order and check it holds exactly the given keys. */
+	private void checkKeys(BTreeFile bf, int n, int copies) throws Exception {
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		for(int i = 0; i < n; i++) {
+			for(int c = 0; c < copies; c++) {
+				assertTrue(it.hasNext());
+				assertEquals(new IntField(i), it.next().getField(0));
+			}
+		}
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * Unit test that a bulk loaded tree several levels deep is valid and
+	 * holds every tuple
+	 */
+	@Test public void multiLevel() throws Exception {
+		BufferPool.setPageSize(256);
+		Database.reset();
+		BTreeFile bf = load(5000, false, 0.75);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		checkKeys(bf, 5000, 1);
+
+		// a point lookup goes down to the right leaf
+		IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(4321));
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		assertTrue(it.hasNext());
+		assertEquals(new IntField(-4321), it.next().getField(1));
+		it.close();
+	}
+
+	/**
+	 * Unit test that the fill factor leaves room in the leaves
+	 */
+	@Test public void fillFactor() throws Exception {
+		BufferPool.setPageSize(256);
+		Database.reset();
+		int full = load(2000, false, 1.0).numPages();
+		Database.reset();
+		int half = load(2000, false, 0.5).numPages();
+		assertTrue(half > full * 3 / 2);
+	}
+
+	/**
+	 * Unit test for small trees and duplicate keys
+	 */
+	@Test public void smallAndDuplicates() throws Exception {
+		BTreeFile bf = load(3, false, 0.9);
+		assertEquals(1, bf.numPages());
+		checkKeys(bf, 3, 1);
+
+		BufferPool.setPageSize(256);
+		Database.reset();
+		bf = load(700, true, 0.8);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		checkKeys(bf, 700, 2);
+	}
+
+	/**
+	 * Unit test that a tree keyed on a string field is valid and gets by
+	 * with fewer internal pages than full length keys would need
+	 */
+	@Test public void stringKeys() throws Exception {
+		File f = File.createTempFile("bulk", ".dat");
+		f.deleteOnExit();
+		TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE});
+		BTreeFile bf = new BTreeFile(f, 0, td);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for(int i = 0; i < 20000; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new StringField(String.format("customer-%08d", i), Type.STRING_LEN));
+			tuples.add(t);
+		}
+		int pages = bf.bulkLoad(new TupleIterator(td, tuples), 1.0);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		// full leaves, and under half the internal pages full length keys would need
+		int perLeaf = (BufferPool.getPageSize() * 8 - 3 * 4 * 8) / (Type.STRING_TYPE.getLen() * 8 + 1);
+		int leaves = (20000 + perLeaf - 1) / perLeaf;
+		int perInternal = (BufferPool.getPageSize() * 8 - 73) / ((Type.STRING_TYPE.getLen() + 4) * 8 + 1);
+		assertTrue(pages - leaves < leaves / perInternal / 2);
+
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		for(int i = 0; i < 20000; i++) {
+			assertEquals(new StringField(String.format("customer-%08d", i), Type.STRING_LEN), it.next().getField(0));
+		}
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * Unit test that unsorted input is rejected
+	 */
+	@Test(expected=DbException.class) public void unsorted() throws Exception {
+		File f = File.createTempFile("bulk", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf, 1.0);
+		loader.add(BTreeUtility.getBTreeTuple(new int[] {2, 0}));
+		loader.add(BTreeUtility.getBTreeTuple(new int[] {1, 0}));
+	}
+
+	@After
+	public void resetPageSize() {
+		BufferPool.resetPageSize();
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+	}
+}
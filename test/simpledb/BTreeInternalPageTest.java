@@ -313,6 +313,123 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChildId() on a page with empty
+	 * slots between its entries
+	 */
+	@Test public void findChildId() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(1, page.findChildId(null).getPageNumber());
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+		Iterator<BTreeEntry> it = page.iterator();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 2; i < entries.size(); i += 4)
+			page.deleteKeyAndRightChild(entries.get(i));
+
+		for (int key = 0; key < 64000; key += 89) {
+			// the child a linear scan descends to
+			BTreePageId expected = null;
+			it = page.iterator();
+			while (it.hasNext()) {
+				BTreeEntry e = it.next();
+				expected = e.getRightChild();
+				if (new IntField(key).compare(Predicate.Op.LESS_THAN_OR_EQ, e.getKey())) {
+					expected = e.getLeftChild();
+					break;
+				}
+			}
+			assertEquals(expected, page.findChildId(new IntField(key)));
+		}
+	}
+
+	/** Create an empty page of a table keyed on a string field. */
+	private BTreeInternalPage createStringKeyedPage() throws Exception {
+		BTreePageId spid = new BTreePageId(-2, -1, BTreePageId.INTERNAL);
+		Database.getCatalog().addTable(new SkeletonFile(-2,
+				new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE})), SystemTestUtil.getUUID());
+		return new BTreeInternalPage(spid, BTreeInternalPage.createEmptyPageData(), 0);
+	}
+
+	/**
+	 * Unit test that a page keyed on a string field stores short keys
+	 * compactly and reads them back
+	 */
+	@Test public void compactKeys() throws Exception {
+		BTreeInternalPage page = createStringKeyedPage();
+		BTreePageId spid = page.getId();
+		int maxEntries = page.getMaxEntries();
+		assertEquals(maxEntries, page.getNumEmptySlots());
+
+		// keys of three characters take a fraction of the space of full length ones
+		int n = 0;
+		while (page.getNumEmptySlots() > 0) {
+			BTreeEntry e = new BTreeEntry(new StringField(String.format("%03d", n), Type.STRING_LEN),
+					new BTreePageId(-2, n, BTreePageId.LEAF), new BTreePageId(-2, n + 1, BTreePageId.LEAF));
+			page.insertEntry(e);
+			n++;
+		}
+		assertEquals(n, page.getNumEntries());
+		assertTrue(n > 10 * maxEntries);
+
+		BTreeInternalPage copy = new BTreeInternalPage(spid, page.getPageData(), 0);
+		assertTrue(Arrays.equals(page.getPageData(), copy.getPageData()));
+		Iterator<BTreeEntry> it = copy.iterator();
+		for (int i = 0; i < n; i++) {
+			BTreeEntry e = it.next();
+			assertEquals(new StringField(String.format("%03d", i), Type.STRING_LEN), e.getKey());
+			assertEquals(i, e.getLeftChild().getPageNumber());
+			assertEquals(i + 1, e.getRightChild().getPageNumber());
+		}
+		assertFalse(it.hasNext());
+
+		// lengthening keys fills the page up by space rather than by count
+		page = createStringKeyedPage();
+		for (int i = 0; i <= maxEntries; i++) {
+			page.insertEntry(new BTreeEntry(new StringField(String.format("%03d", i), Type.STRING_LEN),
+					new BTreePageId(-2, i, BTreePageId.LEAF), new BTreePageId(-2, i + 1, BTreePageId.LEAF)));
+		}
+		char[] padding = new char[Type.STRING_LEN - 3];
+		Arrays.fill(padding, '9');
+		it = page.iterator();
+		for (int i = 0; i < maxEntries; i++) {
+			BTreeEntry e = it.next();
+			e.setKey(new StringField(String.format("%03d", i) + new String(padding), Type.STRING_LEN));
+			try {
+				page.updateEntry(e);
+				assertTrue(i < maxEntries - 1);
+			} catch (DbException ex) {
+				assertEquals(maxEntries - 1, i);
+			}
+		}
+		assertEquals(0, page.getNumEmptySlots());
+		copy = new BTreeInternalPage(spid, page.getPageData(), 0);
+		assertEquals(page.getNumEntries(), copy.getNumEntries());
+		assertEquals(0, copy.getNumEmptySlots());
+
+		// deleting entries gives their space back
+		it = page.iterator();
+		while (it.hasNext())
+			page.deleteKeyAndRightChild(it.next());
+		assertEquals(0, page.getNumEntries());
+		assertEquals(maxEntries, page.getNumEmptySlots());
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.separatorKey()
+	 */
+	@Test public void separatorKey() throws Exception {
+		assertEquals(new StringField("bi", Type.STRING_LEN), BTreeInternalPage.separatorKey(
+				new StringField("banana", Type.STRING_LEN), new StringField("bilberry", Type.STRING_LEN)));
+		assertEquals(new StringField("appl", Type.STRING_LEN), BTreeInternalPage.separatorKey(
+				new StringField("app", Type.STRING_LEN), new StringField("apple", Type.STRING_LEN)));
+		assertEquals(new StringField("kiwi", Type.STRING_LEN), BTreeInternalPage.separatorKey(
+				new StringField("kiwi", Type.STRING_LEN), new StringField("kiwi", Type.STRING_LEN)));
+		assertEquals(new StringField("kiwi", Type.STRING_LEN), BTreeInternalPage.separatorKey(
+				null, new StringField("kiwi", Type.STRING_LEN)));
+		assertEquals(new IntField(7), BTreeInternalPage.separatorKey(new IntField(3), new IntField(7)));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -336,6 +336,46 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.findSlot() on a page with empty slots
+	 * between its tuples and duplicate keys
+	 */
+	@Test public void findSlot() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		Iterator<Tuple> it = page.iterator();
+		while (it.hasNext())
+			tuples.add(it.next());
+		for (int i = 1; i < tuples.size(); i += 3)
+			page.deleteTuple(tuples.get(i));
+		page.insertTuple(BTreeUtility.getBTreeTuple(new int[] {22064, 1}));
+		page.insertTuple(BTreeUtility.getBTreeTuple(new int[] {22064, 2}));
+
+		for (int key = 0; key < 64000; key += 97) {
+			for (int k : new int[] {key, EXAMPLE_VALUES[key % EXAMPLE_VALUES.length][0]}) {
+				for (boolean strict : new boolean[] {false, true}) {
+					// the first slot a linear scan finds
+					int expected = page.getNumEmptySlots() + page.getNumTuples();
+					Predicate.Op op = strict ? Predicate.Op.GREATER_THAN : Predicate.Op.GREATER_THAN_OR_EQ;
+					it = page.iterator();
+					while (it.hasNext()) {
+						Tuple t = it.next();
+						if (t.getField(0).compare(op, new IntField(k))) {
+							expected = t.getRecordId().getTupleNumber();
+							break;
+						}
+					}
+					int slot = page.findSlot(new IntField(k), strict);
+					assertEquals(expected, slot);
+
+					Iterator<Tuple> from = page.iterator(slot);
+					if (from.hasNext())
+						assertTrue(from.next().getField(0).compare(op, new IntField(k)));
+				}
+			}
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
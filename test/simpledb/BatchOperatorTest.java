@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BatchOperatorTest extends SimpleDbTestBase {
+
+	/** Returns n two column int tuples {i % mod, i}. */
+	private static OpIterator ints(int n, int mod) {
+		int[] data = new int[2 * n];
+		for(int i = 0; i < n; i++) {
+			data[2 * i] = i % mod;
+			data[2 * i + 1] = i;
+		}
+		return TestUtil.createTupleList(2, data);
+	}
+
+	/** Returns every live row of an int-only batch iterator, sorted. */
+	private static List<String> rows(BatchOpIterator it) throws Exception {
+		ArrayList<String> rows = new ArrayList<String>();
+		it.open();
+		TupleBatch b;
+		while((b = it.nextBatch()) != null) {
+			assertTrue(b.numRows() > 0);
+			for(int i = 0; i < b.numRows(); i++) {
+				int r = b.row(i);
+				StringBuilder sb = new StringBuilder();
+				for(int f = 0; f < b.getTupleDesc().numFields(); f++) {
+					sb.append(b.getInt(f, r)).append(' ');
+				}
+				rows.add(sb.toString());
+			}
+		}
+		it.close();
+		Collections.sort(rows);
+		return rows;
+	}
+
+	/**
+	 * Unit test that a filter and projection over small batches give the
+	 * same tuples back through the adapters
+	 */
+	@Test public void filterProject() throws Exception {
+		BatchOpIterator scan = new TupleToBatch(ints(100, 10), 7);
+		BatchOpIterator filter = new BatchFilter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3)), scan);
+		filter = new BatchFilter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)), filter);
+		BatchOpIterator project = new BatchProject(Arrays.asList(1), filter);
+		OpIterator it = new BatchToTuple(project);
+		assertEquals(1, it.getTupleDesc().numFields());
+
+		it.open();
+		for(int i = 50; i < 100; i++) {
+			if(i % 10 < 3) {
+				assertTrue(it.hasNext());
+				assertEquals(new IntField(i), it.next().getField(0));
+			}
+		}
+		assertFalse(it.hasNext());
+
+		// rewinding starts over
+		it.rewind();
+		assertEquals(new IntField(50), it.next().getField(0));
+		it.close();
+	}
+
+	/**
+	 * Unit test for a filter on a string column
+	 */
+	@Test public void stringFilter() throws Exception {
+		OpIterator child = TestUtil.createTupleList(2, new Object[] {"apple", 1, "banana", 2, "grape", 3, "pineapple", 4});
+		OpIterator it = new BatchToTuple(new BatchFilter(
+				new Predicate(0, Predicate.Op.LIKE, new StringField("apple", Type.STRING_LEN)), new TupleToBatch(child)));
+		it.open();
+		assertEquals(new IntField(1), it.next().getField(1));
+		assertEquals(new IntField(4), it.next().getField(1));
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * Unit test that the nested loops and hash joins agree with each other
+	 * and with a brute force join, over outputs of several batches
+	 */
+	@Test public void joins() throws Exception {
+		JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		List<String> nested = rows(new BatchJoin(eq, new TupleToBatch(ints(3000, 50), 100),
+				new TupleToBatch(ints(200, 100), 64)));
+		List<String> hashed = rows(new BatchHashEquiJoin(eq, new TupleToBatch(ints(3000, 50), 100),
+				new TupleToBatch(ints(200, 100), 64)));
+
+		ArrayList<String> expected = new ArrayList<String>();
+		for(int i = 0; i < 3000; i++) {
+			for(int j = 0; j < 200; j++) {
+				if(i % 50 == j % 100) {
+					expected.add((i % 50) + " " + i + " " + (j % 100) + " " + j + " ");
+				}
+			}
+		}
+		Collections.sort(expected);
+		assertEquals(6000, expected.size());
+		assertEquals(expected, nested);
+		assertEquals(expected, hashed);
+
+		// a non-equality join
+		List<String> lt = rows(new BatchJoin(new JoinPredicate(1, Predicate.Op.LESS_THAN, 1),
+				new TupleToBatch(ints(40, 40)), new TupleToBatch(ints(40, 40))));
+		assertEquals(40 * 39 / 2, lt.size());
+	}
+
+	/**
+	 * Unit test for grouped and ungrouped aggregates
+	 */
+	@Test public void aggregates() throws Exception {
+		assertEquals(Arrays.asList("0 135 ", "1 145 ", "2 155 "),
+				rows(new BatchAggregate(new TupleToBatch(ints(30, 3), 8), 1, 0, Aggregator.Op.SUM)));
+		assertEquals(Arrays.asList("0 13 ", "1 14 ", "2 15 "),
+				rows(new BatchAggregate(new TupleToBatch(ints(30, 3), 8), 1, 0, Aggregator.Op.AVG)));
+		assertEquals(Arrays.asList("0 0 ", "1 1 ", "2 2 "),
+				rows(new BatchAggregate(new TupleToBatch(ints(30, 3), 8), 1, 0, Aggregator.Op.MIN)));
+		assertEquals(Arrays.asList("29 "),
+				rows(new BatchAggregate(new TupleToBatch(ints(30, 3), 8), 1, Aggregator.NO_GROUPING, Aggregator.Op.MAX)));
+		assertEquals(Arrays.asList("30 "),
+				rows(new BatchAggregate(new TupleToBatch(ints(30, 3), 8), 1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT)));
+
+		// count over a string column, grouped by a string column
+		OpIterator child = TestUtil.createTupleList(2, new Object[] {"a", "x", "b", "y", "a", "z"});
+		OpIterator it = new BatchToTuple(new BatchAggregate(new TupleToBatch(child), 1, 0, Aggregator.Op.COUNT));
+		it.open();
+		Tuple t = it.next();
+		assertEquals(new StringField("a", Type.STRING_LEN), t.getField(0));
+		assertEquals(new IntField(2), t.getField(1));
+		assertEquals(new IntField(1), it.next().getField(1));
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * Unit test that unsupported aggregates are rejected
+	 */
+	@Test(expected=IllegalArgumentException.class) public void stringSum() throws Exception {
+		OpIterator child = TestUtil.createTupleList(2, new Object[] {"a", "x"});
+		new BatchAggregate(new TupleToBatch(child), 1, 0, Aggregator.Op.SUM);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BatchOperatorTest.class);
+	}
+}
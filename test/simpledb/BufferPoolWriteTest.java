@@ -116,6 +116,49 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
         }
     }
     
+    /**
+     * Unit test for BufferPool.insertTuples() and BufferPool.deleteTuples()
+     */
+    @Test public void batches() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 2 + 10; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().insertTuples(tid, empty.getId(), tuples);
+        assertEquals(3, empty.numPages());
+        for (Tuple t : tuples) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_ONLY);
+            assertEquals(tid, p.isDirty());
+        }
+
+        // delete every other tuple of the first two pages
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 2; i += 2)
+            deleted.add(tuples.get(i));
+        Database.getBufferPool().deleteTuples(tid, deleted);
+        for (int pgNo = 0; pgNo < 2; pgNo++) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(empty.getId(), pgNo), Permissions.READ_ONLY);
+            assertEquals(252, p.getNumEmptySlots());
+        }
+
+        // the free-space map sends the next batch to the room left, on
+        // whichever pages the transaction's search starts from
+        int free = emptySlots(3);
+        ArrayList<Tuple> more = new ArrayList<Tuple>();
+        for (int i = 0; i < 300; ++i)
+            more.add(Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().insertTuples(tid, empty.getId(), more);
+        assertEquals(3, empty.numPages());
+        assertEquals(free - 300, emptySlots(3));
+    }
+
+    /** @return the number of empty slots on the first pages of empty */
+    private int emptySlots(int pages) throws Exception {
+        int n = 0;
+        for (int pgNo = 0; pgNo < pages; pgNo++)
+            n += ((HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(empty.getId(), pgNo), Permissions.READ_ONLY)).getNumEmptySlots();
+        return n;
+    }
+
     @Test public void handleManyDirtyPages() throws Exception {
     	HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 10);
     	Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
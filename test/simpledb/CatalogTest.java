@@ -93,6 +93,43 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /** A SkeletonFile that counts how often it is closed. */
+    private static class ClosingFile extends SkeletonFile {
+        int closed = 0;
+
+        ClosingFile(int tableid) {
+            super(tableid, Utility.getTupleDesc(2));
+        }
+
+        public void close() {
+            closed++;
+        }
+    }
+
+    /**
+     * Check that the file of a table replaced by name or id, or cleared, is closed
+     */
+    @Test public void closeDroppedFiles() throws Exception {
+        ClosingFile byName = new ClosingFile(r.nextInt());
+        ClosingFile byId = new ClosingFile(r.nextInt());
+        String newName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(byName, newName);
+        Database.getCatalog().addTable(byId, SystemTestUtil.getUUID());
+
+        // renaming a table keeps its file open
+        Database.getCatalog().addTable(byId, SystemTestUtil.getUUID());
+        assertEquals(0, byId.closed);
+
+        Database.getCatalog().addTable(new SkeletonFile(r.nextInt(), Utility.getTupleDesc(2)), newName);
+        assertEquals(1, byName.closed);
+        ClosingFile replacement = new ClosingFile(byId.getId());
+        Database.getCatalog().addTable(replacement, SystemTestUtil.getUUID());
+        assertEquals(1, byId.closed);
+
+        Database.getCatalog().clear();
+        assertEquals(1, replacement.closed);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+	/** Returns two column tuples {key, i} for the given keys. */
+	private static TupleIterator tuples(int[] keys) {
+		int[] data = new int[2 * keys.length];
+		for(int i = 0; i < keys.length; i++) {
+			data[2 * i] = keys[i];
+			data[2 * i + 1] = i;
+		}
+		return TestUtil.createTupleList(2, data);
+	}
+
+	private static int[] randomKeys(int n) {
+		Random r = new Random(42);
+		int[] keys = new int[n];
+		for(int i = 0; i < n; i++) {
+			keys[i] = r.nextInt(n);
+		}
+		return keys;
+	}
+
+	/** Sort the keys and check the output, twice over; returns the sort. */
+	private static ExternalSort check(int[] keys, int maxTuples, int fanIn) throws Exception {
+		TupleIterator it = tuples(keys);
+		ExternalSort sort = new ExternalSort(it.getTupleDesc(), new TupleComparator(0, true), maxTuples, fanIn);
+		sort.sort(it);
+		int[] expected = keys.clone();
+		Arrays.sort(expected);
+		for(int pass = 0; pass < 2; pass++) {
+			for(int i = 0; i < expected.length; i++) {
+				Tuple t = sort.next();
+				assertEquals(new IntField(expected[i]), t.getField(0));
+				// the whole tuple comes back
+				assertEquals(expected[i], keys[((IntField) t.getField(1)).getValue()]);
+			}
+			assertNull(sort.next());
+			sort.rewind();
+		}
+		return sort;
+	}
+
+	/**
+	 * Unit test that an input many times the memory budget is sorted,
+	 * including with more runs than can be merged at once
+	 */
+	@Test public void spills() throws Exception {
+		int[] keys = randomKeys(20000);
+		ExternalSort sort = check(keys, 100, 3);
+		assertTrue(sort.numRuns() > 1 && sort.numRuns() <= 3);
+		sort.close();
+
+		sort = check(keys, 100, 1000);
+		assertTrue(sort.numRuns() > 3);
+		sort.close();
+	}
+
+	/**
+	 * Unit test that replacement selection makes runs about twice the size
+	 * of memory from random input, and a single run from sorted input
+	 */
+	@Test public void replacementSelection() throws Exception {
+		int[] keys = randomKeys(20000);
+		ExternalSort sort = check(keys, 1000, 1000);
+		assertTrue(sort.numRuns() >= 8 && sort.numRuns() <= 12);
+		sort.close();
+
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		sort = check(sorted, 1000, 1000);
+		assertEquals(1, sort.numRuns());
+		sort.close();
+	}
+
+	/**
+	 * Unit test that a small input is sorted in memory
+	 */
+	@Test public void inMemory() throws Exception {
+		ExternalSort sort = check(randomKeys(100), 100, 2);
+		assertEquals(0, sort.numRuns());
+		sort.close();
+		sort = check(new int[0], 100, 2);
+		sort.close();
+	}
+
+	/**
+	 * Unit test that OrderBy sorts string fields in descending order through
+	 * spilled runs
+	 */
+	@Test public void orderByStrings() throws Exception {
+		Object[] data = new Object[2 * 1000];
+		for(int i = 0; i < 1000; i++) {
+			data[2 * i] = String.format("k%04d", (i * 7919) % 1000);
+			data[2 * i + 1] = i;
+		}
+		OpIterator child = TestUtil.createTupleList(2, data);
+		OrderBy ob = new OrderBy(0, false, child, 50 * child.getTupleDesc().getSize());
+		ob.open();
+		for(int i = 999; i >= 0; i--) {
+			assertEquals(new StringField(String.format("k%04d", i), Type.STRING_LEN), ob.next().getField(0));
+		}
+		assertFalse(ob.hasNext());
+		ob.close();
+	}
+
+	/**
+	 * Unit test that tuples keep their RecordIds through a spill file
+	 */
+	@Test public void spillKeepsRecordIds() throws Exception {
+		TupleIterator it = tuples(new int[] { 1, 2 });
+		SpillFile spill = new SpillFile(it.getTupleDesc());
+		it.open();
+		Tuple t = it.next();
+		RecordId rid = new RecordId(new BTreePageId(7, 3, BTreePageId.LEAF), 5);
+		t.setRecordId(rid);
+		spill.add(t);
+		spill.add(it.next());
+		SpillFile.Reader r = spill.reader();
+		assertEquals(rid, r.next().getRecordId());
+		assertNull(r.next().getRecordId());
+		assertNull(r.next());
+		r.close();
+		spill.delete();
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ExternalSortTest.class);
+	}
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.io.File;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest {
+	private File f;
+	private FreeSpaceMap fsm;
+
+	@Before public void setUp() throws Exception {
+		f = File.createTempFile("freespace", ".fsm");
+		f.deleteOnExit();
+		fsm = new FreeSpaceMap(f);
+	}
+
+	@After public void tearDown() throws Exception {
+		fsm.close();
+		f.delete();
+	}
+
+	/**
+	 * Unit test that findPage skips full pages and offers pages the map
+	 * has not seen
+	 */
+	@Test public void findPage() throws Exception {
+		assertEquals(-1, fsm.findPage(0));
+		assertEquals(0, fsm.findPage(3));
+
+		fsm.update(0, 0, 100);
+		fsm.update(1, 0, 100);
+		assertEquals(2, fsm.findPage(3));
+		fsm.update(2, 1, 100);
+		assertEquals(2, fsm.findPage(3));
+		fsm.update(2, 0, 100);
+		assertEquals(-1, fsm.findPage(3));
+		assertEquals(3, fsm.findPage(4));
+
+		// a delete gives a page its room back
+		fsm.update(1, 5, 100);
+		assertEquals(1, fsm.findPage(4));
+
+		// pages skipped over are unknown
+		fsm.update(6, 0, 100);
+		assertEquals(1, fsm.findPage(7));
+		fsm.update(1, 0, 100);
+		assertEquals(3, fsm.findPage(7));
+	}
+
+	/**
+	 * Unit test that free space is recorded approximately but never
+	 * rounded down to full
+	 */
+	@Test public void categories() throws Exception {
+		assertEquals(-1.0, fsm.getFreeSpace(0), 0);
+		fsm.update(0, 1000, 1000);
+		fsm.update(1, 1, 1000);
+		fsm.update(2, 500, 1000);
+		assertEquals(1.0, fsm.getFreeSpace(0), 0);
+		assertTrue(fsm.getFreeSpace(1) > 0);
+		assertEquals(0.5, fsm.getFreeSpace(2), 1.0 / FreeSpaceMap.MAX_CATEGORY);
+	}
+
+	/**
+	 * Unit test that the map survives reopening
+	 */
+	@Test public void persistence() throws Exception {
+		fsm.update(0, 0, 10);
+		fsm.update(1, 3, 10);
+		fsm.update(2, 0, 10);
+		fsm.close();
+
+		fsm = new FreeSpaceMap(f);
+		assertEquals(1, fsm.findPage(3));
+		assertEquals(0.3, fsm.getFreeSpace(1), 1.0 / FreeSpaceMap.MAX_CATEGORY);
+		assertEquals(0.0, fsm.getFreeSpace(2), 0);
+	}
+
+	/**
+	 * Unit test that different callers start their searches at different
+	 * pages, and each keeps getting the same page until it is full
+	 */
+	@Test public void spreadCallers() throws Exception {
+		int pages = 64;
+		for (int i = 0; i < pages; i++)
+			fsm.update(i, 10, 100);
+		HashSet<Integer> found = new HashSet<Integer>();
+		for (long caller = 1; caller <= 16; caller++) {
+			int pgNo = fsm.findPage(pages, caller);
+			assertEquals(pgNo, fsm.findPage(pages, caller));
+			found.add(pgNo);
+		}
+		assertTrue(found.size() > 8);
+
+		// the search wraps around
+		for (int i = 1; i < pages; i++)
+			fsm.update(i, 0, 100);
+		for (long caller = 1; caller <= 16; caller++)
+			assertEquals(0, fsm.findPage(pages, caller));
+	}
+
+	/**
+	 * Unit test that forgotten pages are offered again, and that clear
+	 * forgets every page
+	 */
+	@Test public void forget() throws Exception {
+		fsm.update(0, 0, 100);
+		fsm.update(1, 0, 100);
+		assertEquals(-1, fsm.findPage(2));
+		fsm.forget(1);
+		assertEquals(1, fsm.findPage(2));
+		assertEquals(-1.0, fsm.getFreeSpace(1), 0);
+
+		fsm.update(1, 0, 100);
+		fsm.clear();
+		assertEquals(0, fsm.findPage(2));
+		assertEquals(-1.0, fsm.getFreeSpace(0), 0);
+	}
+
+	/**
+	 * Unit test that updates are written back in batches
+	 */
+	@Test public void writeBack() throws Exception {
+		fsm.update(0, 0, 100);
+		assertEquals(0, f.length());
+		for (int i = 1; i < FreeSpaceMap.WRITE_BACK_UPDATES; i++)
+			fsm.update(i, 0, 100);
+		assertEquals(FreeSpaceMap.WRITE_BACK_UPDATES, f.length());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+	}
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+	private static final int THREADS = 8;
+	private static final int COMMITS_PER_THREAD = 20;
+
+	private File file;
+	private LogFile log;
+
+	@Before public void createLog() throws Exception {
+		file = File.createTempFile("groupcommit", ".log");
+		file.deleteOnExit();
+		log = new LogFile(file);
+	}
+
+	@After public void tearDown() throws Exception {
+		log.disableGroupCommit();
+		new SegmentedLog(file, LogFile.DEFAULT_SEGMENT_SIZE).clear();
+		file.delete();
+	}
+
+	private void commitConcurrently() throws Exception {
+		Thread[] workers = new Thread[THREADS];
+		final Exception[] failure = new Exception[1];
+		for (int t = 0; t < THREADS; t++) {
+			workers[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < COMMITS_PER_THREAD; i++)
+							log.logCommit(new TransactionId());
+					} catch (Exception e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					}
+				}
+			};
+		}
+		for (Thread w : workers)
+			w.start();
+		for (Thread w : workers)
+			w.join();
+		if (failure[0] != null)
+			throw failure[0];
+		assertEquals(THREADS * COMMITS_PER_THREAD, log.getTotalRecords());
+	}
+
+	/**
+	 * Unit test that without group commit every commit forces the log
+	 */
+	@Test public void forcePerCommit() throws Exception {
+		commitConcurrently();
+		assertEquals(THREADS * COMMITS_PER_THREAD, log.getTotalForces());
+	}
+
+	/**
+	 * Unit test that group commit shares forces between concurrent commits
+	 */
+	@Test public void groupCommit() throws Exception {
+		log.enableGroupCommit(5000, THREADS);
+		commitConcurrently();
+		assertTrue(log.getTotalForces() < THREADS * COMMITS_PER_THREAD);
+	}
+
+	/**
+	 * Unit test that a lone commit is forced once the wait time is up
+	 */
+	@Test public void loneCommit() throws Exception {
+		log.enableGroupCommit(1000, THREADS);
+		log.logCommit(new TransactionId());
+		assertEquals(1, log.getTotalForces());
+	}
+
+	/**
+	 * Unit test that records a commit has forced are not forced again
+	 */
+	@Test public void forceThroughCommit() throws Exception {
+		log.enableGroupCommit(1000, THREADS);
+		log.logCommit(new TransactionId());
+		log.forceThrough(log.getTotalRecords());
+		assertEquals(1, log.getTotalForces());
+		log.logXactionBegin(new TransactionId());
+		log.forceThrough(log.getTotalRecords());
+		assertEquals(2, log.getTotalForces());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(GroupCommitTest.class);
+	}
+}
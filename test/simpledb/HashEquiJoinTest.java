@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+	/** A TupleIterator that counts how often it is rewound. */
+	private static class CountingIterator extends TupleIterator {
+		private static final long serialVersionUID = 1L;
+		int rewinds = 0;
+
+		CountingIterator(TupleDesc td, Iterable<Tuple> tuples) {
+			super(td, tuples);
+		}
+
+		public void rewind() {
+			rewinds++;
+			super.rewind();
+		}
+	}
+
+	/** Returns n two column tuples {i % mod, i}. */
+	private static CountingIterator ints(int n, int mod) {
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for(int i = 0; i < n; i++) {
+			Tuple t = new Tuple(Utility.getTupleDesc(2));
+			t.setField(0, new IntField(i % mod));
+			t.setField(1, new IntField(i));
+			tuples.add(t);
+		}
+		return new CountingIterator(Utility.getTupleDesc(2), tuples);
+	}
+
+	/** Join n1 and n2 tuples on their keys and check the result against a nested loop. */
+	private static void check(int n1, int mod1, int n2, int mod2, long memory, boolean rewinds) throws Exception {
+		CountingIterator left = ints(n1, mod1);
+		CountingIterator right = ints(n2, mod2);
+		HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right, memory);
+		join.open();
+		ArrayList<String> actual = new ArrayList<String>();
+		while(join.hasNext()) {
+			Tuple t = join.next();
+			assertEquals(t.getField(0), t.getField(2));
+			actual.add(t.getField(1) + " " + t.getField(3));
+		}
+		join.close();
+		assertEquals(rewinds, right.rewinds > 0);
+
+		ArrayList<String> expected = new ArrayList<String>();
+		for(int i = 0; i < n1; i++) {
+			for(int j = 0; j < n2; j++) {
+				if(i % mod1 == j % mod2) {
+					expected.add(i + " " + j);
+				}
+			}
+		}
+		Collections.sort(actual);
+		Collections.sort(expected);
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Unit test for a join whose build side fits in memory
+	 */
+	@Test public void inMemory() throws Exception {
+		check(2000, 300, 1000, 500, HashEquiJoin.DEFAULT_MEMORY, false);
+	}
+
+	/**
+	 * Unit test that a build side many times the memory budget is
+	 * partitioned, without rescanning the probe side
+	 */
+	@Test public void partitioned() throws Exception {
+		int tupleSize = Utility.getTupleDesc(2).getSize();
+		check(5000, 2000, 3000, 4000, 100 * tupleSize, false);
+		check(20000, 20000, 20000, 20000, 1000 * tupleSize, false);
+	}
+
+	/**
+	 * Unit test that a partition of a single key, which no hash can split,
+	 * is still joined
+	 */
+	@Test public void skewed() throws Exception {
+		int tupleSize = Utility.getTupleDesc(2).getSize();
+		check(3000, 1, 50, 25, 100 * tupleSize, false);
+		check(300, 1, 7, 1, 100 * tupleSize, false);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HashEquiJoinTest.class);
+	}
+}
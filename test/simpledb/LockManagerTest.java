@@ -0,0 +1,303 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest {
+
+	private static final PageId P0 = new BTreePageId(1, 0, BTreePageId.LEAF);
+	private static final PageId P1 = new BTreePageId(1, 1, BTreePageId.LEAF);
+
+	/** Acquire a lock on a new thread, recording the abort if there is one. */
+	private static Thread acquire(final LockManager lm, final TransactionId tid, final PageId pid,
+			final Permissions perm, final AtomicReference<TransactionId> aborted) {
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					lm.acquire(tid, pid, perm);
+				} catch (TransactionAbortedException e) {
+					aborted.set(tid);
+					lm.releaseAll(tid);
+				}
+			}
+		};
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Unit test for shared and exclusive lock compatibility
+	 */
+	@Test public void compatibility() throws Exception {
+		LockManager lm = new LockManager();
+		TransactionId t1 = new TransactionId();
+		TransactionId t2 = new TransactionId();
+		lm.acquire(t1, P0, Permissions.READ_ONLY);
+		lm.acquire(t2, P0, Permissions.READ_ONLY);
+		assertTrue(lm.holdsLock(t1, P0));
+		assertTrue(lm.holdsLock(t2, P0));
+
+		lm.releaseAll(t2);
+		// the only reader may upgrade
+		lm.acquire(t1, P0, Permissions.READ_WRITE);
+		assertTrue(lm.holdsExclusive(t1, P0));
+		assertFalse(lm.holdsLock(t2, P0));
+	}
+
+	/**
+	 * Unit test that a lock the transaction already holds is granted
+	 * without the manager's monitor
+	 */
+	@Test public void heldLockFastPath() throws Exception {
+		final LockManager lm = new LockManager();
+		TransactionId tid = new TransactionId();
+		lm.acquire(tid, P0, Permissions.READ_WRITE);
+		final Object monitorHeld = new Object();
+		Thread blocker = new Thread() {
+			public void run() {
+				synchronized (lm) {
+					synchronized (monitorHeld) {
+						monitorHeld.notifyAll();
+					}
+					try {
+						Thread.sleep(2000);
+					} catch (InterruptedException e) {
+						// done
+					}
+				}
+			}
+		};
+		synchronized (monitorHeld) {
+			blocker.start();
+			monitorHeld.wait();
+		}
+		long start = System.currentTimeMillis();
+		lm.acquire(tid, P0, Permissions.READ_ONLY);
+		lm.acquire(tid, P0, Permissions.READ_WRITE);
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		blocker.interrupt();
+		blocker.join();
+	}
+
+	/**
+	 * Unit test that tryAcquireShared never waits, and leaves no lock
+	 * behind when it fails
+	 */
+	@Test public void tryAcquireShared() throws Exception {
+		LockManager lm = new LockManager();
+		TransactionId writer = new TransactionId();
+		TransactionId reader = new TransactionId();
+		lm.acquire(writer, P0, Permissions.READ_WRITE);
+		assertFalse(lm.tryAcquireShared(reader, P0));
+		assertNull(lm.getTableMode(reader, 1));
+		assertTrue(lm.tryAcquireShared(reader, P1));
+		assertTrue(lm.holdsLock(reader, P1));
+
+		lm.releaseAll(writer);
+		assertTrue(lm.tryAcquireShared(reader, P0));
+		assertFalse(lm.holdsExclusive(reader, P0));
+	}
+
+	/**
+	 * Unit test that a deadlock is broken at once by aborting the younger
+	 * transaction
+	 */
+	@Test public void deadlock() throws Exception {
+		LockManager lm = new LockManager();
+		TransactionId older = new TransactionId();
+		TransactionId younger = new TransactionId();
+		lm.acquire(older, P0, Permissions.READ_ONLY);
+		lm.acquire(younger, P1, Permissions.READ_ONLY);
+
+		AtomicReference<TransactionId> aborted = new AtomicReference<TransactionId>();
+		long start = System.currentTimeMillis();
+		Thread t1 = acquire(lm, older, P1, Permissions.READ_WRITE, aborted);
+		Thread t2 = acquire(lm, younger, P0, Permissions.READ_WRITE, aborted);
+		t1.join(5000);
+		t2.join(5000);
+
+		assertFalse(t1.isAlive() || t2.isAlive());
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(younger, aborted.get());
+		assertEquals(1, lm.getDeadlocks());
+		assertTrue(lm.holdsExclusive(older, P1));
+	}
+
+	/**
+	 * Unit test that two readers upgrading the same page deadlock
+	 */
+	@Test public void upgradeDeadlock() throws Exception {
+		LockManager lm = new LockManager();
+		TransactionId older = new TransactionId();
+		TransactionId younger = new TransactionId();
+		lm.acquire(older, P0, Permissions.READ_ONLY);
+		lm.acquire(younger, P0, Permissions.READ_ONLY);
+
+		AtomicReference<TransactionId> aborted = new AtomicReference<TransactionId>();
+		Thread t1 = acquire(lm, older, P0, Permissions.READ_WRITE, aborted);
+		Thread t2 = acquire(lm, younger, P0, Permissions.READ_WRITE, aborted);
+		t1.join(5000);
+		t2.join(5000);
+
+		assertEquals(younger, aborted.get());
+		assertTrue(lm.holdsExclusive(older, P0));
+	}
+
+	/**
+	 * Unit test that a transaction waiting without a cycle is not aborted
+	 */
+	@Test public void noFalseAbort() throws Exception {
+		LockManager lm = new LockManager();
+		TransactionId holder = new TransactionId();
+		TransactionId waiter = new TransactionId();
+		lm.acquire(holder, P0, Permissions.READ_WRITE);
+
+		AtomicReference<TransactionId> aborted = new AtomicReference<TransactionId>();
+		Thread t = acquire(lm, waiter, P0, Permissions.READ_ONLY, aborted);
+		t.join(200);
+		assertTrue(t.isAlive());
+		lm.releaseAll(holder);
+		t.join(5000);
+		assertNull(aborted.get());
+		assertTrue(lm.holdsLock(waiter, P0));
+	}
+
+	/**
+	 * Unit test that deadlock detection passes a waiter whose holders have
+	 * all released the lock it waits for, but which has not woken yet
+	 */
+	@Test public void releasedWhileParked() throws Exception {
+		final LockManager lm = new LockManager();
+		TransactionId holder = new TransactionId();
+		final TransactionId waiter = new TransactionId();
+		TransactionId other = new TransactionId();
+		lm.acquire(holder, P0, Permissions.READ_WRITE);
+		lm.acquire(waiter, P1, Permissions.READ_ONLY);
+
+		final AtomicReference<TransactionId> aborted = new AtomicReference<TransactionId>();
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					lm.acquire(waiter, P0, Permissions.READ_WRITE);
+				} catch (TransactionAbortedException e) {
+					aborted.set(waiter);
+				}
+				lm.releaseAll(waiter);
+			}
+		};
+		t.start();
+		t.join(200);
+		assertTrue(t.isAlive());
+		synchronized (lm) {
+			// the waiter cannot wake until other's request parks
+			lm.releaseAll(holder);
+			lm.acquire(other, P1, Permissions.READ_WRITE);
+		}
+		t.join(5000);
+		assertNull(aborted.get());
+		assertTrue(lm.holdsExclusive(other, P1));
+	}
+
+	/**
+	 * Unit test for the compatibility and join of hierarchical lock modes
+	 */
+	@Test public void modes() {
+		LockManager.Mode IS = LockManager.Mode.IS, IX = LockManager.Mode.IX,
+			S = LockManager.Mode.S, SIX = LockManager.Mode.SIX, X = LockManager.Mode.X;
+		assertTrue(IS.isCompatible(SIX));
+		assertTrue(IX.isCompatible(IX));
+		assertFalse(IX.isCompatible(S));
+		assertFalse(SIX.isCompatible(IX));
+		assertFalse(X.isCompatible(IS));
+		assertEquals(SIX, S.join(IX));
+		assertEquals(S, IS.join(S));
+		assertEquals(X, SIX.join(X));
+	}
+
+	/**
+	 * Unit test that page locks take intention locks on the table, and
+	 * that these block a conflicting table lock
+	 */
+	@Test public void intentionLocks() throws Exception {
+		LockManager lm = new LockManager();
+		TransactionId writer = new TransactionId();
+		final TransactionId reader = new TransactionId();
+		lm.acquire(writer, P0, Permissions.READ_WRITE);
+		assertEquals(LockManager.Mode.IX, lm.getTableMode(writer, 1));
+
+		final LockManager l = lm;
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					l.acquireTable(reader, 1, LockManager.Mode.S);
+				} catch (TransactionAbortedException e) {
+					// not expected
+				}
+			}
+		};
+		t.start();
+		t.join(200);
+		assertTrue(t.isAlive());
+		lm.releaseAll(writer);
+		t.join(5000);
+		assertEquals(LockManager.Mode.S, lm.getTableMode(reader, 1));
+		// the table lock covers every page for reading
+		assertTrue(lm.holdsLock(reader, P1));
+		assertFalse(lm.holdsExclusive(reader, P1));
+	}
+
+	/**
+	 * Unit test that many page locks on one table are escalated to a
+	 * table lock
+	 */
+	@Test public void escalation() throws Exception {
+		LockManager lm = new LockManager();
+		lm.setEscalationThreshold(10);
+		TransactionId scanner = new TransactionId();
+		for (int i = 0; i < 100; i++)
+			lm.acquire(scanner, new BTreePageId(1, i, BTreePageId.LEAF), Permissions.READ_ONLY);
+		assertEquals(LockManager.Mode.S, lm.getTableMode(scanner, 1));
+		assertEquals(1, lm.getEscalations());
+		assertTrue(lm.getNumLocks() <= 10);
+		assertTrue(lm.holdsLock(scanner, new BTreePageId(1, 500, BTreePageId.LEAF)));
+
+		// a write under the S table lock needs IX too, making it SIX
+		lm.acquire(scanner, P0, Permissions.READ_WRITE);
+		assertEquals(LockManager.Mode.SIX, lm.getTableMode(scanner, 1));
+		assertTrue(lm.holdsExclusive(scanner, P0));
+
+		lm.releaseAll(scanner);
+		assertEquals(0, lm.getNumLocks());
+	}
+
+	/**
+	 * Unit test that escalation is skipped while another transaction holds
+	 * a conflicting lock on the table
+	 */
+	@Test public void escalationConflict() throws Exception {
+		LockManager lm = new LockManager();
+		lm.setEscalationThreshold(10);
+		TransactionId other = new TransactionId();
+		TransactionId scanner = new TransactionId();
+		lm.acquire(other, new BTreePageId(1, 1000, BTreePageId.LEAF), Permissions.READ_WRITE);
+		for (int i = 0; i < 20; i++)
+			lm.acquire(scanner, new BTreePageId(1, i, BTreePageId.LEAF), Permissions.READ_ONLY);
+		assertEquals(LockManager.Mode.IS, lm.getTableMode(scanner, 1));
+		assertEquals(0, lm.getEscalations());
+		assertTrue(lm.holdsLock(scanner, P1));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(LockManagerTest.class);
+	}
+}
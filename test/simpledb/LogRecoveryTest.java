@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.*;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogRecoveryTest extends SimpleDbTestBase {
+
+	private static final int PAGES = 16;
+
+	/** A table of header pages kept in memory, standing in for the disk. */
+	private static class MemoryFile extends TestUtil.SkeletonFile {
+		final HashMap<Integer, byte[]> disk = new HashMap<Integer, byte[]>();
+
+		MemoryFile(int tableid) {
+			super(tableid, Utility.getTupleDesc(1));
+		}
+
+		public synchronized Page readPage(PageId id) {
+			byte[] data = disk.get(id.getPageNumber());
+			return parsePage(id, data != null ? data.clone() : BTreeHeaderPage.createEmptyPageData());
+		}
+
+		public Page parsePage(PageId id, byte[] data) {
+			try {
+				return new BTreeHeaderPage((BTreePageId) id, data);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public synchronized void writePage(Page p) {
+			disk.put(p.getId().getPageNumber(), p.getPageData());
+		}
+
+		boolean slotUsed(int pgNo, int slot) {
+			return ((BTreeHeaderPage) readPage(pid(pgNo))).isSlotUsed(slot);
+		}
+	}
+
+	private static int tableid;
+	private MemoryFile file;
+	private File logPath;
+
+	private static BTreePageId pid(int pgNo) {
+		return new BTreePageId(tableid, pgNo, BTreePageId.HEADER);
+	}
+
+	@Before public void setUp() throws IOException {
+		tableid = SystemTestUtil.getUUID().hashCode();
+		file = new MemoryFile(tableid);
+		Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+		logPath = File.createTempFile("recovery", ".log");
+	}
+
+	@After public void tearDown() throws IOException {
+		new SegmentedLog(logPath, LogFile.DEFAULT_SEGMENT_SIZE).clear();
+		logPath.delete();
+	}
+
+	/** Log that tid set the given slot on every page, and write the pages. */
+	private void update(LogFile log, TransactionId tid, int slot) throws IOException {
+		for (int i = 0; i < PAGES; i++) {
+			BTreeHeaderPage page = (BTreeHeaderPage) file.readPage(pid(i));
+			BTreeHeaderPage before = page.getBeforeImage();
+			page.markSlotUsed(slot, true);
+			log.logWrite(tid, before, page);
+			file.writePage(page);
+		}
+	}
+
+	/**
+	 * Unit test that recovery redoes committed updates that did not reach
+	 * the disk and undoes the updates of unfinished transactions, with
+	 * pages replayed on several threads
+	 */
+	@Test public void redoUndo() throws IOException {
+		LogFile log = new LogFile(logPath);
+		TransactionId committed = new TransactionId();
+		TransactionId loser = new TransactionId();
+		log.logXactionBegin(committed);
+		update(log, committed, 1);
+		log.logCommit(committed);
+		log.logXactionBegin(loser);
+		update(log, loser, 2);
+		log.force();
+
+		// crash: the committed updates were lost, the loser's are on disk
+		for (int i = 0; i < PAGES; i++) {
+			BTreeHeaderPage page = (BTreeHeaderPage) file.readPage(pid(i));
+			page.markSlotUsed(1, false);
+			file.writePage(page);
+		}
+
+		log = new LogFile(logPath);
+		log.setRecoveryThreads(4);
+		log.recover();
+		for (int i = 0; i < PAGES; i++) {
+			assertTrue(file.slotUsed(i, 1));
+			assertFalse(file.slotUsed(i, 2));
+		}
+		assertTrue(log.getRecoveryMillis().keySet().containsAll(
+				java.util.Arrays.asList("analysis", "redo", "undo")));
+
+		// the loser is logged as aborted, so a second recovery keeps the state
+		log = new LogFile(logPath);
+		log.recover();
+		assertFalse(file.slotUsed(0, 2));
+		assertEquals(true, file.slotUsed(0, 1));
+	}
+
+	/**
+	 * Unit test that a checkpoint taken after a committing transaction's
+	 * updates are logged, but before its pages are written, keeps the
+	 * updates in redo
+	 */
+	@Test public void checkpointBeforeFlush() throws Exception {
+		LogFile log = Database.getLogFile();
+		BufferPool bp = Database.getBufferPool();
+		TransactionId tid = new TransactionId();
+		log.logXactionBegin(tid);
+		for (int i = 0; i < PAGES; i++) {
+			BTreeHeaderPage page = (BTreeHeaderPage) bp.getPage(tid, pid(i), Permissions.READ_WRITE);
+			page.markSlotUsed(1, true);
+			page.markDirty(true, tid);
+		}
+		bp.logPages(tid);
+		log.logCommit(tid);
+		log.logCheckpoint();
+
+		// crash before flushPages(tid): the pages never reached the disk
+		log = new LogFile(new File("log"));
+		log.recover();
+		for (int i = 0; i < PAGES; i++)
+			assertTrue(file.slotUsed(i, 1));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(LogRecoveryTest.class);
+	}
+}
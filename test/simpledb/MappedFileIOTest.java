@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedFileIOTest {
+	private static final int CHUNK = 1024;
+
+	private File f;
+	private MappedFileIO io;
+
+	private static byte[] bytes(int len, int fill) {
+		byte[] data = new byte[len];
+		Arrays.fill(data, (byte) fill);
+		return data;
+	}
+
+	@Before public void setUp() throws Exception {
+		f = File.createTempFile("mappedio", ".dat");
+		f.deleteOnExit();
+		io = new MappedFileIO(f, CHUNK);
+	}
+
+	@After public void tearDown() throws Exception {
+		io.close();
+		f.delete();
+	}
+
+	/**
+	 * Unit test for MappedFileIO.append() and MappedFileIO.read()
+	 */
+	@Test public void appendRead() throws Exception {
+		assertEquals(0, io.append(bytes(600, 1)));
+		assertEquals(600, io.append(bytes(600, 2)));
+		assertEquals(1200, io.length());
+
+		// spans the boundary between the first and second chunk
+		byte[] data = new byte[200];
+		io.read(500, data);
+		for (int i = 0; i < data.length; i++)
+			assertEquals(i < 100 ? 1 : 2, data[i]);
+	}
+
+	/**
+	 * Unit test that a partially mapped chunk is remapped when the file grows
+	 */
+	@Test public void growMapping() throws Exception {
+		io.append(bytes(100, 1));
+		byte[] data = new byte[100];
+		io.read(0, data);
+		io.append(bytes(100, 2));
+		io.read(100, data);
+		assertTrue(Arrays.equals(bytes(100, 2), data));
+	}
+
+	/**
+	 * Unit test that writes are visible through mapped and unmapped regions
+	 */
+	@Test public void overwrite() throws Exception {
+		io.append(bytes(3 * CHUNK, 0));
+		byte[] data = new byte[3 * CHUNK];
+		io.read(0, data);
+		io.write(CHUNK - 10, bytes(20, 7));
+		io.read(CHUNK - 20, data = new byte[40]);
+		for (int i = 0; i < data.length; i++)
+			assertEquals(i >= 10 && i < 30 ? 7 : 0, data[i]);
+		io.force();
+		assertEquals(3 * CHUNK, f.length());
+	}
+
+	/**
+	 * Unit test that reading past the end of the file fails
+	 */
+	@Test public void readPastEnd() throws Exception {
+		io.append(bytes(10, 1));
+		try {
+			io.read(5, new byte[10]);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// explicitly ignored
+		}
+	}
+
+	/**
+	 * Unit test that concurrent readers see whole pages while the file grows
+	 * and is remapped
+	 */
+	@Test public void concurrentReads() throws Exception {
+		final int pages = 64, pageSize = 100;
+		io.append(bytes(pageSize, 0));
+		final Exception[] failure = new Exception[1];
+		final int[] written = new int[] { 1 };
+		Thread[] readers = new Thread[4];
+		for (int t = 0; t < readers.length; t++) {
+			readers[t] = new Thread() {
+				public void run() {
+					byte[] data = new byte[pageSize];
+					try {
+						for (int i = 0; i < 2000; i++) {
+							int n;
+							synchronized (written) {
+								n = written[0];
+							}
+							int page = i % n;
+							io.read((long) page * pageSize, data);
+							assertTrue(Arrays.equals(bytes(pageSize, page), data));
+						}
+					} catch (Exception e) {
+						failure[0] = e;
+					} catch (AssertionError e) {
+						failure[0] = new Exception(e);
+					}
+				}
+			};
+			readers[t].start();
+		}
+		for (int page = 1; page < pages; page++) {
+			io.append(bytes(pageSize, page));
+			synchronized (written) {
+				written[0] = page + 1;
+			}
+		}
+		for (Thread t : readers)
+			t.join();
+		if (failure[0] != null)
+			throw failure[0];
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(MappedFileIOTest.class);
+	}
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageDeltaTest {
+
+	private static final BTreePageId PID = new BTreePageId(7, 3, BTreePageId.LEAF);
+
+	private static byte[] page() {
+		byte[] data = new byte[BufferPool.getPageSize()];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i % 13);
+		return data;
+	}
+
+	/**
+	 * Unit test that a small change yields a small delta that redoes and
+	 * undoes it
+	 */
+	@Test public void redoUndo() {
+		byte[] before = page();
+		byte[] after = page();
+		after[0] ^= 1;          // header bit
+		after[100] = 42;        // slot
+		after[103] = 43;        // same slot: merged with the above
+		after[after.length - 1] = 44; // pointer
+
+		PageDelta delta = PageDelta.compute(PID, before, after);
+		assertEquals(3, delta.numRanges());
+		assertTrue(Arrays.equals(after, delta.redo(page())));
+		assertTrue(Arrays.equals(before, delta.undo(after.clone())));
+	}
+
+	/**
+	 * Unit test that a page rewritten entirely is not logged as a delta
+	 */
+	@Test public void largeChange() {
+		byte[] after = page();
+		for (int i = 0; i < after.length; i++)
+			after[i]++;
+		assertNull(PageDelta.compute(PID, page(), after));
+	}
+
+	/**
+	 * Unit test for PageDelta.write() and PageDelta.read()
+	 */
+	@Test public void serialize() throws IOException {
+		byte[] after = page();
+		after[200] = 1;
+		after[201] = 2;
+		PageDelta delta = PageDelta.compute(PID, page(), after);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		delta.write(new DataOutputStream(bytes));
+		assertTrue(bytes.size() < 100);
+		PageDelta read = PageDelta.read(new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(PID, read.getPageId());
+		assertTrue(Arrays.equals(after, read.redo(page())));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PageDeltaTest.class);
+	}
+}
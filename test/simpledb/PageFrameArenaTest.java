@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageFrameArenaTest {
+
+	private static BTreePageId pid(int pgNo) {
+		return new BTreePageId(1, pgNo, BTreePageId.LEAF);
+	}
+
+	private static byte[] pageData(int fill) {
+		byte[] data = new byte[BufferPool.getPageSize()];
+		Arrays.fill(data, (byte) fill);
+		return data;
+	}
+
+	/**
+	 * Unit test for PageFrameArena.put() and PageFrameArena.take()
+	 */
+	@Test public void putTake() {
+		PageFrameArena arena = new PageFrameArena(4);
+		assertTrue(arena.put(pid(1), pageData(1)));
+		assertTrue(arena.put(pid(2), pageData(2)));
+		assertEquals(2, arena.size());
+
+		assertTrue(Arrays.equals(pageData(2), arena.take(pid(2))));
+		// take() removes the page from the arena
+		assertNull(arena.take(pid(2)));
+		assertTrue(Arrays.equals(pageData(1), arena.take(pid(1))));
+		assertEquals(0, arena.size());
+	}
+
+	/**
+	 * Unit test that pages smaller than a frame keep their length
+	 */
+	@Test public void shortPage() {
+		PageFrameArena arena = new PageFrameArena(1);
+		byte[] data = new byte[] { 1, 2, 3 };
+		assertTrue(arena.put(pid(1), data));
+		assertTrue(Arrays.equals(data, arena.take(pid(1))));
+		assertFalse(arena.put(pid(2), new byte[BufferPool.getPageSize() + 1]));
+	}
+
+	/**
+	 * Unit test that a full arena drops the oldest page
+	 */
+	@Test public void evictOldest() {
+		PageFrameArena arena = new PageFrameArena(2);
+		arena.put(pid(1), pageData(1));
+		arena.put(pid(2), pageData(2));
+		arena.put(pid(3), pageData(3));
+		assertEquals(2, arena.size());
+		assertEquals(1, arena.getEvictions());
+		assertNull(arena.take(pid(1)));
+		assertTrue(Arrays.equals(pageData(3), arena.take(pid(3))));
+	}
+
+	/**
+	 * Unit test for PageFrameArena.remove()
+	 */
+	@Test public void remove() {
+		PageFrameArena arena = new PageFrameArena(2);
+		arena.put(pid(1), pageData(1));
+		arena.remove(pid(1));
+		assertNull(arena.take(pid(1)));
+		arena.put(pid(2), pageData(2));
+		arena.put(pid(3), pageData(3));
+		assertEquals(0, arena.getEvictions());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PageFrameArenaTest.class);
+	}
+}
@@ -0,0 +1,57 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageLatchesTest {
+
+	private static final PageId P0 = new BTreePageId(1, 0, BTreePageId.INTERNAL);
+	private static final PageId P1 = new BTreePageId(1, 1, BTreePageId.INTERNAL);
+
+	/**
+	 * Unit test that an optimistic read is valid until a writer latches
+	 * the page, and that it fails while the page is latched
+	 */
+	@Test public void readValidation() {
+		PageLatches latches = new PageLatches();
+		TransactionId writer = new TransactionId();
+		long v0 = latches.readBegin(P0);
+		long v1 = latches.readBegin(P1);
+		assertTrue(v0 >= 0);
+		assertTrue(latches.validate(P0, v0));
+
+		latches.beginWrite(writer, P0);
+		assertFalse(latches.validate(P0, v0));
+		assertEquals(-1, latches.readBegin(P0));
+		assertTrue(latches.validate(P1, v1));
+
+		latches.endWrites(writer);
+		long v2 = latches.readBegin(P0);
+		assertTrue(v2 >= 0);
+		assertTrue(v2 != v0);
+	}
+
+	/**
+	 * Unit test that latching a page twice in one operation needs one
+	 * release
+	 */
+	@Test public void reentrant() {
+		PageLatches latches = new PageLatches();
+		TransactionId writer = new TransactionId();
+		latches.beginWrite(writer, P0);
+		latches.beginWrite(writer, P0);
+		latches.endWrites(writer);
+		assertTrue(latches.readBegin(P0) >= 0);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PageLatchesTest.class);
+	}
+}
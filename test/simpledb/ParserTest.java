@@ -0,0 +1,51 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class ParserTest {
+
+	/**
+	 * Unit test that only the first statement of a multi-statement input
+	 * is read, with its own LIMIT rather than the last statement's
+	 */
+	@Test public void firstStatementLimit() {
+		int[] limit = new int[1];
+		String text = "SELECT * FROM t;\nSELECT * FROM u LIMIT 5;\n";
+		assertEquals("SELECT * FROM t;", Parser.stripLimit(Parser.firstStatement(text), limit));
+		assertEquals(-1, limit[0]);
+
+		text = "SELECT * FROM t LIMIT 3;\nSELECT * FROM u LIMIT 5;\n";
+		assertEquals("SELECT * FROM t;", Parser.stripLimit(Parser.firstStatement(text), limit));
+		assertEquals(3, limit[0]);
+	}
+
+	/**
+	 * Unit test that a semicolon or LIMIT inside a string literal is left
+	 * alone
+	 */
+	@Test public void limitInLiteral() {
+		int[] limit = new int[1];
+		String text = "SELECT * FROM t WHERE t.s = 'x LIMIT 5;';";
+		assertEquals(text, Parser.firstStatement(text));
+		assertEquals(text, Parser.stripLimit(Parser.firstStatement(text), limit));
+		assertEquals(-1, limit[0]);
+
+		text = "SELECT * FROM t WHERE t.s = 'a; b' LIMIT 2;";
+		assertEquals("SELECT * FROM t WHERE t.s = 'a; b';", Parser.stripLimit(Parser.firstStatement(text), limit));
+		assertEquals(2, limit[0]);
+
+		assertEquals("SELECT * FROM t WHERE t.s = 'x LIMIT 5",
+				Parser.stripLimit("SELECT * FROM t WHERE t.s = 'x LIMIT 5", limit));
+		assertEquals(-1, limit[0]);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ParserTest.class);
+	}
+}
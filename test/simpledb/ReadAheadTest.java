@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+	private static final int PAGES = 40;
+
+	/** A table of PAGES pages made up in memory, counting page reads. */
+	private static class CountingFile extends TestUtil.SkeletonFile {
+		final int[] reads = new int[PAGES];
+
+		CountingFile(int tableid) {
+			super(tableid, Utility.getTupleDesc(1));
+		}
+
+		public Page readPage(PageId id) {
+			synchronized (reads) {
+				reads[id.getPageNumber()]++;
+			}
+			try {
+				return new BTreeHeaderPage((BTreePageId) id, BTreeHeaderPage.createEmptyPageData());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private int tableid;
+	private CountingFile file;
+	private BufferPool pool;
+
+	private final ReadAhead.Successor nextPage = new ReadAhead.Successor() {
+		public PageId next(Page page) {
+			int next = page.getId().getPageNumber() + 1;
+			return next < PAGES ? new BTreePageId(tableid, next, BTreePageId.HEADER) : null;
+		}
+	};
+
+	@Before public void setUp() {
+		tableid = SystemTestUtil.getUUID().hashCode();
+		file = new CountingFile(tableid);
+		Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+		pool = new BufferPool(2 * PAGES, new ClockPolicy(2 * PAGES));
+	}
+
+	private void scan(int stride) throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < PAGES; i += stride) {
+			Page p = pool.getPage(tid, new BTreePageId(tableid, i, BTreePageId.HEADER),
+					Permissions.READ_ONLY);
+			pool.getReadAhead().pageRead(p, nextPage);
+		}
+		pool.transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test that a sequential scan reads ahead, and that read-ahead
+	 * never reads a page twice
+	 */
+	@Test public void sequentialScan() throws Exception {
+		scan(1);
+		assertTrue(pool.getReadAhead().getPagesReadAhead() > 0);
+		for (int i = 0; i < PAGES; i++)
+			assertEquals(1, file.reads[i]);
+	}
+
+	/**
+	 * Unit test that non-sequential access does not read ahead
+	 */
+	@Test public void skippingScan() throws Exception {
+		scan(2);
+		assertEquals(0, pool.getReadAhead().getPagesReadAhead());
+		for (int i = 1; i < PAGES; i += 2)
+			assertEquals(0, file.reads[i]);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ReadAheadTest.class);
+	}
+}
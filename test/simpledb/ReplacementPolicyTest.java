@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest {
+
+	private static final ReplacementPolicy.EvictionFilter ANY = new ReplacementPolicy.EvictionFilter() {
+		public boolean canEvict(PageId pid) {
+			return true;
+		}
+	};
+
+	private static BTreePageId pid(int pgNo) {
+		return new BTreePageId(1, pgNo, BTreePageId.LEAF);
+	}
+
+	/**
+	 * Simulate a pool of numPages pages driven by the given policy: reference
+	 * each page, evicting when the pool is full. Returns the resident set.
+	 */
+	private static Set<PageId> run(ReplacementPolicy policy, int numPages, int... refs) {
+		Set<PageId> resident = new HashSet<PageId>();
+		for (int r : refs) {
+			PageId p = pid(r);
+			if (resident.contains(p)) {
+				policy.recordHit(p);
+				continue;
+			}
+			if (resident.size() >= numPages) {
+				PageId victim = policy.chooseVictim(ANY);
+				assertTrue(resident.remove(victim));
+			}
+			resident.add(p);
+			policy.recordMiss(p);
+		}
+		return resident;
+	}
+
+	private static int[] hotThenScan(int hot, int scanFrom, int scanLen) {
+		int[] refs = new int[2 + scanLen];
+		refs[0] = hot;
+		refs[1] = hot;
+		for (int i = 0; i < scanLen; i++)
+			refs[2 + i] = scanFrom + i;
+		return refs;
+	}
+
+	/**
+	 * Unit test for the hit, miss and eviction counters
+	 */
+	@Test public void counters() {
+		ReplacementPolicy policy = new ClockPolicy(2);
+		run(policy, 2, 1, 2, 1, 3, 4);
+		assertEquals(1, policy.getHits());
+		assertEquals(4, policy.getMisses());
+		assertEquals(2, policy.getEvictions());
+		policy.resetStats();
+		assertEquals(0, policy.getHits());
+		assertEquals(0, policy.getMisses());
+		assertEquals(0, policy.getEvictions());
+	}
+
+	/**
+	 * Unit test that no policy returns a page rejected by the filter
+	 */
+	@Test public void respectsFilter() {
+		ReplacementPolicy[] policies = { new ClockPolicy(3), new LRUKPolicy(3), new TwoQPolicy(3) };
+		for (ReplacementPolicy policy : policies) {
+			run(policy, 3, 1, 2, 3);
+			PageId victim = policy.chooseVictim(new ReplacementPolicy.EvictionFilter() {
+				public boolean canEvict(PageId p) {
+					return p.equals(pid(2));
+				}
+			});
+			assertEquals(pid(2), victim);
+			assertNull(policy.chooseVictim(new ReplacementPolicy.EvictionFilter() {
+				public boolean canEvict(PageId p) {
+					return false;
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Unit test that CLOCK gives referenced pages a second chance
+	 */
+	@Test public void clockSecondChance() {
+		ReplacementPolicy policy = new ClockPolicy(3);
+		Set<PageId> resident = run(policy, 3, 1, 2, 3, 1, 4);
+		assertTrue(resident.contains(pid(1)));
+		assertTrue(!resident.contains(pid(2)));
+	}
+
+	/**
+	 * Unit test that a page referenced twice survives a long scan under LRU-2
+	 */
+	@Test public void lruKResistsScan() {
+		ReplacementPolicy policy = new LRUKPolicy(4);
+		Set<PageId> resident = run(policy, 4, hotThenScan(1, 100, 50));
+		assertTrue(resident.contains(pid(1)));
+	}
+
+	/**
+	 * Unit test that 2Q rejects an A1in queue larger than the pool
+	 */
+	@Test(expected=IllegalArgumentException.class) public void twoQRejectsLargeKin() {
+		new TwoQPolicy(8, 9, 4);
+	}
+
+	/**
+	 * Unit test that a page re-read after leaving A1in survives a long scan under 2Q
+	 */
+	@Test public void twoQResistsScan() {
+		ReplacementPolicy policy = new TwoQPolicy(8);
+		// page 1 is pushed out of A1in, then read again and promoted to Am
+		Set<PageId> resident = run(policy, 8, 1, 2, 3, 4, 5, 6, 7, 8, 9, 1);
+		assertTrue(resident.contains(pid(1)));
+		int[] scan = new int[100];
+		for (int i = 0; i < scan.length; i++)
+			scan[i] = 100 + i;
+		for (int r : scan) {
+			PageId p = pid(r);
+			PageId victim = policy.chooseVictim(ANY);
+			resident.remove(victim);
+			resident.add(p);
+			policy.recordMiss(p);
+		}
+		assertTrue(resident.contains(pid(1)));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+	}
+}
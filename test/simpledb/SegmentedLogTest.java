@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+public class SegmentedLogTest {
+
+	private static final int SEGMENT_SIZE = 64;
+
+	private File master;
+	private SegmentedLog log;
+
+	@Before public void setUp() throws IOException {
+		master = File.createTempFile("segmentedlog", "");
+		log = new SegmentedLog(master, SEGMENT_SIZE);
+	}
+
+	@After public void tearDown() throws IOException {
+		log.clear();
+		log.close();
+		master.delete();
+	}
+
+	/** Write the master record and n longs after it */
+	private void fill(int n) throws IOException {
+		log.seek(0);
+		log.writeLong(LogFile.NO_CHECKPOINT_ID);
+		for (long i = 0; i < n; i++)
+			log.writeLong(i);
+	}
+
+	/**
+	 * Unit test that records read back across segment boundaries
+	 */
+	@Test public void readAcrossSegments() throws IOException {
+		log.seek(0);
+		log.writeLong(LogFile.NO_CHECKPOINT_ID);
+		log.writeInt(1); // leaves the longs misaligned with the segments
+		for (long i = 0; i < 100; i++)
+			log.writeLong(i);
+		assertEquals(LogFile.LONG_SIZE + LogFile.INT_SIZE + 100 * LogFile.LONG_SIZE, log.length());
+
+		log.seek(0);
+		assertEquals(LogFile.NO_CHECKPOINT_ID, log.readLong());
+		assertEquals(1, log.readInt());
+		for (long i = 0; i < 100; i++)
+			assertEquals(i, log.readLong());
+		try {
+			log.readInt();
+			fail("expected EOFException");
+		} catch (EOFException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Unit test that truncation deletes whole segments and keeps offsets
+	 */
+	@Test public void truncate() throws IOException {
+		fill(100); // 800 bytes: 13 segments
+		long lsn = LogFile.LONG_SIZE + 50 * LogFile.LONG_SIZE;
+		assertEquals(6, log.truncateBefore(lsn));
+		assertTrue(log.firstLSN() <= lsn);
+
+		log.seek(lsn);
+		assertEquals(50, log.readLong());
+		log.seek(0);
+		assertEquals(LogFile.NO_CHECKPOINT_ID, log.readLong());
+		try {
+			log.readLong();
+			fail("expected IOException for a truncated offset");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Unit test that a reopened log finds its segments
+	 */
+	@Test public void reopen() throws IOException {
+		fill(100);
+		log.truncateBefore(LogFile.LONG_SIZE + 20 * LogFile.LONG_SIZE);
+		long length = log.length();
+		log.close();
+
+		log = new SegmentedLog(master, SEGMENT_SIZE);
+		assertEquals(length, log.length());
+		log.seek(LogFile.LONG_SIZE + 99 * LogFile.LONG_SIZE);
+		assertEquals(99, log.readLong());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SegmentedLogTest.class);
+	}
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class SnapshotIsolationTest extends SimpleDbTestBase {
+
+	/** A table of header pages kept in memory, standing in for the disk. */
+	private static class MemoryFile extends TestUtil.SkeletonFile {
+		final HashMap<Integer, byte[]> disk = new HashMap<Integer, byte[]>();
+
+		MemoryFile(int tableid) {
+			super(tableid, Utility.getTupleDesc(1));
+		}
+
+		public synchronized Page readPage(PageId id) {
+			byte[] data = disk.get(id.getPageNumber());
+			return parsePage(id, data != null ? data.clone() : BTreeHeaderPage.createEmptyPageData());
+		}
+
+		public Page parsePage(PageId id, byte[] data) {
+			try {
+				return new BTreeHeaderPage((BTreePageId) id, data);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public synchronized void writePage(Page p) {
+			disk.put(p.getId().getPageNumber(), p.getPageData());
+		}
+	}
+
+	private BTreePageId pid;
+	private BufferPool pool;
+
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		int tableid = SystemTestUtil.getUUID().hashCode();
+		Database.getCatalog().addTable(new MemoryFile(tableid), SystemTestUtil.getUUID());
+		pid = new BTreePageId(tableid, 0, BTreePageId.HEADER);
+		pool = new BufferPool(BufferPool.DEFAULT_PAGES);
+		pool.enableSnapshotIsolation();
+	}
+
+	/** Set a slot of the page on behalf of tid, and commit tid. */
+	private void commitSlot(int slot) throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreeHeaderPage page = (BTreeHeaderPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+		page.markSlotUsed(slot, true);
+		page.markDirty(true, tid);
+		pool.transactionComplete(tid, true);
+	}
+
+	private boolean sees(TransactionId tid, int slot) throws Exception {
+		return ((BTreeHeaderPage) pool.getPage(tid, pid, Permissions.READ_ONLY)).isSlotUsed(slot);
+	}
+
+	/**
+	 * Unit test that a snapshot reads the committed state as of its start,
+	 * whatever writers commit meanwhile
+	 */
+	@Test public void readsSnapshot() throws Exception {
+		commitSlot(0);
+		TransactionId reader = new TransactionId();
+		pool.beginSnapshot(reader);
+		commitSlot(1);
+		commitSlot(2);
+
+		assertTrue(sees(reader, 0));
+		assertFalse(sees(reader, 1));
+		assertFalse(sees(reader, 2));
+		pool.transactionComplete(reader);
+
+		TransactionId later = new TransactionId();
+		pool.beginSnapshot(later);
+		assertTrue(sees(later, 2));
+		pool.transactionComplete(later);
+		assertEquals(0, pool.getVersionStore().getNumVersions());
+	}
+
+	/**
+	 * Unit test that a snapshot neither blocks nor sees an uncommitted
+	 * writer, even once its page has been flushed
+	 */
+	@Test public void doesNotBlock() throws Exception {
+		TransactionId writer = new TransactionId();
+		BTreeHeaderPage page = (BTreeHeaderPage) pool.getPage(writer, pid, Permissions.READ_WRITE);
+		page.markSlotUsed(3, true);
+		page.markDirty(true, writer);
+
+		TransactionId reader = new TransactionId();
+		pool.beginSnapshot(reader);
+		assertFalse(sees(reader, 3));
+		pool.flushAllPages();
+		pool.discardPage(pid);
+		assertFalse(sees(reader, 3));
+		assertFalse(pool.holdsLock(reader, pid));
+
+		pool.transactionComplete(writer, true);
+		assertFalse(sees(reader, 3));
+		pool.transactionComplete(reader);
+	}
+
+	/**
+	 * Unit test that snapshot transactions cannot write
+	 */
+	@Test(expected=DbException.class) public void readOnly() throws Exception {
+		TransactionId reader = new TransactionId();
+		pool.beginSnapshot(reader);
+		pool.getPage(reader, pid, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SnapshotIsolationTest.class);
+	}
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+	private static final Predicate.Op[] OPS = {
+		Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+		Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ
+	};
+
+	/** Returns two column tuples {key, i} for the given keys, which are sorted first. */
+	private static TupleIterator sorted(int[] keys) {
+		keys = keys.clone();
+		Arrays.sort(keys);
+		int[] data = new int[2 * keys.length];
+		for(int i = 0; i < keys.length; i++) {
+			data[2 * i] = keys[i];
+			data[2 * i + 1] = i;
+		}
+		return TestUtil.createTupleList(2, data);
+	}
+
+	private static int[] randomKeys(int n, int max, long seed) {
+		Random r = new Random(seed);
+		int[] keys = new int[n];
+		for(int i = 0; i < n; i++) {
+			keys[i] = r.nextInt(max);
+		}
+		return keys;
+	}
+
+	/** Returns the result of a join as sorted strings, checking its order on the way. */
+	private static ArrayList<String> run(SortMergeJoin join) throws Exception {
+		ArrayList<String> result = new ArrayList<String>();
+		Field prev1 = null, prev2 = null;
+		while(join.hasNext()) {
+			Tuple t = join.next();
+			if(prev1 != null && join.isSortedOn(0)) {
+				assertFalse(t.getField(0).compare(Predicate.Op.LESS_THAN, prev1));
+			}
+			if(prev2 != null && join.isSortedOn(2)) {
+				assertFalse(t.getField(2).compare(Predicate.Op.LESS_THAN, prev2));
+			}
+			prev1 = t.getField(0);
+			prev2 = t.getField(2);
+			result.add(t.getField(1) + " " + t.getField(3));
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/** Join the keys with every operator and check against a nested loops join. */
+	private static void check(int[] keys1, int[] keys2) throws Exception {
+		for(Predicate.Op op : OPS) {
+			JoinPredicate pred = new JoinPredicate(0, op, 0);
+			TupleIterator left = sorted(keys1);
+			TupleIterator right = sorted(keys2);
+			ArrayList<String> expected = new ArrayList<String>();
+			left.open();
+			while(left.hasNext()) {
+				Tuple t1 = left.next();
+				right.open();
+				while(right.hasNext()) {
+					Tuple t2 = right.next();
+					if(pred.filter(t1, t2)) {
+						expected.add(t1.getField(1) + " " + t2.getField(1));
+					}
+				}
+				right.close();
+			}
+			left.close();
+			Collections.sort(expected);
+
+			SortMergeJoin join = new SortMergeJoin(pred, sorted(keys1), sorted(keys2));
+			join.open();
+			assertEquals(op.toString(), expected, run(join));
+			join.rewind();
+			assertEquals(op.toString(), expected, run(join));
+			join.close();
+		}
+	}
+
+	/**
+	 * Unit test for inputs with many duplicate keys on both sides
+	 */
+	@Test public void duplicates() throws Exception {
+		check(randomKeys(300, 40, 1), randomKeys(200, 50, 2));
+		check(new int[] {1, 1, 1, 2, 2}, new int[] {1, 1, 2, 2, 2});
+	}
+
+	/**
+	 * Unit test for inputs that do not overlap, or are empty
+	 */
+	@Test public void disjoint() throws Exception {
+		check(new int[] {1, 2, 3}, new int[] {4, 5, 6});
+		check(new int[] {4, 5, 6}, new int[] {1, 2, 3});
+		check(new int[0], new int[] {1, 2});
+		check(new int[] {1, 2}, new int[0]);
+	}
+
+	/**
+	 * Unit test that the operators a merge cannot handle are rejected
+	 */
+	@Test(expected=IllegalArgumentException.class) public void notEquals() {
+		new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+				sorted(new int[0]), sorted(new int[0]));
+	}
+
+	/**
+	 * Unit test that the optimizer knows which plans are sorted
+	 */
+	@Test public void isSortedOn() {
+		OpIterator scan = sorted(new int[] {3, 1, 2});
+		assertFalse(JoinOptimizer.isSortedOn(scan, 0));
+		assertTrue(JoinOptimizer.isSortedOn(new OrderBy(0, true, scan), 0));
+		assertFalse(JoinOptimizer.isSortedOn(new OrderBy(0, false, scan), 0));
+		assertFalse(JoinOptimizer.isSortedOn(new OrderBy(1, true, scan), 0));
+
+		OrderBy ob = new OrderBy(0, true, scan);
+		SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), ob, ob);
+		assertTrue(JoinOptimizer.isSortedOn(join, 0));
+		assertTrue(JoinOptimizer.isSortedOn(join, 2));
+		assertFalse(JoinOptimizer.isSortedOn(join, 1));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SortMergeJoinTest.class);
+	}
+}
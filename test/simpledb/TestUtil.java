@@ -206,6 +206,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public Page parsePage(PageId id, byte[] data) {
+            throw new RuntimeException("not implemented");
+        }
+
         public int numPages() {
             throw new RuntimeException("not implemented");
         }
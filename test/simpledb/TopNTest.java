@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TopNTest extends SimpleDbTestBase {
+
+	/** Returns two column tuples {key, i} for random keys. */
+	private static TupleIterator randomTuples(int n) {
+		Random r = new Random(7);
+		int[] data = new int[2 * n];
+		for(int i = 0; i < n; i++) {
+			data[2 * i] = r.nextInt(1000);
+			data[2 * i + 1] = i;
+		}
+		return TestUtil.createTupleList(2, data);
+	}
+
+	/**
+	 * Unit test that TopN returns the same tuples as the start of OrderBy
+	 */
+	@Test public void matchesOrderBy() throws Exception {
+		for(boolean asc : new boolean[] {true, false}) {
+			for(int limit : new int[] {0, 1, 10, 5000, 6000}) {
+				OrderBy ob = new OrderBy(0, asc, randomTuples(5000));
+				TopN top = new TopN(0, asc, limit, randomTuples(5000));
+				ob.open();
+				top.open();
+				for(int i = 0; i < Math.min(limit, 5000); i++) {
+					assertTrue(top.hasNext());
+					assertEquals(ob.next().getField(0), top.next().getField(0));
+				}
+				assertFalse(top.hasNext());
+
+				// rewinding starts over
+				top.rewind();
+				assertEquals(limit > 0, top.hasNext());
+				top.close();
+				ob.close();
+			}
+		}
+	}
+
+	/**
+	 * Unit test that a LIMIT clause is taken off the end of a statement
+	 */
+	@Test public void stripLimit() {
+		int[] limit = new int[1];
+		assertEquals("SELECT t.a FROM t ORDER BY t.a;",
+				Parser.stripLimit("SELECT t.a FROM t ORDER BY t.a LIMIT 10;", limit));
+		assertEquals(10, limit[0]);
+		assertEquals("select t.a from t\norder by t.a desc;",
+				Parser.stripLimit("select t.a from t\norder by t.a desc\n  limit 3 ;\n", limit));
+		assertEquals(3, limit[0]);
+
+		String noLimit = "SELECT t.limit FROM t;";
+		assertSame(noLimit, Parser.stripLimit(noLimit, limit));
+		assertEquals(-1, limit[0]);
+	}
+
+	/**
+	 * Unit test that a LIMIT without ORDER BY is rejected
+	 */
+	@Test(expected=ParsingException.class) public void limitWithoutOrderBy() throws Exception {
+		new LogicalPlan().setLimit(5);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(TopNTest.class);
+	}
+}
@@ -0,0 +1,112 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Concurrent lookups in the partitioned BufferPool page table. Loads a
+ * table's worth of pages into a pool large enough to hold all of them, then
+ * has several threads look up random resident pages, and checks that every
+ * lookup was served from the pool and no page was lost.
+ */
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+    private static final int PAGES = 1024;
+    private static final int LOOKUPS_PER_THREAD = 20000;
+
+    /** A table whose pages are made up in memory rather than read from disk. */
+    private static class InMemoryFile extends simpledb.TestUtil.SkeletonFile {
+        InMemoryFile(int tableid) {
+            super(tableid, Utility.getTupleDesc(1));
+        }
+
+        public Page readPage(PageId id) {
+            try {
+                return new BTreeHeaderPage((BTreePageId) id, BTreeHeaderPage.createEmptyPageData());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void checkLookups(final BufferPool pool, final int tableid, int threads)
+            throws Exception {
+        final TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; i++)
+            pool.getPage(tid, new BTreePageId(tableid, i, BTreePageId.HEADER), Permissions.READ_ONLY);
+
+        Thread[] workers = new Thread[threads];
+        final Exception[] failure = new Exception[1];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    TransactionId workerTid = new TransactionId();
+                    try {
+                        for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                            BTreePageId pid = new BTreePageId(tableid, r.nextInt(PAGES), BTreePageId.HEADER);
+                            pool.getPage(workerTid, pid, Permissions.READ_ONLY);
+                        }
+                        pool.transactionComplete(workerTid);
+                    } catch (Exception e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        if (failure[0] != null)
+            throw failure[0];
+
+        assertEquals(PAGES, pool.getMisses());
+        assertEquals((long) threads * LOOKUPS_PER_THREAD, pool.getHits());
+        assertEquals(0, pool.getEvictions());
+
+        // every page is still resident
+        for (int i = 0; i < PAGES; i++)
+            pool.getPage(tid, new BTreePageId(tableid, i, BTreePageId.HEADER), Permissions.READ_ONLY);
+        assertEquals(PAGES, pool.getMisses());
+        pool.transactionComplete(tid);
+    }
+
+    @Test public void testUnpartitioned() throws Exception {
+        int tableid = SystemTestUtil.getUUID().hashCode();
+        Database.getCatalog().addTable(new InMemoryFile(tableid), SystemTestUtil.getUUID());
+        int threads = Runtime.getRuntime().availableProcessors();
+        checkLookups(new BufferPool(PAGES, new ClockPolicy(PAGES)), tableid, threads);
+    }
+
+    /**
+     * The pages of a single table must spread over all partitions: with
+     * twice the room needed, none of them may overflow.
+     */
+    @Test public void testPartitioned() throws Exception {
+        int tableid = SystemTestUtil.getUUID().hashCode();
+        Database.getCatalog().addTable(new InMemoryFile(tableid), SystemTestUtil.getUUID());
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int partitions : new int[] { 2, 4, 8, Math.max(2, threads) }) {
+            BufferPool pool = new BufferPool(2 * PAGES, partitions, new ReplacementPolicy.Factory() {
+                public ReplacementPolicy create(int numPages) {
+                    return new ClockPolicy(numPages);
+                }
+            });
+            checkLookups(pool, tableid, threads);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private final static Random r = new Random();
+
+    /**
+     * Joins outer keys with a random B+ tree using each operator, and checks
+     * the result against a nested loops join of the tuples.
+     */
+    private void validateJoin(int rows, int outerRows)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int keyField = r.nextInt(2);
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, rows, null, tuples, keyField);
+
+        int[] outerKeys = new int[outerRows];
+        for (int i = 0; i < outerRows; i++) {
+            outerKeys[i] = r.nextInt(BTreeUtility.MAX_RAND_VALUE);
+        }
+
+        TransactionId tid = new TransactionId();
+        for (Op op : new Op[] { Op.EQUALS, Op.LESS_THAN, Op.LESS_THAN_OR_EQ,
+                Op.GREATER_THAN, Op.GREATER_THAN_OR_EQ }) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (int key : outerKeys) {
+                for (ArrayList<Integer> tup : tuples) {
+                    if (new IntField(key).compare(op, new IntField(tup.get(keyField)))) {
+                        ArrayList<Integer> joined = new ArrayList<Integer>();
+                        joined.add(key);
+                        joined.addAll(tup);
+                        expected.add(joined);
+                    }
+                }
+            }
+            OpIterator outer = TestUtil.createTupleList(1, outerKeys);
+            IndexNestedLoopJoin join = new IndexNestedLoopJoin(tid,
+                    new JoinPredicate(0, op, keyField), outer, f.getId(), "table");
+            SystemTestUtil.matchTuples(join, expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Probe a table of one leaf and one of several levels. */
+    @Test public void testJoin() throws IOException, DbException, TransactionAbortedException {
+        validateJoin(100, 20);
+        validateJoin(5000, 50);
+    }
+
+    /** Test that the inner table must be keyed on the join field. */
+    @Test(expected=IllegalArgumentException.class)
+    public void testNotKeyed() throws IOException, DbException, TransactionAbortedException {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+        new IndexNestedLoopJoin(new TransactionId(), new JoinPredicate(0, Op.EQUALS, 1),
+                TestUtil.createTupleList(1, new int[] { 1 }), f.getId(), "table");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}